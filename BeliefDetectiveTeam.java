@@ -0,0 +1,365 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import uk.ac.bris.cs.gamekit.graph.Graph;
+
+/**
+ * A coordinated detective team that plays every detective of a game.
+ *
+ * <br>
+ * The team keeps a probability distribution over Mr.X's location, one entry per
+ * node of a {@link GraphIndex}. It updates the distribution from the moves it
+ * is told about as a {@link Spectator}, so it must be registered with the game
+ * as well as being used as the player of each detective. A revealed move pins
+ * Mr.X down. A hidden move spreads the probability of each node evenly over
+ * the neighbours reachable with the ticket Mr.X used. A detective move removes
+ * the probability of the node it lands on.
+ *
+ * <br>
+ * Each rotation the team picks a joint assignment of destinations, one per
+ * detective. The assignment maximises the probability of landing on Mr.X now,
+ * plus a smaller weight for covering the nodes he can reach next. It starts
+ * from a greedy assignment and improves one detective at a time until no
+ * change helps. All of this works on primitive arrays and takes time
+ * proportional to the number of edges of the map.
+ *
+ * <br>
+ * A team instance belongs to one game at a time; its methods are synchronized
+ * so many teams can run in concurrent games.
+ */
+public class BeliefDetectiveTeam implements Player, Spectator {
+
+	private static final double LOOKAHEAD_WEIGHT = 0.5;
+	private static final int MAX_PASSES = 4;
+
+	private final GraphIndex index;
+	private final int[] starts;
+	private final double[] belief;
+	private final double[] scratch;
+	private final double[] next;
+	private final int[] stamps;
+	private int stamp;
+	private final int[] plan = new int[Colour.values().length];
+	private int planRound = -1;
+
+	/**
+	 * Creates a team that assumes Mr.X can start anywhere
+	 *
+	 * @param graph the graph of the game; not null
+	 */
+	public BeliefDetectiveTeam(Graph<Integer, Transport> graph) {
+		this(graph, Collections.emptyList());
+	}
+
+	/**
+	 * Creates a team that knows where Mr.X may start, e.g.
+	 * {@link StandardGame#MRX_LOCATIONS}
+	 *
+	 * @param graph the graph of the game; not null
+	 * @param mrXStartLocations possible start locations of Mr.X, or empty if he
+	 *        can start anywhere; not null
+	 */
+	public BeliefDetectiveTeam(Graph<Integer, Transport> graph,
+			Collection<Integer> mrXStartLocations) {
+		this(GraphIndex.of(Objects.requireNonNull(graph)), mrXStartLocations);
+	}
+
+	/**
+	 * Creates a team on an index of the graph, e.g. one in an ordering that
+	 * keeps neighbours close, see {@link MapDefinition#index()}
+	 *
+	 * @param index the index of the graph of the game; not null
+	 * @param mrXStartLocations possible start locations of Mr.X, or empty if he
+	 *        can start anywhere; not null
+	 */
+	public BeliefDetectiveTeam(GraphIndex index, Collection<Integer> mrXStartLocations) {
+		this.index = Objects.requireNonNull(index);
+		int[] starts = new int[mrXStartLocations.size()];
+		int count = 0;
+		for (int location : mrXStartLocations) {
+			int node = index.indexOf(location);
+			if (node >= 0) starts[count++] = node;
+		}
+		this.starts = Arrays.copyOf(starts, count);
+		this.belief = new double[index.size()];
+		this.scratch = new double[index.size()];
+		this.next = new double[index.size()];
+		this.stamps = new int[index.size()];
+		reset();
+	}
+
+	/**
+	 * @param location a location on the map
+	 * @return the probability that Mr.X is at the location
+	 */
+	public synchronized double probabilityAt(int location) {
+		int node = index.indexOf(location);
+		return node < 0 ? 0 : belief[node];
+	}
+
+	@Override
+	public synchronized void makeMove(ScotlandYardView view, int location, Set<Move> moves,
+			Consumer<Move> callback) {
+		Colour colour = view.getCurrentPlayer();
+		if (colour.isMrX()) throw new IllegalStateException("The team only plays detectives");
+		if (planRound != view.getCurrentRound() || plan[colour.ordinal()] < 0) planRotation(view);
+		callback.accept(choose(view, colour, moves, plan[colour.ordinal()]));
+	}
+
+	@Override
+	public synchronized void onMoveMade(ScotlandYardView view, Move move) {
+		move.visit(new MoveVisitor() {
+			@Override
+			public void visit(TicketMove move) {
+				if (move.colour().isMrX()) mrXMoved(view, move);
+				else detectiveMoved(move.destination());
+			}
+		});
+	}
+
+	@Override
+	public synchronized void onGameOver(ScotlandYardView view, Set<Colour> winningPlayers) {
+		reset();
+	}
+
+	private void reset() {
+		Arrays.fill(belief, 0);
+		if (starts.length == 0) {
+			Arrays.fill(belief, 1.0 / belief.length);
+		} else {
+			for (int node : starts)
+				belief[node] = 1.0 / starts.length;
+		}
+		planRound = -1;
+	}
+
+	// double moves are also reported as their two ticket moves, only those are used
+	private void mrXMoved(ScotlandYardView view, TicketMove move) {
+		int round = view.getCurrentRound();
+		boolean revealed = round > 0 && view.getRounds().get(round - 1);
+		if (revealed && index.indexOf(move.destination()) >= 0) {
+			Arrays.fill(belief, 0);
+			belief[index.indexOf(move.destination())] = 1;
+			return;
+		}
+		int[] detectives = detectiveNodes(view);
+		spread(belief, scratch, GraphIndex.transportMask(move.ticket()), detectives);
+		System.arraycopy(scratch, 0, belief, 0, belief.length);
+		if (!normalise(belief)) fallback(detectives);
+	}
+
+	private void detectiveMoved(int destination) {
+		int node = index.indexOf(destination);
+		if (node < 0) return;
+		belief[node] = 0;
+		if (!normalise(belief)) fallback(new int[] { node });
+	}
+
+	// if the evidence contradicts the belief, Mr.X could be anywhere a detective is not
+	private void fallback(int[] detectives) {
+		Arrays.fill(belief, 1);
+		for (int node : detectives)
+			belief[node] = 0;
+		normalise(belief);
+	}
+
+	// moves the probability of every node evenly to the neighbours allowed by the mask
+	private void spread(double[] from, double[] to, int mask, int[] blocked) {
+		Arrays.fill(to, 0);
+		stamp++;
+		for (int node : blocked)
+			stamps[node] = stamp;
+		for (int node = 0; node < from.length; node++) {
+			double p = from[node];
+			if (p == 0) continue;
+			int options = 0;
+			for (int slot = index.start(node); slot < index.end(node); slot++) {
+				if ((index.transports(slot) & mask) != 0 && stamps[index.neighbour(slot)] != stamp)
+					options++;
+			}
+			if (options == 0) continue;
+			double share = p / options;
+			for (int slot = index.start(node); slot < index.end(node); slot++) {
+				if ((index.transports(slot) & mask) != 0 && stamps[index.neighbour(slot)] != stamp)
+					to[index.neighbour(slot)] += share;
+			}
+		}
+	}
+
+	private static boolean normalise(double[] values) {
+		double total = 0;
+		for (double value : values)
+			total += value;
+		if (total <= 0) return false;
+		for (int i = 0; i < values.length; i++)
+			values[i] /= total;
+		return true;
+	}
+
+	private int[] detectiveNodes(ScotlandYardView view) {
+		List<Colour> players = view.getPlayers();
+		int[] nodes = new int[players.size() - 1];
+		int count = 0;
+		for (Colour colour : players) {
+			if (colour.isDetective()) {
+				int node = index.indexOf(view.getPlayerLocation(colour));
+				if (node >= 0) nodes[count++] = node;
+			}
+		}
+		return Arrays.copyOf(nodes, count);
+	}
+
+	// assigns a destination to the current and every later detective of this rotation
+	private void planRotation(ScotlandYardView view) {
+		Arrays.fill(plan, -1);
+		planRound = view.getCurrentRound();
+		List<Colour> players = view.getPlayers();
+		List<Colour> team = new ArrayList<>();
+		for (int i = players.indexOf(view.getCurrentPlayer()); i < players.size(); i++)
+			team.add(players.get(i));
+		int[] current = new int[team.size()];
+		int[][] candidates = new int[team.size()][];
+		int[] fixed = new int[players.size()];
+		int fixedCount = 0;
+		for (Colour colour : players) {
+			if (colour.isDetective() && !team.contains(colour))
+				fixed[fixedCount++] = index.indexOf(view.getPlayerLocation(colour));
+		}
+		fixed = Arrays.copyOf(fixed, fixedCount);
+		for (int i = 0; i < team.size(); i++)
+			current[i] = index.indexOf(view.getPlayerLocation(team.get(i)));
+		for (int i = 0; i < team.size(); i++)
+			candidates[i] = candidates(view, team.get(i), i, current, fixed);
+
+		// where Mr.X can be after his next move, whatever ticket he uses
+		spread(belief, next, GraphIndex.transportMask(Ticket.Secret), fixed);
+
+		int[] choice = new int[team.size()];
+		Arrays.fill(choice, -1);
+		for (int i = 0; i < team.size(); i++)
+			choice[i] = best(i, candidates[i], choice);
+		for (int pass = 0; pass < MAX_PASSES; pass++) {
+			boolean improved = false;
+			for (int i = 0; i < team.size(); i++) {
+				int previous = choice[i];
+				choice[i] = -1;
+				choice[i] = best(i, candidates[i], choice);
+				if (choice[i] != previous && score(choice) > scoreWith(choice, i, previous))
+					improved = true;
+			}
+			if (!improved) break;
+		}
+		for (int i = 0; i < team.size(); i++)
+			plan[team.get(i).ordinal()] = choice[i];
+	}
+
+	// the nodes a detective can move to, team mates that move later still block their node
+	private int[] candidates(ScotlandYardView view, Colour colour, int member, int[] team,
+			int[] fixed) {
+		int node = team[member];
+		int mask = 0;
+		for (Ticket ticket : Ticket.values()) {
+			if (ticket != Ticket.Secret && view.getPlayerTickets(colour, ticket) > 0)
+				mask |= GraphIndex.transportMask(ticket);
+		}
+		if (view.getPlayerTickets(colour, Ticket.Secret) > 0)
+			mask |= GraphIndex.transportMask(Ticket.Secret);
+		int[] nodes = new int[index.degree(node)];
+		int count = 0;
+		next: for (int slot = index.start(node); slot < index.end(node); slot++) {
+			if ((index.transports(slot) & mask) == 0) continue;
+			int neighbour = index.neighbour(slot);
+			for (int other : fixed) {
+				if (other == neighbour) continue next;
+			}
+			for (int later = member + 1; later < team.length; later++) {
+				if (team[later] == neighbour) continue next;
+			}
+			nodes[count++] = neighbour;
+		}
+		return Arrays.copyOf(nodes, count);
+	}
+
+	// the candidate that adds the most to the score given the other choices, -1 to stay
+	private int best(int detective, int[] candidates, int[] choice) {
+		int best = -1;
+		double bestScore = Double.NEGATIVE_INFINITY;
+		for (int candidate : candidates) {
+			if (taken(choice, detective, candidate)) continue;
+			choice[detective] = candidate;
+			double score = score(choice);
+			if (score > bestScore) {
+				bestScore = score;
+				best = candidate;
+			}
+		}
+		choice[detective] = -1;
+		return best;
+	}
+
+	private static boolean taken(int[] choice, int detective, int node) {
+		for (int i = 0; i < choice.length; i++) {
+			if (i != detective && choice[i] == node) return true;
+		}
+		return false;
+	}
+
+	private double scoreWith(int[] choice, int detective, int node) {
+		int chosen = choice[detective];
+		choice[detective] = node;
+		double score = score(choice);
+		choice[detective] = chosen;
+		return score;
+	}
+
+	// capture probability now plus weighted cover of Mr.X's next locations
+	private double score(int[] choice) {
+		stamp++;
+		double capture = 0;
+		double cover = 0;
+		for (int node : choice) {
+			if (node < 0 || stamps[node] == stamp) continue;
+			stamps[node] = stamp;
+			capture += belief[node];
+			cover += next[node];
+		}
+		for (int node : choice) {
+			if (node < 0) continue;
+			for (int slot = index.start(node); slot < index.end(node); slot++) {
+				int neighbour = index.neighbour(slot);
+				if (stamps[neighbour] == stamp) continue;
+				stamps[neighbour] = stamp;
+				cover += next[neighbour];
+			}
+		}
+		return capture + LOOKAHEAD_WEIGHT * cover;
+	}
+
+	// the move to the planned node with the most plentiful ticket, or the best valid move
+	private Move choose(ScotlandYardView view, Colour colour, Set<Move> moves, int planned) {
+		TicketMove best = null;
+		double bestScore = Double.NEGATIVE_INFINITY;
+		for (Move move : moves) {
+			if (!(move instanceof TicketMove)) continue;
+			TicketMove ticketMove = (TicketMove) move;
+			int node = index.indexOf(ticketMove.destination());
+			double score = (node == planned ? 1e9 : 0) + (node >= 0 ? belief[node] + next[node] : 0)
+					+ view.getPlayerTickets(colour, ticketMove.ticket()) * 1e-6;
+			if (score > bestScore) {
+				bestScore = score;
+				best = ticketMove;
+			}
+		}
+		if (best != null) return best;
+		return moves.iterator().next();
+	}
+
+}
@@ -0,0 +1,415 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * A compact representation of a player's valid moves for engine players.
+ *
+ * <br>
+ * Instead of one {@link Move} object per move, single moves are stored as one
+ * destination bitmap per ticket, with bit {@code i} standing for the
+ * {@code i}-th neighbour slot of the player's location in a
+ * {@link GraphIndex}. The second hops of double moves are stored the same way,
+ * one set of bitmaps per (first ticket, first destination). A destination that
+ * can be reached with its transport ticket and with a secret ticket therefore
+ * costs two bits rather than two objects, and so do all the double moves built
+ * on top of it.
+ *
+ * <br>
+ * Sets can be converted to and from the classic moves with {@link #toMoves()}
+ * and {@link #fromMoves(GraphIndex, Colour, int, Collection)}.
+ */
+public final class CompactMoveSet {
+
+	private static final Ticket[] TICKETS = { Ticket.Taxi, Ticket.Bus, Ticket.Underground,
+			Ticket.Secret };
+
+	private final GraphIndex index;
+	private final Colour colour;
+	private final int from;
+	private final int words;
+	private final long[] singles;
+	private final int[] secondOffsets;
+	private final long[] seconds;
+	private final boolean pass;
+
+	private CompactMoveSet(Builder builder) {
+		this.index = builder.index;
+		this.colour = builder.colour;
+		this.from = builder.from;
+		this.words = builder.words;
+		this.singles = builder.singles;
+		this.secondOffsets = builder.secondOffsets;
+		this.seconds = Arrays.copyOf(builder.seconds, builder.secondsLength);
+		this.pass = builder.pass;
+	}
+
+	/**
+	 * Computes the valid moves of a player
+	 *
+	 * @param index the index of the game's graph; not null
+	 * @param colour the colour of the player; not null
+	 * @param location the location of the player
+	 * @param tickets ticket counts of the player indexed by
+	 *        {@link Ticket#ordinal()}; not null
+	 * @param occupied locations the player cannot move to; not null
+	 * @param doubleAllowed whether the round limit allows a double move
+	 * @return the moves; never null
+	 */
+	public static CompactMoveSet of(GraphIndex index, Colour colour, int location, int[] tickets,
+			Collection<Integer> occupied, boolean doubleAllowed) {
+		Builder builder = new Builder(index, colour, location);
+		int[] blocked = new int[occupied.size()];
+		int count = 0;
+		for (int id : occupied)
+			blocked[count++] = index.indexOf(id);
+		for (int t = 0; t < TICKETS.length; t++) {
+			if (tickets[TICKETS[t].ordinal()] <= 0) continue;
+			fill(index, builder.from, TICKETS[t], blocked, builder.singles, t * builder.words);
+		}
+		if (doubleAllowed && tickets[Ticket.Double.ordinal()] > 0) {
+			int[] remaining = Arrays.copyOf(tickets, tickets.length);
+			for (int t = 0; t < TICKETS.length; t++) {
+				remaining[TICKETS[t].ordinal()]--;
+				for (int slot = index.start(builder.from); slot < index.end(builder.from); slot++) {
+					if (!builder.hasSingle(t, slot)) continue;
+					int neighbour = index.neighbour(slot);
+					int offset = builder.secondBlock(t, slot);
+					int secondWords = wordsOf(index, neighbour);
+					for (int second = 0; second < TICKETS.length; second++) {
+						if (remaining[TICKETS[second].ordinal()] <= 0) continue;
+						fill(index, neighbour, TICKETS[second], blocked, builder.seconds,
+								offset + second * secondWords);
+					}
+				}
+				remaining[TICKETS[t].ordinal()]++;
+			}
+		}
+		builder.pass = colour.isDetective() && builder.singleCount() == 0;
+		return new CompactMoveSet(builder);
+	}
+
+	/**
+	 * Computes the valid moves of the current player of a game
+	 *
+	 * @param view the view of the game; not null
+	 * @param location the actual location of the current player, as given to
+	 *        {@link Player#makeMove(ScotlandYardView, int, Set, Consumer)}
+	 * @return the moves; never null
+	 */
+	public static CompactMoveSet of(ScotlandYardView view, int location) {
+		Colour colour = view.getCurrentPlayer();
+		int[] tickets = new int[Ticket.values().length];
+		for (Ticket ticket : Ticket.values())
+			tickets[ticket.ordinal()] = view.getPlayerTickets(colour, ticket);
+		Set<Integer> occupied = new HashSet<>();
+		for (Colour player : view.getPlayers()) {
+			if (player.isDetective() && player != colour)
+				occupied.add(view.getPlayerLocation(player));
+		}
+		return of(GraphIndex.of(view.getGraph()), colour, location, tickets, occupied,
+				view.getCurrentRound() < view.getRounds().size() - 1);
+	}
+
+	/**
+	 * Converts classic moves into the compact representation
+	 *
+	 * @param index the index of the game's graph; not null
+	 * @param colour the colour of the player; not null
+	 * @param location the location of the player
+	 * @param moves the moves, all of the given colour; not null
+	 * @return the moves; never null
+	 */
+	public static CompactMoveSet fromMoves(GraphIndex index, Colour colour, int location,
+			Collection<? extends Move> moves) {
+		Builder builder = new Builder(index, colour, location);
+		for (Move move : moves) {
+			if (move.colour() != colour)
+				throw new IllegalArgumentException("Move of another player " + move);
+			move.visit(builder);
+		}
+		return new CompactMoveSet(builder);
+	}
+
+	/**
+	 * @return the colour of the player these moves are for
+	 */
+	public Colour colour() {
+		return colour;
+	}
+
+	/**
+	 * @return true if the only valid move is a {@link PassMove}
+	 */
+	public boolean isPass() {
+		return pass;
+	}
+
+	/**
+	 * @return the number of single moves
+	 */
+	public int singleCount() {
+		return bitCount(singles, 0, singles.length);
+	}
+
+	/**
+	 * @return the number of double moves
+	 */
+	public int doubleCount() {
+		return bitCount(seconds, 0, seconds.length);
+	}
+
+	/**
+	 * @return the number of moves, as in the equivalent {@code Set<Move>}
+	 */
+	public int size() {
+		return pass ? 1 : singleCount() + doubleCount();
+	}
+
+	/**
+	 * @param ticket the ticket; not null
+	 * @return the ids of the locations reachable with a single move using the
+	 *         ticket; never null
+	 */
+	public int[] destinations(Ticket ticket) {
+		int t = ticketIndex(Objects.requireNonNull(ticket));
+		if (t < 0) return new int[0];
+		int[] destinations = new int[bitCount(singles, t * words, (t + 1) * words)];
+		int count = 0;
+		for (int slot = index.start(from); slot < index.end(from); slot++) {
+			if (hasSingle(t, slot)) destinations[count++] = index.id(index.neighbour(slot));
+		}
+		return destinations;
+	}
+
+	/**
+	 * @param move the move; not null
+	 * @return true if the move is in this set
+	 */
+	public boolean contains(Move move) {
+		if (Objects.requireNonNull(move).colour() != colour) return false;
+		if (move instanceof PassMove) return pass;
+		if (move instanceof TicketMove) {
+			TicketMove ticketMove = (TicketMove) move;
+			int t = ticketIndex(ticketMove.ticket());
+			int slot = slotOf(from, ticketMove.destination());
+			return t >= 0 && slot >= 0 && hasSingle(t, slot);
+		}
+		if (move instanceof DoubleMove) {
+			TicketMove first = ((DoubleMove) move).firstMove();
+			TicketMove second = ((DoubleMove) move).secondMove();
+			int t = ticketIndex(first.ticket());
+			int slot = slotOf(from, first.destination());
+			if (t < 0 || slot < 0 || second.colour() != colour) return false;
+			int offset = secondOffsets[t * index.degree(from) + slot - index.start(from)];
+			int neighbour = index.neighbour(slot);
+			int secondTicket = ticketIndex(second.ticket());
+			int secondSlot = slotOf(neighbour, second.destination());
+			return offset >= 0 && secondTicket >= 0 && secondSlot >= 0 && testBit(seconds,
+					offset + secondTicket * wordsOf(index, neighbour),
+					secondSlot - index.start(neighbour));
+		}
+		return false;
+	}
+
+	/**
+	 * Creates the classic move for every move of this set, single moves first
+	 *
+	 * @param action the action to perform for each move; not null
+	 */
+	public void forEach(Consumer<? super Move> action) {
+		Objects.requireNonNull(action);
+		if (pass) {
+			action.accept(Moves.pass(colour));
+			return;
+		}
+		int degree = index.degree(from);
+		for (int t = 0; t < TICKETS.length; t++) {
+			for (int slot = index.start(from); slot < index.end(from); slot++) {
+				if (hasSingle(t, slot)) action.accept(Moves.ticket(colour, TICKETS[t],
+						index.id(index.neighbour(slot))));
+			}
+		}
+		for (int t = 0; t < TICKETS.length; t++) {
+			for (int slot = index.start(from); slot < index.end(from); slot++) {
+				int offset = secondOffsets[t * degree + slot - index.start(from)];
+				if (offset < 0) continue;
+				int neighbour = index.neighbour(slot);
+				int secondWords = wordsOf(index, neighbour);
+				TicketMove first = Moves.ticket(colour, TICKETS[t], index.id(neighbour));
+				for (int second = 0; second < TICKETS.length; second++) {
+					for (int secondSlot = index.start(neighbour); secondSlot < index
+							.end(neighbour); secondSlot++) {
+						if (!testBit(seconds, offset + second * secondWords,
+								secondSlot - index.start(neighbour))) continue;
+						action.accept(Moves.doubleMove(colour, first, Moves.ticket(colour,
+								TICKETS[second], index.id(index.neighbour(secondSlot)))));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the classic moves of this set; never null
+	 */
+	public Set<Move> toMoves() {
+		Set<Move> moves = new HashSet<>(size() * 4 / 3 + 1);
+		forEach(moves::add);
+		return moves;
+	}
+
+	@Override
+	public String toString() {
+		return "CompactMoveSet[" + colour + "@" + index.id(from) + ", singles=" + singleCount()
+				+ ", doubles=" + doubleCount() + (pass ? ", pass" : "") + "]";
+	}
+
+	private boolean hasSingle(int t, int slot) {
+		return testBit(singles, t * words, slot - index.start(from));
+	}
+
+	private int slotOf(int fromIndex, int id) {
+		int to = index.indexOf(id);
+		return to < 0 ? -1 : index.slotOf(fromIndex, to);
+	}
+
+	private static void fill(GraphIndex index, int node, Ticket ticket, int[] blocked,
+			long[] bits, int offset) {
+		int start = index.start(node);
+		next: for (int slot = start; slot < index.end(node); slot++) {
+			if (!index.accepts(slot, ticket)) continue;
+			int neighbour = index.neighbour(slot);
+			for (int occupied : blocked) {
+				if (occupied == neighbour) continue next;
+			}
+			setBit(bits, offset, slot - start);
+		}
+	}
+
+	private static int ticketIndex(Ticket ticket) {
+		switch (ticket) {
+		case Taxi:
+			return 0;
+		case Bus:
+			return 1;
+		case Underground:
+			return 2;
+		case Secret:
+			return 3;
+		default:
+			return -1;
+		}
+	}
+
+	private static int wordsOf(GraphIndex index, int node) {
+		return (index.degree(node) + 63) >>> 6;
+	}
+
+	private static boolean testBit(long[] bits, int offset, int bit) {
+		return (bits[offset + (bit >>> 6)] & (1L << bit)) != 0;
+	}
+
+	private static void setBit(long[] bits, int offset, int bit) {
+		bits[offset + (bit >>> 6)] |= 1L << bit;
+	}
+
+	private static int bitCount(long[] bits, int from, int to) {
+		int count = 0;
+		for (int i = from; i < to; i++)
+			count += Long.bitCount(bits[i]);
+		return count;
+	}
+
+	/**
+	 * Collects the bitmaps of a set, either from the rules or from classic
+	 * moves
+	 */
+	private static class Builder implements MoveVisitor {
+
+		final GraphIndex index;
+		final Colour colour;
+		final int from;
+		final int words;
+		final long[] singles;
+		final int[] secondOffsets;
+		long[] seconds = new long[16];
+		int secondsLength;
+		boolean pass;
+
+		Builder(GraphIndex index, Colour colour, int location) {
+			this.index = Objects.requireNonNull(index);
+			this.colour = Objects.requireNonNull(colour);
+			this.from = index.indexOf(location);
+			if (from < 0) throw new IllegalArgumentException("Unknown location " + location);
+			this.words = wordsOf(index, from);
+			this.singles = new long[TICKETS.length * words];
+			this.secondOffsets = new int[TICKETS.length * index.degree(from)];
+			Arrays.fill(secondOffsets, -1);
+		}
+
+		boolean hasSingle(int t, int slot) {
+			return testBit(singles, t * words, slot - index.start(from));
+		}
+
+		int singleCount() {
+			return bitCount(singles, 0, singles.length);
+		}
+
+		// the bitmaps for the second hops after a first move, allocated on first use
+		int secondBlock(int t, int slot) {
+			int key = t * index.degree(from) + slot - index.start(from);
+			if (secondOffsets[key] >= 0) return secondOffsets[key];
+			int size = TICKETS.length * wordsOf(index, index.neighbour(slot));
+			if (secondsLength + size > seconds.length)
+				seconds = Arrays.copyOf(seconds, Math.max(seconds.length * 2, secondsLength + size));
+			secondOffsets[key] = secondsLength;
+			secondsLength += size;
+			return secondOffsets[key];
+		}
+
+		int slot(int fromIndex, int id) {
+			int to = index.indexOf(id);
+			int slot = to < 0 ? -1 : index.slotOf(fromIndex, to);
+			if (slot < 0) throw new IllegalArgumentException(
+					"No edge from " + index.id(fromIndex) + " to " + id);
+			return slot;
+		}
+
+		int ticket(Ticket ticket) {
+			int t = ticketIndex(ticket);
+			if (t < 0) throw new IllegalArgumentException("Not a move ticket " + ticket);
+			return t;
+		}
+
+		@Override
+		public void visit(PassMove move) {
+			pass = true;
+		}
+
+		@Override
+		public void visit(TicketMove move) {
+			int slot = slot(from, move.destination());
+			setBit(singles, ticket(move.ticket()) * words, slot - index.start(from));
+		}
+
+		@Override
+		public void visit(DoubleMove move) {
+			TicketMove first = move.firstMove();
+			TicketMove second = move.secondMove();
+			int slot = slot(from, first.destination());
+			int neighbour = index.neighbour(slot);
+			int offset = secondBlock(ticket(first.ticket()), slot);
+			int secondSlot = slot(neighbour, second.destination());
+			setBit(seconds, offset + ticket(second.ticket()) * wordsOf(index, neighbour),
+					secondSlot - index.start(neighbour));
+		}
+
+	}
+
+}
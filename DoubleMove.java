@@ -3,12 +3,15 @@ package uk.ac.bris.cs.scotlandyard.model;
 import java.util.Objects;
 
 /**
- * Represents a double move in the Scotland Yard game
+ * Represents a double move in the Scotland Yard game, see {@link Moves} for
+ * double moves made of canonical ticket moves
  */
 public class DoubleMove extends Move {
 
 	private final TicketMove firstMove;
 	private final TicketMove secondMove;
+	// not serialized, computed from the ticket moves' hashes which are stable across JVMs
+	private transient int hash;
 
 	/**
 	 * Create a new double move from two individual ticket moves
@@ -35,8 +38,8 @@ public class DoubleMove extends Move {
 	public DoubleMove(Colour player, Ticket first, int firstDestination, Ticket second,
 			int secondDestination) {
 		super(player);
-		this.firstMove = new TicketMove(player, first, firstDestination);
-		this.secondMove = new TicketMove(player, second, secondDestination);
+		this.firstMove = Moves.ticket(player, first, firstDestination);
+		this.secondMove = Moves.ticket(player, second, secondDestination);
 	}
 
 	/**
@@ -85,7 +88,13 @@ public class DoubleMove extends Move {
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(super.hashCode(), firstMove, secondMove);
+		int hash = this.hash;
+		if (hash == 0) {
+			hash = 31 * (31 * (colour() == null ? -1 : colour().ordinal())
+					+ Objects.hashCode(firstMove)) + Objects.hashCode(secondMove);
+			this.hash = hash;
+		}
+		return hash;
 	}
 
 	@Override
@@ -0,0 +1,175 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A solved table of late-round endgames with one or two detectives, read from
+ * a memory mapped file written by {@link EndgameTablebaseBuilder}.
+ *
+ * <br>
+ * A position is Mr.X to move, with a number of rounds left, Mr.X's location and
+ * the detectives' locations in play order. Its bound is {@link #MR_X_WINS} if
+ * Mr.X survives the remaining rounds of the solved game with best play, or the
+ * number of rounds, counting the current one, within which the detectives
+ * capture him there. The solved game is a relaxation of the real one, see
+ * {@link EndgameTablebaseBuilder}, so these are bounds and not exact results.
+ *
+ * <br>
+ * The file holds a header, the node ids and then one byte per position for
+ * every round, so a lookup is an index computation and a single read. Instances
+ * are immutable and safe to share between threads.
+ */
+public final class EndgameTablebase {
+
+	/**
+	 * The value of a position Mr.X wins
+	 */
+	public static final byte MR_X_WINS = 0;
+
+	/**
+	 * The value of a position where two players share a location
+	 */
+	public static final byte INVALID = -1;
+
+	static final int MAGIC = 0x53595442;
+	static final int VERSION = 2;
+	private static final int HEADER_INTS = 5;
+
+	private final ByteBuffer buffer;
+	private final int nodes;
+	private final int detectives;
+	private final int rounds;
+	private final int[] indexById;
+	private final Map<Integer, Integer> sparseIndexById;
+	private final int dataStart;
+	private final int layerSize;
+
+	private EndgameTablebase(ByteBuffer buffer) {
+		if (buffer.getInt(0) != MAGIC) throw new IllegalArgumentException("Not a tablebase");
+		if (buffer.getInt(4) != VERSION)
+			throw new IllegalArgumentException("Unsupported tablebase version " + buffer.getInt(4));
+		this.buffer = buffer;
+		this.nodes = buffer.getInt(8);
+		this.detectives = buffer.getInt(12);
+		this.rounds = buffer.getInt(16);
+		int[] ids = new int[nodes];
+		int maxId = 0;
+		for (int node = 0; node < nodes; node++) {
+			ids[node] = buffer.getInt((HEADER_INTS + node) * 4);
+			maxId = Math.max(maxId, ids[node]);
+		}
+		if (nodes > 0 && ids[0] >= 0 && maxId <= nodes * 4 + 1024) {
+			indexById = new int[maxId + 1];
+			Arrays.fill(indexById, -1);
+			for (int node = 0; node < nodes; node++)
+				indexById[ids[node]] = node;
+			sparseIndexById = null;
+		} else {
+			indexById = null;
+			sparseIndexById = new HashMap<>();
+			for (int node = 0; node < nodes; node++)
+				sparseIndexById.put(ids[node], node);
+		}
+		this.dataStart = (HEADER_INTS + nodes) * 4;
+		this.layerSize = detectives == 1 ? nodes * nodes : nodes * nodes * nodes;
+		if ((long) dataStart + (long) layerSize * rounds > buffer.capacity())
+			throw new IllegalArgumentException("Truncated tablebase");
+	}
+
+	/**
+	 * Maps a tablebase file into memory
+	 *
+	 * @param file the file; not null
+	 * @return the tablebase; never null
+	 * @throws IOException if the file cannot be read
+	 */
+	public static EndgameTablebase open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new EndgameTablebase(buffer);
+		}
+	}
+
+	/**
+	 * @return the number of detectives of the solved positions
+	 */
+	public int detectives() {
+		return detectives;
+	}
+
+	/**
+	 * @return the largest number of rounds left that is solved
+	 */
+	public int rounds() {
+		return rounds;
+	}
+
+	/**
+	 * @param roundsLeft the number of rounds left, including the current one
+	 * @param detectives the number of detectives
+	 * @return true if positions with these parameters are in the table
+	 */
+	public boolean covers(int roundsLeft, int detectives) {
+		return detectives == this.detectives && roundsLeft >= 0 && roundsLeft <= rounds;
+	}
+
+	/**
+	 * Looks up the bound of a position with Mr.X to move.
+	 *
+	 * <br>
+	 * The bound assumes the detectives hold every ticket they need, and holds
+	 * for the real game as long as Mr.X has a ticket for each move he makes. If
+	 * so, a position bounded by {@link #MR_X_WINS} is one Mr.X survives, and a
+	 * capture bound of {@code k} rounds means the detectives need at least
+	 * {@code k} rounds to catch him. When the detectives may run short of
+	 * tickets, they may not be able to force the capture at all.
+	 *
+	 * @param roundsLeft the number of rounds left, including the current one
+	 * @param mrX the location of Mr.X
+	 * @param detectives the locations of the detectives in play order
+	 * @return {@link #MR_X_WINS}, the fewest rounds within which Mr.X can be
+	 *         captured, or {@link #INVALID} if players share a location
+	 * @throws IllegalArgumentException if the position is not covered or a
+	 *         location is not on the map
+	 */
+	public int bound(int roundsLeft, int mrX, int... detectives) {
+		if (!covers(roundsLeft, detectives.length))
+			throw new IllegalArgumentException("Position not covered by the tablebase");
+		int position = indexOf(mrX);
+		for (int detective : detectives)
+			position = position * nodes + indexOf(detective);
+		if (roundsLeft == 0) return mrX == detectives[0]
+				|| (detectives.length > 1 && (mrX == detectives[1] || detectives[0] == detectives[1]))
+						? INVALID : MR_X_WINS;
+		return buffer.get(dataStart + (roundsLeft - 1) * layerSize + position);
+	}
+
+	/**
+	 * @param roundsLeft the number of rounds left, including the current one
+	 * @param mrX the location of Mr.X
+	 * @param detectives the locations of the detectives in play order
+	 * @return true if Mr.X survives the position with best play, as long as he
+	 *         has a ticket for each move he makes; see {@link #bound}
+	 */
+	public boolean mrXWins(int roundsLeft, int mrX, int... detectives) {
+		return bound(roundsLeft, mrX, detectives) == MR_X_WINS;
+	}
+
+	private int indexOf(int id) {
+		Integer node;
+		if (indexById != null) node = id >= 0 && id < indexById.length ? indexById[id] : -1;
+		else node = sparseIndexById.get(id);
+		if (node == null || node < 0)
+			throw new IllegalArgumentException("Location " + id + " is not on the map");
+		return node;
+	}
+
+}
@@ -0,0 +1,215 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+import uk.ac.bris.cs.gamekit.graph.Graph;
+
+/**
+ * Builds an {@link EndgameTablebase} by retrograde analysis, one round at a
+ * time starting from the end of the game.
+ *
+ * <br>
+ * The solved game is the late-round endgame as seen by a search player that
+ * knows where Mr.X is: tickets are not limited, Mr.X may use any edge and
+ * plays no double moves, and the detectives may use any edge but a boat. Mr.X
+ * moves first, then each detective in turn. A detective that cannot move
+ * passes. Mr.X loses when a detective lands on him or when he cannot move, and
+ * wins when he survives the remaining rounds.
+ *
+ * <br>
+ * This is a relaxation of the real game, so the table holds bounds rather than
+ * exact results: detectives that never run out of tickets can only do better,
+ * and a Mr.X without double moves can only do worse. See
+ * {@link EndgameTablebase#bound} for what that means for a lookup.
+ *
+ * <br>
+ * Each round is solved in three sweeps over all positions, one per mover, so
+ * solving a round with two detectives costs about {@code 3 * n^3 * degree}
+ * steps for a map with {@code n} nodes. Sweeps run in parallel.
+ */
+public class EndgameTablebaseBuilder {
+
+	private static final int MR_X_WINS = 1000;
+	private static final int DETECTIVE_TRANSPORTS = (1 << Transport.Taxi.ordinal())
+			| (1 << Transport.Bus.ordinal()) | (1 << Transport.Underground.ordinal());
+
+	private final GraphIndex index;
+	private final int detectives;
+	private final int rounds;
+	private final int nodes;
+
+	/**
+	 * @param graph the graph to solve; not null
+	 * @param detectives number of detectives, 1 or 2
+	 * @param rounds number of remaining rounds to solve, between 1 and 127
+	 */
+	public EndgameTablebaseBuilder(Graph<Integer, Transport> graph, int detectives, int rounds) {
+		this.index = GraphIndex.of(Objects.requireNonNull(graph));
+		if (detectives < 1 || detectives > 2)
+			throw new IllegalArgumentException("Only 1 or 2 detectives are supported");
+		if (rounds < 1 || rounds > Byte.MAX_VALUE)
+			throw new IllegalArgumentException("rounds must be between 1 and 127");
+		this.detectives = detectives;
+		this.rounds = rounds;
+		this.nodes = index.size();
+		if (Math.pow(nodes, detectives + 1) * rounds + (nodes + 5) * 4 > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Graph too large for a tablebase");
+	}
+
+	/**
+	 * Solves all rounds and writes the tablebase
+	 *
+	 * @param file the file to write; not null
+	 * @return the written tablebase, opened from the file; never null
+	 * @throws IOException if the file cannot be written
+	 */
+	public EndgameTablebase build(Path file) throws IOException {
+		try (OutputStream stream = Files.newOutputStream(file);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+			out.writeInt(EndgameTablebase.MAGIC);
+			out.writeInt(EndgameTablebase.VERSION);
+			out.writeInt(nodes);
+			out.writeInt(detectives);
+			out.writeInt(rounds);
+			for (int node = 0; node < nodes; node++)
+				out.writeInt(index.id(node));
+			// with no round left Mr.X has won, that layer is implied
+			byte[] previous = new byte[positions()];
+			for (int round = 1; round <= rounds; round++) {
+				byte[] layer = detectives == 1 ? solveOne(previous) : solveTwo(previous);
+				out.write(layer);
+				previous = layer;
+			}
+		}
+		return EndgameTablebase.open(file);
+	}
+
+	private int positions() {
+		return detectives == 1 ? nodes * nodes : nodes * nodes * nodes;
+	}
+
+	private byte[] solveOne(byte[] previous) {
+		int n = nodes;
+		// after Mr.X moved to m, the detective at d to move
+		int[] detectiveToMove = new int[n * n];
+		IntStream.range(0, n).parallel().forEach(m -> {
+			for (int d = 0; d < n; d++) {
+				int best = MR_X_WINS;
+				boolean moved = false;
+				for (int slot = index.start(d); slot < index.end(d); slot++) {
+					if ((index.transports(slot) & DETECTIVE_TRANSPORTS) == 0) continue;
+					int to = index.neighbour(slot);
+					moved = true;
+					best = Math.min(best, to == m ? 1 : later(previous[m * n + to]));
+				}
+				detectiveToMove[m * n + d] = moved ? best : later(previous[m * n + d]);
+			}
+		});
+		byte[] layer = new byte[n * n];
+		IntStream.range(0, n).parallel().forEach(m -> {
+			for (int d = 0; d < n; d++) {
+				if (m == d) {
+					layer[m * n + d] = EndgameTablebase.INVALID;
+					continue;
+				}
+				int best = 1;
+				for (int slot = index.start(m); slot < index.end(m); slot++) {
+					int to = index.neighbour(slot);
+					if (to != d) best = better(best, detectiveToMove[to * n + d]);
+				}
+				layer[m * n + d] = encode(best);
+			}
+		});
+		return layer;
+	}
+
+	private byte[] solveTwo(byte[] previous) {
+		int n = nodes;
+		// after Mr.X and the first detective moved, the second detective at d2 to move
+		byte[] secondToMove = new byte[n * n * n];
+		IntStream.range(0, n).parallel().forEach(m -> {
+			for (int d1 = 0; d1 < n; d1++) {
+				for (int d2 = 0; d2 < n; d2++) {
+					int best = MR_X_WINS;
+					boolean moved = false;
+					for (int slot = index.start(d2); slot < index.end(d2); slot++) {
+						int to = index.neighbour(slot);
+						if (to == d1 || (index.transports(slot) & DETECTIVE_TRANSPORTS) == 0)
+							continue;
+						moved = true;
+						best = Math.min(best, to == m ? 1 : later(previous[(m * n + d1) * n + to]));
+					}
+					if (!moved) best = later(previous[(m * n + d1) * n + d2]);
+					secondToMove[(m * n + d1) * n + d2] = encode(best);
+				}
+			}
+		});
+		// after Mr.X moved, the first detective at d1 to move
+		byte[] firstToMove = new byte[n * n * n];
+		IntStream.range(0, n).parallel().forEach(m -> {
+			for (int d1 = 0; d1 < n; d1++) {
+				for (int d2 = 0; d2 < n; d2++) {
+					int best = MR_X_WINS;
+					boolean moved = false;
+					for (int slot = index.start(d1); slot < index.end(d1); slot++) {
+						int to = index.neighbour(slot);
+						if (to == d2 || (index.transports(slot) & DETECTIVE_TRANSPORTS) == 0)
+							continue;
+						moved = true;
+						best = Math.min(best,
+								to == m ? 1 : decode(secondToMove[(m * n + to) * n + d2]));
+					}
+					if (!moved) best = decode(secondToMove[(m * n + d1) * n + d2]);
+					firstToMove[(m * n + d1) * n + d2] = encode(best);
+				}
+			}
+		});
+		byte[] layer = new byte[n * n * n];
+		IntStream.range(0, n).parallel().forEach(m -> {
+			for (int d1 = 0; d1 < n; d1++) {
+				for (int d2 = 0; d2 < n; d2++) {
+					int position = (m * n + d1) * n + d2;
+					if (m == d1 || m == d2 || d1 == d2) {
+						layer[position] = EndgameTablebase.INVALID;
+						continue;
+					}
+					// a stuck Mr.X loses straight away
+					int best = 1;
+					for (int slot = index.start(m); slot < index.end(m); slot++) {
+						int to = index.neighbour(slot);
+						if (to != d1 && to != d2)
+							best = better(best, decode(firstToMove[(to * n + d1) * n + d2]));
+					}
+					layer[position] = encode(best);
+				}
+			}
+		});
+		return layer;
+	}
+
+	// the value one rotation earlier: a capture one rotation further away
+	private static int later(byte value) {
+		return value == EndgameTablebase.MR_X_WINS ? MR_X_WINS : value + 1;
+	}
+
+	// Mr.X prefers winning, then being captured as late as possible
+	private static int better(int a, int b) {
+		return Math.max(a, b);
+	}
+
+	private static int decode(byte value) {
+		return value == EndgameTablebase.MR_X_WINS ? MR_X_WINS : value;
+	}
+
+	private static byte encode(int value) {
+		return value >= MR_X_WINS ? EndgameTablebase.MR_X_WINS : (byte) value;
+	}
+
+}
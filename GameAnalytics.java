@@ -0,0 +1,320 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Aggregate statistics over {@link GameRecord}s: win rates per start
+ * configuration, tickets used per round, how often Mr.X uses secret and double
+ * tickets, and how often he is at each node.
+ *
+ * <br>
+ * Instances are mutable and not thread safe. Partial aggregates of disjoint
+ * sets of games are combined with {@link #merge(GameAnalytics)}, which is how
+ * {@link #analyse(Stream, int)} spreads the work over threads. Memory grows
+ * with the number of distinct start configurations, rounds and nodes, not with
+ * the number of games.
+ */
+public final class GameAnalytics {
+
+	private static final int BATCH = 256;
+	private static final int TICKETS = Ticket.values().length;
+	private static final List<GameRecord> END = Collections.emptyList();
+
+	private long games;
+	private long mrXWins;
+	private final Map<String, long[]> configurations = new HashMap<>();
+	// tickets used by Mr.X then the detectives, indexed by round * TICKETS + ticket
+	private long[] mrXTickets = new long[0];
+	private long[] detectiveTickets = new long[0];
+	private long mrXTurns;
+	private long doubleMoves;
+	private long[] heat = new long[0];
+
+	/**
+	 * Analyses records on several threads. The calling thread reads the
+	 * records and hands them out in batches through a bounded queue, so only a
+	 * few batches per thread are in memory at once.
+	 *
+	 * @param records the records; not null
+	 * @param threads the number of worker threads, at least 1
+	 * @return the statistics of all records; never null
+	 * @throws InterruptedException if interrupted while waiting for workers
+	 */
+	public static GameAnalytics analyse(Stream<GameRecord> records, int threads)
+			throws InterruptedException {
+		if (threads < 1) throw new IllegalArgumentException("At least one thread");
+		BlockingQueue<List<GameRecord>> queue = new ArrayBlockingQueue<>(threads * 2);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<GameAnalytics>> workers = new ArrayList<>();
+		try {
+			for (int i = 0; i < threads; i++) {
+				workers.add(executor.submit(() -> {
+					GameAnalytics partial = new GameAnalytics();
+					for (List<GameRecord> batch = queue.take(); batch != END; batch = queue.take()) {
+						for (GameRecord record : batch)
+							partial.add(record);
+					}
+					return partial;
+				}));
+			}
+			Iterator<GameRecord> iterator = records.iterator();
+			List<GameRecord> batch = new ArrayList<>(BATCH);
+			while (iterator.hasNext()) {
+				batch.add(iterator.next());
+				if (batch.size() == BATCH) {
+					put(queue, batch, workers);
+					batch = new ArrayList<>(BATCH);
+				}
+			}
+			if (!batch.isEmpty()) put(queue, batch, workers);
+			for (int i = 0; i < threads; i++)
+				put(queue, END, workers);
+			GameAnalytics total = new GameAnalytics();
+			for (Future<GameAnalytics> worker : workers)
+				total.merge(worker.get());
+			return total;
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Analysis failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	// waits for room in the queue, giving up if a worker has failed
+	private static void put(BlockingQueue<List<GameRecord>> queue, List<GameRecord> batch,
+			List<Future<GameAnalytics>> workers) throws InterruptedException, ExecutionException {
+		while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+			for (Future<GameAnalytics> worker : workers) {
+				if (worker.isDone()) worker.get();
+			}
+		}
+	}
+
+	/**
+	 * Adds a game to the statistics
+	 *
+	 * @param record the game; not null
+	 */
+	public void add(GameRecord record) {
+		games++;
+		if (record.mrXWon()) mrXWins++;
+		long[] configuration = configurations.computeIfAbsent(configuration(record),
+				key -> new long[2]);
+		configuration[0]++;
+		if (record.mrXWon()) configuration[1]++;
+		visited(record.start(Colour.Black));
+		int round = 0;
+		for (Move move : record.moves()) {
+			if (move instanceof TicketMove) {
+				TicketMove ticketMove = (TicketMove) move;
+				if (move.colour().isMrX()) {
+					mrXTurns++;
+					mrXMoved(++round, ticketMove);
+				} else {
+					detectiveTickets = count(detectiveTickets, round, ticketMove.ticket());
+				}
+			} else if (move instanceof DoubleMove) {
+				DoubleMove doubleMove = (DoubleMove) move;
+				mrXTurns++;
+				doubleMoves++;
+				mrXMoved(++round, doubleMove.firstMove());
+				mrXMoved(++round, doubleMove.secondMove());
+			}
+		}
+	}
+
+	private void mrXMoved(int round, TicketMove move) {
+		mrXTickets = count(mrXTickets, round, move.ticket());
+		visited(move.destination());
+	}
+
+	private static long[] count(long[] tickets, int round, Ticket ticket) {
+		int index = round * TICKETS + ticket.ordinal();
+		if (index >= tickets.length) tickets = Arrays.copyOf(tickets, (round + 1) * TICKETS * 2);
+		tickets[index]++;
+		return tickets;
+	}
+
+	private void visited(int location) {
+		if (location < 0) return;
+		if (location >= heat.length) heat = Arrays.copyOf(heat, Math.max(location + 1, heat.length * 2));
+		heat[location]++;
+	}
+
+	// Mr.X's start and the set of detective starts, e.g. "35:26,29,50,53,91"
+	private static String configuration(GameRecord record) {
+		List<Colour> players = record.players();
+		int[] detectives = new int[players.size() - 1];
+		int count = 0;
+		for (Colour colour : players) {
+			if (colour.isDetective()) detectives[count++] = record.start(colour);
+		}
+		Arrays.sort(detectives, 0, count);
+		StringBuilder key = new StringBuilder().append(record.start(Colour.Black)).append(':');
+		for (int i = 0; i < count; i++)
+			key.append(i == 0 ? "" : ",").append(detectives[i]);
+		return key.toString();
+	}
+
+	/**
+	 * Adds the statistics of other games
+	 *
+	 * @param other the statistics of games not included in this; not null
+	 * @return this, for chaining; never null
+	 */
+	public GameAnalytics merge(GameAnalytics other) {
+		games += other.games;
+		mrXWins += other.mrXWins;
+		other.configurations.forEach((key, counts) -> {
+			long[] mine = configurations.computeIfAbsent(key, k -> new long[2]);
+			mine[0] += counts[0];
+			mine[1] += counts[1];
+		});
+		mrXTickets = sum(mrXTickets, other.mrXTickets);
+		detectiveTickets = sum(detectiveTickets, other.detectiveTickets);
+		mrXTurns += other.mrXTurns;
+		doubleMoves += other.doubleMoves;
+		heat = sum(heat, other.heat);
+		return this;
+	}
+
+	private static long[] sum(long[] into, long[] from) {
+		if (into.length < from.length) into = Arrays.copyOf(into, from.length);
+		for (int i = 0; i < from.length; i++)
+			into[i] += from[i];
+		return into;
+	}
+
+	/**
+	 * @return the number of games
+	 */
+	public long games() {
+		return games;
+	}
+
+	/**
+	 * @return the fraction of games Mr.X won
+	 */
+	public double mrXWinRate() {
+		return games == 0 ? 0 : (double) mrXWins / games;
+	}
+
+	/**
+	 * @return the start configurations seen, as Mr.X's start location, a colon
+	 *         and the sorted detective start locations separated by commas;
+	 *         never null
+	 */
+	public Set<String> configurations() {
+		return Collections.unmodifiableSet(configurations.keySet());
+	}
+
+	/**
+	 * @param configuration a start configuration, see {@link #configurations()}
+	 * @return the number of games played from the configuration
+	 */
+	public long games(String configuration) {
+		long[] counts = configurations.get(configuration);
+		return counts == null ? 0 : counts[0];
+	}
+
+	/**
+	 * @param configuration a start configuration, see {@link #configurations()}
+	 * @return the fraction of games from the configuration that Mr.X won
+	 */
+	public double mrXWinRate(String configuration) {
+		long[] counts = configurations.get(configuration);
+		return counts == null || counts[0] == 0 ? 0 : (double) counts[1] / counts[0];
+	}
+
+	/**
+	 * @return the last round in which a ticket was used
+	 */
+	public int maxRound() {
+		int rounds = Math.max(mrXTickets.length, detectiveTickets.length) / TICKETS;
+		for (int round = rounds - 1; round > 0; round--) {
+			for (Ticket ticket : Ticket.values()) {
+				if (ticketsUsed(true, round, ticket) + ticketsUsed(false, round, ticket) > 0)
+					return round;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @param mrX true for Mr.X's tickets, false for the detectives'
+	 * @param round the round, starting at 1
+	 * @param ticket the ticket; not null
+	 * @return the number of tickets used in the round over all games; a double
+	 *         move uses its tickets in two rounds
+	 */
+	public long ticketsUsed(boolean mrX, int round, Ticket ticket) {
+		long[] tickets = mrX ? mrXTickets : detectiveTickets;
+		int index = round * TICKETS + ticket.ordinal();
+		return round < 0 || index >= tickets.length ? 0 : tickets[index];
+	}
+
+	/**
+	 * @param mrX true for Mr.X's tickets, false for the detectives'
+	 * @param ticket the ticket; not null
+	 * @return the number of tickets used in all rounds of all games
+	 */
+	public long ticketsUsed(boolean mrX, Ticket ticket) {
+		long[] tickets = mrX ? mrXTickets : detectiveTickets;
+		long total = 0;
+		for (int index = ticket.ordinal(); index < tickets.length; index += TICKETS)
+			total += tickets[index];
+		return total;
+	}
+
+	/**
+	 * @return the fraction of Mr.X's turns that were double moves
+	 */
+	public double doubleMoveRate() {
+		return mrXTurns == 0 ? 0 : (double) doubleMoves / mrXTurns;
+	}
+
+	/**
+	 * @return the fraction of the tickets Mr.X used that were secret tickets
+	 */
+	public double secretTicketRate() {
+		long used = 0;
+		for (Ticket ticket : Ticket.values())
+			used += ticketsUsed(true, ticket);
+		return used == 0 ? 0 : (double) ticketsUsed(true, Ticket.Secret) / used;
+	}
+
+	/**
+	 * @param location a node id
+	 * @return how often Mr.X started at or moved to the node over all games
+	 */
+	public long heat(int location) {
+		return location >= 0 && location < heat.length ? heat[location] : 0;
+	}
+
+	/**
+	 * @return {@link #heat(int)} of every node id up to the largest one seen;
+	 *         never null
+	 */
+	public long[] heatmap() {
+		int length = heat.length;
+		while (length > 0 && heat[length - 1] == 0)
+			length--;
+		return Arrays.copyOf(heat, length);
+	}
+
+}
@@ -0,0 +1,393 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Broadcasts a game to any number of observers as a stream of small binary
+ * frames.
+ *
+ * <br>
+ * The broadcaster is the only {@link Spectator} the game calls for all of its
+ * observers. Every callback becomes one frame that holds the event, e.g. the
+ * move, and the state delta since the previous frame: the current round and
+ * player and every location and ticket count that changed. A frame is encoded
+ * once and the same bytes are handed to every observer. The state is read
+ * through the view the spectator is given, so Mr.X's hidden moves and location
+ * are masked exactly as the game masks them for every other spectator.
+ *
+ * <br>
+ * Every {@code checkpointInterval} frames the broadcaster encodes a snapshot of
+ * the state and drops the frames before the previous snapshot. An observer that
+ * subscribes late, or falls behind by more than the interval, first receives
+ * the latest snapshot and then the frames after it. A {@link Replica} rebuilds
+ * the state from the frames.
+ *
+ * <br>
+ * Frames are delivered on the given executor, one observer after another and
+ * in order for each observer, so the game thread never waits for observers.
+ * Observers should hand frames on quickly, e.g. to a network channel.
+ */
+public class GameBroadcaster implements Spectator {
+
+	/**
+	 * The number of frames between snapshots used by default
+	 */
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 64;
+
+	static final int SNAPSHOT = 0;
+	static final int MOVE = 1;
+	static final int ROUND = 2;
+	static final int ROTATION = 3;
+	static final int GAME_OVER = 4;
+
+	private static final Colour[] COLOURS = Colour.values();
+	private static final Ticket[] TICKETS = Ticket.values();
+	// a location and a count per ticket for each player
+	private static final int FIELDS = 1 + TICKETS.length;
+
+	/**
+	 * Receives the frames of a broadcast
+	 */
+	@FunctionalInterface
+	public interface Observer {
+
+		/**
+		 * @param frame a read-only frame, positioned at its first byte; valid
+		 *        after the call
+		 */
+		void onFrame(ByteBuffer frame);
+
+	}
+
+	private final Executor executor;
+	private final int checkpointInterval;
+	private final Map<Observer, long[]> cursors = new ConcurrentHashMap<>();
+	private final AtomicInteger work = new AtomicInteger();
+
+	// guarded by this
+	private long sequence;
+	private long first;
+	private long base;
+	private byte[] checkpoint;
+	private final List<byte[]> frames = new ArrayList<>();
+	private int[] state;
+	private int winners;
+
+	/**
+	 * @param executor runs the delivery of frames to observers; not null
+	 */
+	public GameBroadcaster(Executor executor) {
+		this(executor, DEFAULT_CHECKPOINT_INTERVAL);
+	}
+
+	/**
+	 * @param executor runs the delivery of frames to observers; not null
+	 * @param checkpointInterval the number of frames between snapshots, at
+	 *        least 1
+	 */
+	public GameBroadcaster(Executor executor, int checkpointInterval) {
+		this.executor = Objects.requireNonNull(executor);
+		if (checkpointInterval < 1)
+			throw new IllegalArgumentException("checkpointInterval must be positive");
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Starts sending frames to an observer, beginning with a snapshot of the
+	 * game once the game has notified the broadcaster at least once
+	 *
+	 * @param observer the observer; not null
+	 */
+	public void subscribe(Observer observer) {
+		cursors.put(Objects.requireNonNull(observer), new long[] { -1 });
+		schedule();
+	}
+
+	/**
+	 * Stops sending frames to an observer, a frame being delivered may still
+	 * arrive
+	 *
+	 * @param observer the observer; not null
+	 */
+	public void unsubscribe(Observer observer) {
+		cursors.remove(Objects.requireNonNull(observer));
+	}
+
+	/**
+	 * @return the number of subscribed observers
+	 */
+	public int observers() {
+		return cursors.size();
+	}
+
+	@Override
+	public void onMoveMade(ScotlandYardView view, Move move) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+		MoveCodec.write(out, move);
+		publish(view, MOVE, out.toByteArray());
+	}
+
+	@Override
+	public void onRoundStarted(ScotlandYardView view, int round) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(4);
+		GameSnapshot.writeInt(out, round);
+		publish(view, ROUND, out.toByteArray());
+	}
+
+	@Override
+	public void onRotationComplete(ScotlandYardView view) {
+		publish(view, ROTATION, new byte[0]);
+	}
+
+	@Override
+	public void onGameOver(ScotlandYardView view, Set<Colour> winningPlayers) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(4);
+		GameSnapshot.writeInt(out, mask(winningPlayers));
+		publish(view, GAME_OVER, out.toByteArray());
+	}
+
+	private static int mask(Set<Colour> colours) {
+		int mask = 0;
+		for (Colour colour : colours)
+			mask |= 1 << colour.ordinal();
+		return mask;
+	}
+
+	private void publish(ScotlandYardView view, int kind, byte[] event) {
+		List<Colour> players = view.getPlayers();
+		int[] next = new int[players.size() * FIELDS];
+		for (int i = 0; i < players.size(); i++) {
+			Colour colour = players.get(i);
+			next[i * FIELDS] = view.getPlayerLocation(colour);
+			for (Ticket ticket : TICKETS)
+				next[i * FIELDS + 1 + ticket.ordinal()] = view.getPlayerTickets(colour, ticket);
+		}
+		int currentPlayer = players.indexOf(view.getCurrentPlayer());
+		synchronized (this) {
+			if (state == null) checkpoint(view, next);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(16 + event.length);
+			out.write(kind);
+			RemotePlayerProtocol.writeLong(out, sequence);
+			out.write(event, 0, event.length);
+			GameSnapshot.writeInt(out, view.getCurrentRound());
+			GameSnapshot.writeInt(out, currentPlayer);
+			int changes = 0;
+			for (int field = 0; field < next.length; field++) {
+				if (next[field] != state[field]) changes++;
+			}
+			GameSnapshot.writeInt(out, changes);
+			for (int field = 0; field < next.length; field++) {
+				if (next[field] == state[field]) continue;
+				GameSnapshot.writeInt(out, field);
+				GameSnapshot.writeInt(out, next[field]);
+			}
+			frames.add(out.toByteArray());
+			sequence++;
+			state = next;
+			if (kind == GAME_OVER) winners = mask(view.getWinningPlayers());
+			if (sequence - base >= checkpointInterval) checkpoint(view, next);
+		}
+		schedule();
+	}
+
+	// the snapshot is the state before the frame with the current sequence number
+	private void checkpoint(ScotlandYardView view, int[] next) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(80);
+		out.write(SNAPSHOT);
+		RemotePlayerProtocol.writeLong(out, sequence);
+		GameSnapshot.writeInt(out, winners);
+		byte[] snapshot = GameSnapshot.fromView(view).toBytes();
+		out.write(snapshot, 0, snapshot.length);
+		checkpoint = out.toByteArray();
+		// frames since the previous snapshot stay, so observers that lag a little do not skip
+		frames.subList(0, (int) (base - first)).clear();
+		first = base;
+		base = sequence;
+		state = next;
+	}
+
+	// runs at most one delivery at a time, and again if frames arrived meanwhile
+	private void schedule() {
+		if (work.getAndIncrement() == 0) executor.execute(this::drain);
+	}
+
+	private void drain() {
+		int seen;
+		do {
+			seen = work.get();
+			deliver();
+		} while (work.addAndGet(-seen) != 0);
+	}
+
+	private void deliver() {
+		long first;
+		long base;
+		byte[] checkpoint;
+		byte[][] frames;
+		synchronized (this) {
+			if (this.checkpoint == null) return;
+			first = this.first;
+			base = this.base;
+			checkpoint = this.checkpoint;
+			frames = this.frames.toArray(new byte[0][]);
+		}
+		for (Map.Entry<Observer, long[]> entry : cursors.entrySet()) {
+			Observer observer = entry.getKey();
+			long[] cursor = entry.getValue();
+			try {
+				if (cursor[0] < first) {
+					observer.onFrame(ByteBuffer.wrap(checkpoint).asReadOnlyBuffer());
+					cursor[0] = base;
+				}
+				for (long next = cursor[0]; next < first + frames.length; next++) {
+					observer.onFrame(ByteBuffer.wrap(frames[(int) (next - first)]).asReadOnlyBuffer());
+					cursor[0] = next + 1;
+				}
+			} catch (RuntimeException e) {
+				// a failing observer must not hold up the others
+				cursors.remove(observer);
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the state of a broadcast game from its frames, e.g. on an
+	 * observer's side of a network connection. Not thread safe.
+	 */
+	public static class Replica {
+
+		private boolean[] rounds;
+		private Colour[] colours;
+		private int[] state;
+		private int round;
+		private int player;
+		private long next = -1;
+		private Move lastMove;
+		private int winners;
+
+		/**
+		 * Applies a frame. Frames must be applied in the order they were
+		 * received, starting with a snapshot.
+		 *
+		 * @param frame the frame; not null
+		 * @return true if the frame was applied, false if it was skipped
+		 *         because it is older than the state or no snapshot was applied
+		 *         yet
+		 * @throws IllegalArgumentException if the frame is malformed or frames
+		 *         are missing
+		 */
+		public boolean apply(ByteBuffer frame) {
+			ByteBuffer buffer = frame.duplicate();
+			try {
+				int kind = buffer.get();
+				long sequence = RemotePlayerProtocol.readLong(buffer);
+				if (kind == SNAPSHOT) {
+					if (sequence < next) return false;
+					applySnapshot(buffer);
+					next = sequence;
+					return true;
+				}
+				if (next < 0 || sequence < next) return false;
+				if (sequence > next) throw new IllegalArgumentException("Missing frames before "
+						+ sequence);
+				switch (kind) {
+				case MOVE:
+					lastMove = MoveCodec.read(buffer);
+					break;
+				case ROUND:
+					GameSnapshot.readInt(buffer);
+					break;
+				case ROTATION:
+					break;
+				case GAME_OVER:
+					winners = GameSnapshot.readInt(buffer);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown frame kind " + kind);
+				}
+				round = GameSnapshot.readInt(buffer);
+				player = GameSnapshot.readInt(buffer);
+				for (int changes = GameSnapshot.readInt(buffer); changes > 0; changes--) {
+					int field = GameSnapshot.readInt(buffer);
+					if (field >= state.length) throw new IllegalArgumentException("Bad field " + field);
+					state[field] = GameSnapshot.readInt(buffer);
+				}
+				next++;
+				return true;
+			} catch (BufferUnderflowException e) {
+				throw new IllegalArgumentException("Truncated frame", e);
+			}
+		}
+
+		private void applySnapshot(ByteBuffer buffer) {
+			winners = GameSnapshot.readInt(buffer);
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			GameSnapshot snapshot = GameSnapshot.fromBytes(bytes);
+			List<Boolean> rounds = snapshot.rounds();
+			this.rounds = new boolean[rounds.size()];
+			for (int i = 0; i < this.rounds.length; i++)
+				this.rounds[i] = rounds.get(i);
+			colours = snapshot.players().toArray(new Colour[0]);
+			state = new int[colours.length * FIELDS];
+			for (int i = 0; i < colours.length; i++) {
+				state[i * FIELDS] = snapshot.location(colours[i]);
+				for (Ticket ticket : TICKETS)
+					state[i * FIELDS + 1 + ticket.ordinal()] = snapshot.tickets(colours[i], ticket);
+			}
+			round = snapshot.currentRound();
+			player = snapshot.players().indexOf(snapshot.currentPlayer());
+			lastMove = null;
+		}
+
+		/**
+		 * @return the state as the game's spectators see it, with Mr.X at his
+		 *         last revealed location; null before the first snapshot
+		 */
+		public GameSnapshot snapshot() {
+			if (next < 0) return null;
+			int[] locations = new int[colours.length];
+			int[][] tickets = new int[colours.length][TICKETS.length];
+			for (int i = 0; i < colours.length; i++) {
+				locations[i] = state[i * FIELDS];
+				System.arraycopy(state, i * FIELDS + 1, tickets[i], 0, TICKETS.length);
+			}
+			return new GameSnapshot(rounds.clone(), round, player, colours.clone(), locations,
+					tickets, locations[0]);
+		}
+
+		/**
+		 * @return the last move received since the last snapshot, null if there
+		 *         is none
+		 */
+		public Move lastMove() {
+			return lastMove;
+		}
+
+		/**
+		 * @return the winners of the game; empty while the game is not over,
+		 *         never null
+		 */
+		public Set<Colour> winningPlayers() {
+			Set<Colour> colours = EnumSet.noneOf(Colour.class);
+			for (Colour colour : COLOURS) {
+				if ((winners & 1 << colour.ordinal()) != 0) colours.add(colour);
+			}
+			return Collections.unmodifiableSet(colours);
+		}
+
+	}
+
+}
@@ -0,0 +1,102 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import uk.ac.bris.cs.gamekit.graph.Graph;
+import uk.ac.bris.cs.gamekit.graph.ImmutableGraph;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The immutable part of a game, the graph and the rounds, which any number of
+ * games can share.
+ *
+ * <br>
+ * A {@link ScotlandYardModel} created from a definition keeps only a reference
+ * to it, and a {@link GameState} adds about 200 bytes of per-game state
+ * on top. Tables derived from the definition, like the {@link GraphIndex} of
+ * its graph, are built on first use and then kept with it.
+ */
+public final class GameDefinition {
+
+	private final ImmutableGraph<Integer, Transport> graph;
+	private final List<Boolean> rounds;
+	private final boolean[] reveals;
+	private final GraphIndex.Ordering ordering;
+	private volatile GraphIndex index;
+
+	/**
+	 * @param rounds the rounds of the game, true for reveal rounds; not null
+	 *        and not empty, copied
+	 * @param graph the graph of the game; not null and not empty
+	 */
+	public GameDefinition(List<Boolean> rounds, Graph<Integer, Transport> graph) {
+		this(rounds, graph, GraphIndex.Ordering.IDS);
+	}
+
+	/**
+	 * @param rounds the rounds of the game, true for reveal rounds; not null
+	 *        and not empty, copied
+	 * @param graph the graph of the game; not null and not empty
+	 * @param ordering the ordering of the nodes of {@link #index()}; not null
+	 */
+	public GameDefinition(List<Boolean> rounds, Graph<Integer, Transport> graph,
+			GraphIndex.Ordering ordering) {
+		this.ordering = requireNonNull(ordering);
+		requireNonNull(rounds);
+		requireNonNull(graph);
+		if (rounds.isEmpty()) throw new IllegalArgumentException("Empty rounds");
+		if (graph.isEmpty()) throw new IllegalArgumentException("Empty graph");
+		// a graph that is already immutable, e.g. a shared MapDefinition's, is used as it is
+		this.graph = graph instanceof ImmutableGraph ? (ImmutableGraph<Integer, Transport>) graph
+				: new ImmutableGraph<>(graph);
+		this.rounds = Collections.unmodifiableList(new ArrayList<>(rounds));
+		this.reveals = new boolean[rounds.size()];
+		for (int i = 0; i < reveals.length; i++)
+			reveals[i] = this.rounds.get(i);
+	}
+
+	/**
+	 * @return the graph; never null
+	 */
+	public ImmutableGraph<Integer, Transport> graph() {
+		return graph;
+	}
+
+	/**
+	 * @return the unmodifiable rounds, true for reveal rounds; never null
+	 */
+	public List<Boolean> rounds() {
+		return rounds;
+	}
+
+	/**
+	 * @param round a round, between 0 and the number of rounds - 1
+	 * @return true if Mr.X's location is revealed by his move in the round
+	 */
+	public boolean isRevealRound(int round) {
+		return reveals[round];
+	}
+
+	/**
+	 * @return the index of the graph in the ordering of the definition, built
+	 *         on the first call; never null
+	 */
+	public GraphIndex index() {
+		GraphIndex index = this.index;
+		if (index == null) {
+			// racing threads build equal indices, any of them may be kept
+			index = GraphIndex.of(graph, ordering);
+			this.index = index;
+		}
+		return index;
+	}
+
+	// shared with every snapshot of a game of this definition, never modified
+	boolean[] reveals() {
+		return reveals;
+	}
+
+}
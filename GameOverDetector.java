@@ -0,0 +1,137 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import uk.ac.bris.cs.gamekit.graph.Edge;
+import uk.ac.bris.cs.gamekit.graph.Graph;
+
+/**
+ * Keeps track of whether a game is over and who won. The terminal status is
+ * worked out at most once per state change: the model calls
+ * {@link #invalidate()} whenever it moves a player, uses a ticket or advances
+ * the round or the current player, and the next query recomputes the result.
+ *
+ * <br>
+ * The conditions and their order are the same as the ones the model has always
+ * used, Mr.X winning when the rounds run out or all detectives are stuck and
+ * the detectives winning when Mr.X is stuck at the end of a rotation, captured
+ * or cornered. Stuck players are found by looking for a single ticket move,
+ * as a double move always starts with one.
+ */
+class GameOverDetector {
+
+	private final Graph<Integer, Transport> graph;
+	private final int rounds;
+	private boolean valid;
+	private Set<Colour> winningPlayers;
+
+	/**
+	 * @param graph the graph of the game; not null
+	 * @param rounds the number of rounds of the game
+	 */
+	GameOverDetector(Graph<Integer, Transport> graph, int rounds) {
+		this.graph = Objects.requireNonNull(graph);
+		this.rounds = rounds;
+	}
+
+	/**
+	 * Marks the cached result as stale, must be called after every change of
+	 * the game state
+	 */
+	void invalidate() {
+		valid = false;
+	}
+
+	/**
+	 * @param currentRound the current round of the game
+	 * @param currentPlayer index of the current player in {@code players}
+	 * @param players the players of the game, Mr.X first; not null
+	 * @return true if the game is over
+	 */
+	boolean isGameOver(int currentRound, int currentPlayer, List<ScotlandYardPlayer> players) {
+		return !winningPlayers(currentRound, currentPlayer, players).isEmpty();
+	}
+
+	/**
+	 * @param currentRound the current round of the game
+	 * @param currentPlayer index of the current player in {@code players}
+	 * @param players the players of the game, Mr.X first; not null
+	 * @return an immutable set of the winners; empty while the game is not over
+	 */
+	Set<Colour> winningPlayers(int currentRound, int currentPlayer,
+			List<ScotlandYardPlayer> players) {
+		if (!valid) {
+			winningPlayers = evaluate(currentRound, currentPlayer, players);
+			valid = true;
+		}
+		return winningPlayers;
+	}
+
+	private Set<Colour> evaluate(int currentRound, int currentPlayer,
+			List<ScotlandYardPlayer> players) {
+		ScotlandYardPlayer mrX = players.get(0);
+		boolean endOfRound = currentPlayer == players.size() - 1;
+		// like the valid moves, occupancy ignores Mr.X and the current player
+		Set<Integer> occupied = new HashSet<>();
+		for (int i = 1; i < players.size(); i++) {
+			if (i != currentPlayer) occupied.add(players.get(i).location());
+		}
+		if (currentRound == rounds && endOfRound) return mrXWins(mrX);
+		if (endOfRound && !hasTicketMove(mrX, occupied)) return detectivesWin(players);
+		if (occupied(players, mrX.location())) return detectivesWin(players);
+		if (detectivesStuck(players, occupied)) return mrXWins(mrX);
+		if (cornered(mrX, occupied)) return detectivesWin(players);
+		return Collections.emptySet();
+	}
+
+	private static boolean occupied(List<ScotlandYardPlayer> players, int location) {
+		for (int i = 1; i < players.size(); i++) {
+			if (players.get(i).location() == location) return true;
+		}
+		return false;
+	}
+
+	private boolean detectivesStuck(List<ScotlandYardPlayer> players, Set<Integer> occupied) {
+		for (int i = 1; i < players.size(); i++) {
+			if (hasTicketMove(players.get(i), occupied)) return false;
+		}
+		return true;
+	}
+
+	private boolean hasTicketMove(ScotlandYardPlayer player, Set<Integer> occupied) {
+		boolean secret = player.hasTickets(Ticket.Secret);
+		for (Edge<Integer, Transport> edge : edgesFrom(player.location())) {
+			if (occupied.contains(edge.destination().value())) continue;
+			if (secret || player.hasTickets(Ticket.fromTransport(edge.data()))) return true;
+		}
+		return false;
+	}
+
+	private boolean cornered(ScotlandYardPlayer mrX, Set<Integer> occupied) {
+		for (Edge<Integer, Transport> edge : edgesFrom(mrX.location())) {
+			if (!occupied.contains(edge.destination().value())) return false;
+		}
+		return true;
+	}
+
+	private Iterable<Edge<Integer, Transport>> edgesFrom(int location) {
+		return graph.getEdgesFrom(graph.getNode(location));
+	}
+
+	private static Set<Colour> mrXWins(ScotlandYardPlayer mrX) {
+		return Collections.unmodifiableSet(EnumSet.of(mrX.colour()));
+	}
+
+	private static Set<Colour> detectivesWin(List<ScotlandYardPlayer> players) {
+		Set<Colour> detectives = EnumSet.noneOf(Colour.class);
+		for (int i = 1; i < players.size(); i++)
+			detectives.add(players.get(i).colour());
+		return Collections.unmodifiableSet(detectives);
+	}
+
+}
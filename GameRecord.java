@@ -0,0 +1,249 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The record of a finished game: its rounds, the start location of every
+ * player, every move in the order it was made and whether Mr.X won. Mr.X's
+ * moves are recorded unmasked, see {@link GameRecorder}.
+ *
+ * <br>
+ * Records are written to a stream one after another, each as its length
+ * followed by a version byte, unsigned variable length integers and moves as
+ * written by {@link MoveCodec}. A game of the standard length takes a few
+ * hundred bytes. {@link #stream(InputStream)} reads them back lazily.
+ */
+public final class GameRecord {
+
+	/**
+	 * The version of the binary format written by {@link #writeTo(OutputStream)}
+	 */
+	public static final int VERSION = 1;
+
+	private static final Colour[] COLOURS = Colour.values();
+	// the longest record read, far beyond any game, so a corrupt length cannot allocate much
+	private static final int MAX_LENGTH = 1 << 24;
+
+	private final List<Boolean> rounds;
+	private final List<Colour> players;
+	private final int[] starts;
+	private final List<Move> moves;
+	private final boolean mrXWon;
+
+	/**
+	 * @param rounds the rounds of the game; not null
+	 * @param players the colours of the players in play order, Mr.X first; not
+	 *        null
+	 * @param starts the start location of each player, in the same order
+	 * @param moves the moves made, double moves as one move; not null
+	 * @param mrXWon whether Mr.X won the game
+	 */
+	public GameRecord(List<Boolean> rounds, List<Colour> players, int[] starts, List<Move> moves,
+			boolean mrXWon) {
+		if (players.size() != starts.length)
+			throw new IllegalArgumentException("One start location per player");
+		this.rounds = Collections.unmodifiableList(new ArrayList<>(rounds));
+		this.players = Collections.unmodifiableList(new ArrayList<>(players));
+		this.starts = starts.clone();
+		this.moves = Collections.unmodifiableList(new ArrayList<>(moves));
+		this.mrXWon = mrXWon;
+	}
+
+	/**
+	 * @return the rounds of the game; never null
+	 */
+	public List<Boolean> rounds() {
+		return rounds;
+	}
+
+	/**
+	 * @return the colours of the players in play order, Mr.X first; never null
+	 */
+	public List<Colour> players() {
+		return players;
+	}
+
+	/**
+	 * @param colour the colour of a player of the game; not null
+	 * @return the start location of the player
+	 */
+	public int start(Colour colour) {
+		int index = players.indexOf(colour);
+		if (index < 0) throw new IllegalArgumentException(colour + " is not a player of the game");
+		return starts[index];
+	}
+
+	/**
+	 * @return the moves in the order they were made; never null
+	 */
+	public List<Move> moves() {
+		return moves;
+	}
+
+	/**
+	 * @return whether Mr.X won the game
+	 */
+	public boolean mrXWon() {
+		return mrXWon;
+	}
+
+	/**
+	 * Appends the record to a stream
+	 *
+	 * @param out the stream; not null
+	 * @throws IOException if the stream cannot be written
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+		payload.write(VERSION);
+		GameSnapshot.writeInt(payload, rounds.size());
+		for (int i = 0; i < rounds.size(); i += 8) {
+			int bits = 0;
+			for (int bit = 0; bit < 8 && i + bit < rounds.size(); bit++)
+				if (rounds.get(i + bit)) bits |= 1 << bit;
+			payload.write(bits);
+		}
+		GameSnapshot.writeInt(payload, players.size());
+		for (int player = 0; player < players.size(); player++) {
+			GameSnapshot.writeInt(payload, players.get(player).ordinal());
+			GameSnapshot.writeInt(payload, starts[player]);
+		}
+		GameSnapshot.writeInt(payload, moves.size());
+		for (Move move : moves)
+			MoveCodec.write(payload, move);
+		payload.write(mrXWon ? 1 : 0);
+		ByteArrayOutputStream length = new ByteArrayOutputStream(5);
+		GameSnapshot.writeInt(length, payload.size());
+		length.writeTo(out);
+		payload.writeTo(out);
+	}
+
+	/**
+	 * Reads the records of a stream lazily, one at a time, so any number of
+	 * records can be processed in bounded memory. The returned stream is
+	 * sequential; {@link GameAnalytics#analyse(Stream, int)} processes it in
+	 * parallel. The input is closed when the returned stream is closed.
+	 *
+	 * @param in the stream of records; not null
+	 * @return the records; never null
+	 * @throws UncheckedIOException if reading fails while the stream is
+	 *         consumed
+	 */
+	public static Stream<GameRecord> stream(InputStream in) {
+		Objects.requireNonNull(in);
+		return StreamSupport.stream(new RecordSpliterator(in), false).onClose(() -> {
+			try {
+				in.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	// the next record, or null at the end of the stream
+	private static GameRecord read(InputStream in) throws IOException {
+		int first = in.read();
+		if (first < 0) return null;
+		long length = 0;
+		int shift = 0;
+		for (int b = first;; b = in.read()) {
+			if (b < 0) throw new EOFException("Truncated record length");
+			length |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) break;
+			shift += 7;
+			if (shift > 28) throw new IOException("Malformed record length");
+		}
+		if (length > MAX_LENGTH) throw new IOException("Record length " + length + " too large");
+		byte[] payload = new byte[(int) length];
+		for (int read = 0; read < payload.length;) {
+			int count = in.read(payload, read, payload.length - read);
+			if (count < 0) throw new EOFException("Truncated record");
+			read += count;
+		}
+		try {
+			return decode(ByteBuffer.wrap(payload));
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("Corrupt record", e);
+		}
+	}
+
+	private static GameRecord decode(ByteBuffer buffer) {
+		int version = buffer.get();
+		if (version != VERSION)
+			throw new IllegalArgumentException("Unsupported record version " + version);
+		int roundCount = GameSnapshot.readInt(buffer);
+		if (roundCount > buffer.remaining() * 8)
+			throw new IllegalArgumentException("Corrupt round count");
+		Boolean[] rounds = new Boolean[roundCount];
+		for (int i = 0; i < rounds.length; i += 8) {
+			int bits = buffer.get();
+			for (int bit = 0; bit < 8 && i + bit < rounds.length; bit++)
+				rounds[i + bit] = (bits & 1 << bit) != 0;
+		}
+		int count = GameSnapshot.readInt(buffer);
+		if (count > buffer.remaining()) throw new IllegalArgumentException("Corrupt player count");
+		List<Colour> players = new ArrayList<>(count);
+		int[] starts = new int[count];
+		for (int player = 0; player < count; player++) {
+			int colour = GameSnapshot.readInt(buffer);
+			if (colour >= COLOURS.length) throw new IllegalArgumentException("Unknown colour");
+			players.add(COLOURS[colour]);
+			starts[player] = GameSnapshot.readInt(buffer);
+		}
+		int moveCount = GameSnapshot.readInt(buffer);
+		if (moveCount > buffer.remaining()) throw new IllegalArgumentException("Corrupt move count");
+		List<Move> moves = new ArrayList<>(moveCount);
+		for (int i = 0; i < moveCount; i++)
+			moves.add(MoveCodec.read(buffer));
+		boolean mrXWon = buffer.get() != 0;
+		return new GameRecord(Arrays.asList(rounds), players, starts, moves, mrXWon);
+	}
+
+	// never splits, reading ahead for parallel streams would not be bounded
+	private static class RecordSpliterator extends Spliterators.AbstractSpliterator<GameRecord> {
+
+		private final InputStream in;
+
+		RecordSpliterator(InputStream in) {
+			super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+			this.in = in;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super GameRecord> action) {
+			GameRecord record;
+			try {
+				record = read(in);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			if (record == null) return false;
+			action.accept(record);
+			return true;
+		}
+
+		@Override
+		public Spliterator<GameRecord> trySplit() {
+			return null;
+		}
+
+	}
+
+}
@@ -0,0 +1,74 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Records one game as a {@link GameRecord}.
+ *
+ * <br>
+ * Spectators only see Mr.X's moves masked, so the recorder takes his moves from
+ * his player: wrap Mr.X's player with {@link #recordMrX(Player)} and register
+ * the recorder as a spectator of the game. Detective moves are taken from
+ * {@link #onMoveMade(ScotlandYardView, Move)}.
+ */
+public class GameRecorder implements Spectator {
+
+	private final List<Move> moves = new ArrayList<>();
+	private List<Boolean> rounds;
+	private List<Colour> players;
+	private int[] starts;
+	private Boolean mrXWon;
+
+	/**
+	 * @param player Mr.X's player; not null
+	 * @return a player that plays like the given player and records its moves;
+	 *         never null
+	 */
+	public Player recordMrX(Player player) {
+		Objects.requireNonNull(player);
+		return (view, location, moves, callback) -> {
+			if (starts == null) start(view, location);
+			player.makeMove(view, location, moves, move -> {
+				this.moves.add(move);
+				callback.accept(move);
+			});
+		};
+	}
+
+	// Mr.X moves first, so everybody is still at their start location
+	private void start(ScotlandYardView view, int mrXLocation) {
+		rounds = view.getRounds();
+		players = view.getPlayers();
+		starts = new int[players.size()];
+		for (int player = 0; player < starts.length; player++) {
+			Colour colour = players.get(player);
+			starts[player] = colour.isMrX() ? mrXLocation : view.getPlayerLocation(colour);
+		}
+	}
+
+	@Override
+	public void onMoveMade(ScotlandYardView view, Move move) {
+		if (move.colour().isDetective()) moves.add(move);
+	}
+
+	@Override
+	public void onGameOver(ScotlandYardView view, Set<Colour> winningPlayers) {
+		mrXWon = winningPlayers.contains(Colour.Black);
+	}
+
+	/**
+	 * @return the record of the game; never null
+	 * @throws IllegalStateException if the game is not over or Mr.X never
+	 *         moved through {@link #recordMrX(Player)}
+	 */
+	public GameRecord record() {
+		if (mrXWon == null) throw new IllegalStateException("The game is not over");
+		if (starts == null) throw new IllegalStateException("Mr.X's player was not recorded");
+		return new GameRecord(rounds, players, starts, moves, mrXWon);
+	}
+
+}
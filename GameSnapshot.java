@@ -0,0 +1,355 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+import uk.ac.bris.cs.gamekit.graph.Graph;
+
+/**
+ * An immutable checkpoint of a {@link ScotlandYardModel}, from which an
+ * equivalent model can be restored.
+ *
+ * <br>
+ * A snapshot holds the rounds, the current round and player, every player's
+ * colour, location and tickets, and Mr.X's last revealed location. It holds
+ * Mr.X's real location too, so it is meant for the host of a game and not for
+ * its players. The graph, the {@link Player}s and the {@link Spectator}s are not
+ * part of a snapshot; they are supplied again on restore.
+ *
+ * <br>
+ * {@link #toBytes()} encodes a snapshot as a version byte followed by unsigned
+ * variable length integers and a bit set of the rounds. A standard game with
+ * five detectives takes about 60 bytes.
+ */
+public final class GameSnapshot {
+
+	/**
+	 * The version of the binary format written by {@link #toBytes()}
+	 */
+	public static final int VERSION = 1;
+
+	private static final Colour[] COLOURS = Colour.values();
+	private static final Ticket[] TICKETS = Ticket.values();
+
+	private final boolean[] rounds;
+	private final int currentRound;
+	private final int currentPlayer;
+	private final Colour[] colours;
+	private final int[] locations;
+	private final int[][] tickets;
+	private final int mrXLastLocation;
+
+	GameSnapshot(boolean[] rounds, int currentRound, int currentPlayer, Colour[] colours,
+			int[] locations, int[][] tickets, int mrXLastLocation) {
+		if (colours.length < 2 || colours[0] != Colour.Black)
+			throw new IllegalArgumentException("Mr.X and at least one detective are required");
+		if (currentRound < 0 || currentRound > rounds.length)
+			throw new IllegalArgumentException("Current round out of range");
+		if (currentPlayer < 0 || currentPlayer >= colours.length)
+			throw new IllegalArgumentException("Current player out of range");
+		this.rounds = rounds;
+		this.currentRound = currentRound;
+		this.currentPlayer = currentPlayer;
+		this.colours = colours;
+		this.locations = locations;
+		this.tickets = tickets;
+		this.mrXLastLocation = mrXLastLocation;
+	}
+
+	// a later state of the same game, sharing the rounds, the colours and every
+	// location and ticket array that did not change
+	GameSnapshot next(int currentRound, int currentPlayer, int[] locations, int[][] tickets,
+			int mrXLastLocation) {
+		int[][] shared = new int[tickets.length][];
+		for (int player = 0; player < tickets.length; player++)
+			shared[player] = Arrays.equals(this.tickets[player], tickets[player])
+					? this.tickets[player] : tickets[player];
+		return new GameSnapshot(rounds, currentRound, currentPlayer, colours,
+				Arrays.equals(this.locations, locations) ? this.locations : locations, shared,
+				mrXLastLocation);
+	}
+
+	// this state with every array equal to one of an earlier state of the game
+	// replaced by the earlier state's, so long lines of states share memory
+	GameSnapshot sharing(GameSnapshot earlier) {
+		if (!Arrays.equals(colours, earlier.colours) || !Arrays.equals(rounds, earlier.rounds))
+			return this;
+		return earlier.next(currentRound, currentPlayer, locations, tickets, mrXLastLocation);
+	}
+
+	/**
+	 * Captures the state of a game
+	 *
+	 * @param model the game; not null
+	 * @return the snapshot; never null
+	 */
+	public static GameSnapshot of(ScotlandYardModel model) {
+		return model.checkpoint();
+	}
+
+	/**
+	 * Captures what a view shows of a game. Mr.X's location in the snapshot is
+	 * his last revealed location, so the snapshot can be handed to players.
+	 *
+	 * @param view the view; not null
+	 * @return the snapshot; never null
+	 */
+	public static GameSnapshot fromView(ScotlandYardView view) {
+		List<Boolean> rounds = view.getRounds();
+		boolean[] reveals = new boolean[rounds.size()];
+		for (int i = 0; i < reveals.length; i++)
+			reveals[i] = rounds.get(i);
+		List<Colour> players = view.getPlayers();
+		Colour[] colours = players.toArray(new Colour[0]);
+		int[] locations = new int[colours.length];
+		int[][] tickets = new int[colours.length][TICKETS.length];
+		for (int player = 0; player < colours.length; player++) {
+			locations[player] = view.getPlayerLocation(colours[player]);
+			for (Ticket ticket : TICKETS)
+				tickets[player][ticket.ordinal()] = view.getPlayerTickets(colours[player], ticket);
+		}
+		return new GameSnapshot(reveals, view.getCurrentRound(),
+				players.indexOf(view.getCurrentPlayer()), colours, locations, tickets,
+				view.getPlayerLocation(Colour.Black));
+	}
+
+	/**
+	 * Decodes a snapshot written by {@link #toBytes()}
+	 *
+	 * @param bytes the encoded snapshot; not null
+	 * @return the snapshot; never null
+	 * @throws IllegalArgumentException if the bytes are not a valid snapshot
+	 */
+	public static GameSnapshot fromBytes(byte[] bytes) {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		try {
+			int version = buffer.get();
+			if (version != VERSION)
+				throw new IllegalArgumentException("Unsupported snapshot version " + version);
+			boolean[] rounds = new boolean[readCount(buffer)];
+			for (int i = 0; i < rounds.length; i += 8) {
+				int bits = buffer.get();
+				for (int bit = 0; bit < 8 && i + bit < rounds.length; bit++)
+					rounds[i + bit] = (bits & 1 << bit) != 0;
+			}
+			int currentRound = readInt(buffer);
+			int currentPlayer = readInt(buffer);
+			int players = readCount(buffer);
+			Colour[] colours = new Colour[players];
+			int[] locations = new int[players];
+			int[][] tickets = new int[players][TICKETS.length];
+			for (int player = 0; player < players; player++) {
+				int colour = readInt(buffer);
+				if (colour >= COLOURS.length) throw new IllegalArgumentException("Unknown colour");
+				colours[player] = COLOURS[colour];
+				locations[player] = readInt(buffer);
+				for (int ticket = 0; ticket < TICKETS.length; ticket++)
+					tickets[player][ticket] = readInt(buffer);
+			}
+			int mrXLastLocation = readInt(buffer);
+			if (buffer.hasRemaining()) throw new IllegalArgumentException("Trailing bytes");
+			return new GameSnapshot(rounds, currentRound, currentPlayer, colours, locations, tickets,
+					mrXLastLocation);
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Truncated snapshot", e);
+		}
+	}
+
+	/**
+	 * @return the encoded snapshot; never null
+	 */
+	public byte[] toBytes() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+		out.write(VERSION);
+		writeInt(out, rounds.length);
+		for (int i = 0; i < rounds.length; i += 8) {
+			int bits = 0;
+			for (int bit = 0; bit < 8 && i + bit < rounds.length; bit++)
+				if (rounds[i + bit]) bits |= 1 << bit;
+			out.write(bits);
+		}
+		writeInt(out, currentRound);
+		writeInt(out, currentPlayer);
+		writeInt(out, colours.length);
+		for (int player = 0; player < colours.length; player++) {
+			writeInt(out, colours[player].ordinal());
+			writeInt(out, locations[player]);
+			for (int count : tickets[player])
+				writeInt(out, count);
+		}
+		writeInt(out, mrXLastLocation);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Restores an equivalent game. Its next call to
+	 * {@link ScotlandYardGame#startRotate()} asks the current player of the
+	 * snapshot for a move and continues the rotation from there.
+	 *
+	 * @param graph the graph of the game; not null
+	 * @param players the player of each colour; not null
+	 * @return the restored game; never null
+	 * @throws IllegalArgumentException if the snapshot does not describe a valid
+	 *         game on the graph, e.g. because Mr.X has been captured
+	 */
+	public ScotlandYardModel restore(Graph<Integer, Transport> graph,
+			Function<Colour, Player> players) {
+		PlayerConfiguration[] configurations = configurations(players);
+		ScotlandYardModel model = new ScotlandYardModel(rounds(), graph, configurations[0],
+				configurations[1], Arrays.copyOfRange(configurations, 2, configurations.length));
+		model.restore(currentRound, currentPlayer, mrXLastLocation);
+		return model;
+	}
+
+	// restores the game sharing the graph and rounds of the definition
+	ScotlandYardModel restore(GameDefinition definition, Function<Colour, Player> players) {
+		if (!Arrays.equals(rounds, definition.reveals()))
+			throw new IllegalArgumentException("Snapshot of a game with different rounds");
+		PlayerConfiguration[] configurations = configurations(players);
+		ScotlandYardModel model = new ScotlandYardModel(definition, configurations[0],
+				configurations[1], Arrays.copyOfRange(configurations, 2, configurations.length));
+		model.restore(currentRound, currentPlayer, mrXLastLocation);
+		return model;
+	}
+
+	private PlayerConfiguration[] configurations(Function<Colour, Player> players) {
+		Objects.requireNonNull(players);
+		PlayerConfiguration[] configurations = new PlayerConfiguration[colours.length];
+		for (int player = 0; player < colours.length; player++) {
+			Map<Ticket, Integer> counts = new EnumMap<>(Ticket.class);
+			for (Ticket ticket : TICKETS)
+				counts.put(ticket, tickets[player][ticket.ordinal()]);
+			configurations[player] = new PlayerConfiguration.Builder(colours[player])
+					.using(players.apply(colours[player])).with(counts).at(locations[player]).build();
+		}
+		return configurations;
+	}
+
+	// the rounds without boxing, not to be modified
+	boolean[] reveals() {
+		return rounds;
+	}
+
+	/**
+	 * @return the rounds of the game; never null
+	 */
+	public List<Boolean> rounds() {
+		List<Boolean> list = new ArrayList<>(rounds.length);
+		for (boolean round : rounds)
+			list.add(round);
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * @return the current round
+	 */
+	public int currentRound() {
+		return currentRound;
+	}
+
+	/**
+	 * @return the colour of the current player; never null
+	 */
+	public Colour currentPlayer() {
+		return colours[currentPlayer];
+	}
+
+	/**
+	 * @return the colours of the players in play order, Mr.X first; never null
+	 */
+	public List<Colour> players() {
+		return Collections.unmodifiableList(Arrays.asList(colours.clone()));
+	}
+
+	/**
+	 * @param colour the colour of a player of the game; not null
+	 * @return the actual location of the player
+	 */
+	public int location(Colour colour) {
+		return locations[indexOf(colour)];
+	}
+
+	/**
+	 * @param colour the colour of a player of the game; not null
+	 * @param ticket the ticket; not null
+	 * @return the number of tickets the player holds
+	 */
+	public int tickets(Colour colour, Ticket ticket) {
+		return tickets[indexOf(colour)][ticket.ordinal()];
+	}
+
+	/**
+	 * @return Mr.X's last revealed location, 0 if he has not been revealed
+	 */
+	public int mrXLastLocation() {
+		return mrXLastLocation;
+	}
+
+	private int indexOf(Colour colour) {
+		for (int player = 0; player < colours.length; player++) {
+			if (colours[player] == colour) return player;
+		}
+		throw new IllegalArgumentException(colour + " is not a player of the game");
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof GameSnapshot)) return false;
+		GameSnapshot that = (GameSnapshot) o;
+		return currentRound == that.currentRound && currentPlayer == that.currentPlayer
+				&& mrXLastLocation == that.mrXLastLocation && Arrays.equals(rounds, that.rounds)
+				&& Arrays.equals(colours, that.colours) && Arrays.equals(locations, that.locations)
+				&& Arrays.deepEquals(tickets, that.tickets);
+	}
+
+	@Override
+	public int hashCode() {
+		int result = Arrays.hashCode(rounds);
+		result = 31 * result + currentRound;
+		result = 31 * result + currentPlayer;
+		result = 31 * result + Arrays.hashCode(locations);
+		result = 31 * result + Arrays.deepHashCode(tickets);
+		return 31 * result + mrXLastLocation;
+	}
+
+	// unsigned LEB128
+	static void writeInt(ByteArrayOutputStream out, int value) {
+		if (value < 0) throw new IllegalArgumentException("Negative value " + value);
+		while ((value & ~0x7f) != 0) {
+			out.write(value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	static int readInt(ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = buffer.get();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				if (value < 0) throw new IllegalArgumentException("Malformed integer");
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed integer");
+	}
+
+	// a length that is checked against the bytes left, so corrupt input cannot allocate much
+	private static int readCount(ByteBuffer buffer) {
+		int count = readInt(buffer);
+		if (count > buffer.remaining() * 8) throw new IllegalArgumentException("Corrupt length");
+		return count;
+	}
+
+}
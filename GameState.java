@@ -0,0 +1,201 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * The per-game part of a game, everything that is not in its
+ * {@link GameDefinition}, in a single array of ints.
+ *
+ * <br>
+ * A game that is not being played, e.g. a game waiting for a remote player or
+ * one of many games kept by a server, can be parked as a state and restored
+ * into a {@link ScotlandYardModel} when it is played again. The array holds the
+ * current round and player, Mr.X's last revealed location and the play order,
+ * then a block per {@link Colour#ordinal()} with the location and the ticket
+ * counts by {@link Ticket#ordinal()}, so every accessor reads one or two cells.
+ * The rounds stay with the definition. A state takes about 200 bytes besides
+ * the shared definition, and states are immutable, so they can be handed
+ * between threads freely.
+ */
+public final class GameState {
+
+	private static final Colour[] COLOURS = Colour.values();
+	private static final Ticket[] TICKETS = Ticket.values();
+
+	// the header, then per colour ordinal its location, -1 if not playing, and tickets
+	private static final int ROUND = 0;
+	private static final int PLAYER = 1;
+	private static final int MR_X_LAST = 2;
+	// colour ordinals in play order, ORDER_BITS each from the low bits
+	private static final int ORDER = 3;
+	private static final int PLAYERS = 4;
+	private static final int HEADER = 5;
+	private static final int ORDER_BITS = 3;
+	private static final int LOCATION = 0;
+	private static final int STRIDE = 1 + TICKETS.length;
+
+	private final GameDefinition definition;
+	private final int[] cells;
+
+	private GameState(GameDefinition definition, int[] cells) {
+		this.definition = definition;
+		this.cells = cells;
+	}
+
+	/**
+	 * Captures the state of a game
+	 *
+	 * @param model the game; not null
+	 * @return the state; never null
+	 */
+	public static GameState of(ScotlandYardModel model) {
+		return of(model.definition(), model.checkpoint());
+	}
+
+	/**
+	 * @param definition the definition of the game; not null
+	 * @param snapshot the state of the game; not null
+	 * @return the state; never null
+	 * @throws IllegalArgumentException if the snapshot has different rounds
+	 */
+	public static GameState of(GameDefinition definition, GameSnapshot snapshot) {
+		Objects.requireNonNull(definition);
+		if (!Arrays.equals(definition.reveals(), snapshot.reveals()))
+			throw new IllegalArgumentException("Snapshot of a game with different rounds");
+		List<Colour> players = snapshot.players();
+		int[] cells = new int[HEADER + COLOURS.length * STRIDE];
+		cells[ROUND] = snapshot.currentRound();
+		cells[PLAYER] = players.indexOf(snapshot.currentPlayer());
+		cells[MR_X_LAST] = snapshot.mrXLastLocation();
+		cells[PLAYERS] = players.size();
+		for (int colour = 0; colour < COLOURS.length; colour++)
+			cells[HEADER + colour * STRIDE + LOCATION] = -1;
+		for (int player = 0; player < players.size(); player++) {
+			Colour colour = players.get(player);
+			cells[ORDER] |= colour.ordinal() << player * ORDER_BITS;
+			int base = HEADER + colour.ordinal() * STRIDE;
+			cells[base + LOCATION] = snapshot.location(colour);
+			for (Ticket ticket : TICKETS)
+				cells[base + 1 + ticket.ordinal()] = snapshot.tickets(colour, ticket);
+		}
+		return new GameState(definition, cells);
+	}
+
+	/**
+	 * @return the snapshot of the state, sharing the rounds of the definition;
+	 *         never null
+	 */
+	public GameSnapshot snapshot() {
+		int count = cells[PLAYERS];
+		Colour[] colours = new Colour[count];
+		int[] locations = new int[count];
+		int[][] tickets = new int[count][];
+		for (int player = 0; player < count; player++) {
+			colours[player] = colour(player);
+			int base = HEADER + colours[player].ordinal() * STRIDE;
+			locations[player] = cells[base + LOCATION];
+			tickets[player] = Arrays.copyOfRange(cells, base + 1, base + STRIDE);
+		}
+		return new GameSnapshot(definition.reveals(), cells[ROUND], cells[PLAYER], colours,
+				locations, tickets, cells[MR_X_LAST]);
+	}
+
+	/**
+	 * Restores the game, sharing the graph and rounds of the definition. Its
+	 * next call to {@link ScotlandYardGame#startRotate()} asks the current
+	 * player for a move.
+	 *
+	 * @param players the player of each colour; not null
+	 * @return the restored game; never null
+	 * @throws IllegalArgumentException if the state does not describe a valid
+	 *         game on the graph
+	 */
+	public ScotlandYardModel restore(Function<Colour, Player> players) {
+		return snapshot().restore(definition, players);
+	}
+
+	/**
+	 * @return the definition of the game; never null
+	 */
+	public GameDefinition definition() {
+		return definition;
+	}
+
+	/**
+	 * @return the colours of the players in play order, Mr.X first; never null
+	 */
+	public List<Colour> players() {
+		Colour[] players = new Colour[cells[PLAYERS]];
+		for (int player = 0; player < players.length; player++)
+			players[player] = colour(player);
+		return Collections.unmodifiableList(Arrays.asList(players));
+	}
+
+	/**
+	 * @return the current round
+	 */
+	public int currentRound() {
+		return cells[ROUND];
+	}
+
+	/**
+	 * @return the colour of the current player; never null
+	 */
+	public Colour currentPlayer() {
+		return colour(cells[PLAYER]);
+	}
+
+	/**
+	 * @param colour the colour of a player of the game; not null
+	 * @return the actual location of the player
+	 */
+	public int location(Colour colour) {
+		return cells[baseOf(colour) + LOCATION];
+	}
+
+	/**
+	 * @param colour the colour of a player of the game; not null
+	 * @param ticket the ticket; not null
+	 * @return the number of tickets the player holds
+	 */
+	public int tickets(Colour colour, Ticket ticket) {
+		return cells[baseOf(colour) + 1 + ticket.ordinal()];
+	}
+
+	/**
+	 * @return Mr.X's last revealed location, 0 if he has not been revealed
+	 */
+	public int mrXLastLocation() {
+		return cells[MR_X_LAST];
+	}
+
+	// the colour of the player at a position of the play order
+	private Colour colour(int player) {
+		return COLOURS[cells[ORDER] >>> player * ORDER_BITS & (1 << ORDER_BITS) - 1];
+	}
+
+	private int baseOf(Colour colour) {
+		int base = HEADER + colour.ordinal() * STRIDE;
+		if (cells[base + LOCATION] < 0)
+			throw new IllegalArgumentException(colour + " is not a player of the game");
+		return base;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof GameState)) return false;
+		GameState that = (GameState) o;
+		return definition == that.definition && Arrays.equals(cells, that.cells);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * System.identityHashCode(definition) + Arrays.hashCode(cells);
+	}
+
+}
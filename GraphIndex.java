@@ -0,0 +1,487 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import uk.ac.bris.cs.gamekit.graph.Edge;
+import uk.ac.bris.cs.gamekit.graph.Graph;
+import uk.ac.bris.cs.gamekit.graph.Node;
+
+/**
+ * A compact, immutable adjacency index of a Scotland Yard map for code that
+ * works on primitive arrays instead of {@link Graph} objects.
+ *
+ * <br>
+ * Nodes are numbered {@code 0..size()-1}, by default in ascending order of
+ * their ids. The neighbours of node {@code i} are the slots
+ * {@code start(i)..end(i)-1}, in ascending order of their indices; each slot
+ * holds a distinct neighbour and a bit mask of the transports, indexed by
+ * {@link Transport#ordinal()}, that connect the two nodes.
+ *
+ * <br>
+ * Ids say nothing about where nodes are on the map, so the neighbours of a
+ * node are usually far apart in arrays indexed by node. An index can instead
+ * number the nodes in an {@link Ordering} that gives nearby nodes nearby
+ * indices, which makes searches that sweep over the map touch fewer cache
+ * lines. Ids are only ever translated with {@link #id(int)} and
+ * {@link #indexOf(int)}, so code using an index works the same whatever its
+ * ordering. A {@link MapDefinition} loaded with an ordering keeps its index,
+ * which can be handed to the classes that accept one, e.g.
+ * {@link PlayoutEngine}, {@link RouteFinder} and {@link BeliefDetectiveTeam}.
+ */
+public final class GraphIndex {
+
+	/**
+	 * How the nodes of an index are numbered
+	 */
+	public enum Ordering {
+
+		/**
+		 * In ascending order of their ids
+		 */
+		IDS,
+
+		/**
+		 * In breadth first order from the node with the lowest id, neighbours
+		 * in ascending order of their ids
+		 */
+		BFS,
+
+		/**
+		 * In reverse Cuthill-McKee order, breadth first from a node at the
+		 * edge of the map with neighbours in ascending order of degree and
+		 * then reversed, which keeps the indices of neighbours closest
+		 */
+		REVERSE_CUTHILL_MCKEE
+
+	}
+
+	private static final int CACHE_SIZE = 16;
+	private static final List<CacheEntry> CACHE = new ArrayList<>();
+
+	private final Ordering ordering;
+	private final int[] ids;
+	private final int[] indexById;
+	private final Map<Integer, Integer> sparseIndexById;
+	private final int[] offsets;
+	private final int[] neighbours;
+	private final byte[] transports;
+
+	private GraphIndex(Graph<Integer, Transport> graph) {
+		ordering = Ordering.IDS;
+		Collection<Node<Integer>> nodes = graph.getNodes();
+		ids = new int[nodes.size()];
+		int count = 0;
+		for (Node<Integer> node : nodes)
+			ids[count++] = node.value();
+		Arrays.sort(ids);
+		int maxId = ids.length == 0 ? 0 : ids[ids.length - 1];
+		// ids are usually 1..n, only fall back to a map for sparse ids
+		if (ids.length > 0 && ids[0] >= 0 && maxId <= ids.length * 4 + 1024) {
+			indexById = new int[maxId + 1];
+			Arrays.fill(indexById, -1);
+			for (int index = 0; index < ids.length; index++)
+				indexById[ids[index]] = index;
+			sparseIndexById = null;
+		} else {
+			indexById = null;
+			sparseIndexById = new HashMap<>();
+			for (int index = 0; index < ids.length; index++)
+				sparseIndexById.put(ids[index], index);
+		}
+
+		offsets = new int[ids.length + 1];
+		int[] neighbours = new int[16];
+		byte[] transports = new byte[16];
+		long[] row = new long[16];
+		int slots = 0;
+		for (int index = 0; index < ids.length; index++) {
+			Collection<Edge<Integer, Transport>> edges = graph
+					.getEdgesFrom(graph.getNode(ids[index]));
+			if (row.length < edges.size()) row = new long[edges.size()];
+			int length = 0;
+			for (Edge<Integer, Transport> edge : edges)
+				row[length++] = ((long) indexOf(edge.destination().value()) << 8)
+						| (1 << edge.data().ordinal());
+			// sorting groups parallel edges, which are merged into one slot
+			Arrays.sort(row, 0, length);
+			for (int i = 0; i < length; i++) {
+				int neighbour = (int) (row[i] >>> 8);
+				if (slots > offsets[index] && neighbours[slots - 1] == neighbour) {
+					transports[slots - 1] |= (byte) row[i];
+					continue;
+				}
+				if (slots == neighbours.length) {
+					neighbours = Arrays.copyOf(neighbours, slots * 2);
+					transports = Arrays.copyOf(transports, slots * 2);
+				}
+				neighbours[slots] = neighbour;
+				transports[slots] = (byte) row[i];
+				slots++;
+			}
+			offsets[index + 1] = slots;
+		}
+		this.neighbours = Arrays.copyOf(neighbours, slots);
+		this.transports = Arrays.copyOf(transports, slots);
+	}
+
+	// the nodes of an index renumbered, order[i] is the old index of node i
+	private GraphIndex(GraphIndex base, int[] order, Ordering ordering) {
+		this.ordering = ordering;
+		int[] renumbered = new int[order.length];
+		for (int index = 0; index < order.length; index++)
+			renumbered[order[index]] = index;
+		ids = new int[order.length];
+		for (int index = 0; index < order.length; index++)
+			ids[index] = base.ids[order[index]];
+		if (base.indexById != null) {
+			indexById = new int[base.indexById.length];
+			Arrays.fill(indexById, -1);
+			for (int index = 0; index < ids.length; index++)
+				indexById[ids[index]] = index;
+			sparseIndexById = null;
+		} else {
+			indexById = null;
+			sparseIndexById = new HashMap<>();
+			for (int index = 0; index < ids.length; index++)
+				sparseIndexById.put(ids[index], index);
+		}
+
+		offsets = new int[ids.length + 1];
+		neighbours = new int[base.neighbours.length];
+		transports = new byte[base.transports.length];
+		long[] row = new long[16];
+		int slots = 0;
+		for (int index = 0; index < ids.length; index++) {
+			int old = order[index];
+			int length = base.degree(old);
+			if (row.length < length) row = new long[length];
+			for (int i = 0; i < length; i++) {
+				int slot = base.offsets[old] + i;
+				row[i] = ((long) renumbered[base.neighbours[slot]] << 8) | base.transports[slot] & 0xff;
+			}
+			Arrays.sort(row, 0, length);
+			for (int i = 0; i < length; i++) {
+				neighbours[slots] = (int) (row[i] >>> 8);
+				transports[slots] = (byte) row[i];
+				slots++;
+			}
+			offsets[index + 1] = slots;
+		}
+	}
+
+	/**
+	 * Returns the index of a graph in {@link Ordering#IDS}, indices are cached
+	 * for the last few graph instances so repeated calls with the same graph
+	 * are cheap
+	 *
+	 * @param graph the graph; not null
+	 * @return the index; never null
+	 */
+	public static GraphIndex of(Graph<Integer, Transport> graph) {
+		return of(graph, Ordering.IDS);
+	}
+
+	/**
+	 * Returns the index of a graph in an ordering, cached like the indices of
+	 * {@link #of(Graph)}. An index is built the same way every time, so an
+	 * evicted index is rebuilt with the same numbering.
+	 *
+	 * @param graph the graph; not null
+	 * @param ordering the ordering of the nodes; not null
+	 * @return the index; never null
+	 */
+	public static GraphIndex of(Graph<Integer, Transport> graph, Ordering ordering) {
+		Objects.requireNonNull(graph);
+		Objects.requireNonNull(ordering);
+		synchronized (CACHE) {
+			for (CacheEntry entry : CACHE) {
+				if (entry.graph.get() == graph && entry.index.ordering == ordering)
+					return entry.index;
+			}
+		}
+		GraphIndex index;
+		if (ordering == Ordering.IDS) {
+			index = new GraphIndex(graph);
+		} else {
+			GraphIndex ids = of(graph, Ordering.IDS);
+			index = new GraphIndex(ids, ordering == Ordering.BFS ? ids.breadthFirstOrder()
+					: ids.reverseCuthillMcKeeOrder(), ordering);
+		}
+		synchronized (CACHE) {
+			CACHE.removeIf(entry -> entry.graph.get() == null);
+			if (CACHE.size() >= CACHE_SIZE) CACHE.remove(0);
+			CACHE.add(new CacheEntry(graph, index));
+		}
+		return index;
+	}
+
+	private int[] breadthFirstOrder() {
+		int[] order = new int[ids.length];
+		boolean[] visited = new boolean[ids.length];
+		int count = 0;
+		for (int start = 0; start < ids.length; start++) {
+			if (visited[start]) continue;
+			visited[start] = true;
+			order[count++] = start;
+			for (int head = count - 1; head < count; head++) {
+				int node = order[head];
+				for (int slot = start(node); slot < end(node); slot++) {
+					int neighbour = neighbours[slot];
+					if (visited[neighbour]) continue;
+					visited[neighbour] = true;
+					order[count++] = neighbour;
+				}
+			}
+		}
+		return order;
+	}
+
+	private int[] reverseCuthillMcKeeOrder() {
+		int[] order = new int[ids.length];
+		boolean[] visited = new boolean[ids.length];
+		int[] levels = new int[ids.length];
+		Arrays.fill(levels, -1);
+		int[] queue = new int[ids.length];
+		int[] byDegree = byDegree();
+		int[] row = new int[16];
+		int count = 0;
+		for (int next = 0; count < ids.length; next++) {
+			// every component starts from its end with the lowest degree
+			if (visited[byDegree[next]]) continue;
+			int start = peripheralNode(byDegree[next], levels, queue);
+			visited[start] = true;
+			order[count++] = start;
+			for (int head = count - 1; head < count; head++) {
+				int node = order[head];
+				int length = 0;
+				if (row.length < degree(node)) row = new int[degree(node)];
+				for (int slot = start(node); slot < end(node); slot++) {
+					if (!visited[neighbours[slot]]) row[length++] = neighbours[slot];
+				}
+				sortByDegree(row, length);
+				for (int i = 0; i < length; i++) {
+					visited[row[i]] = true;
+					order[count++] = row[i];
+				}
+			}
+		}
+		for (int i = 0, j = order.length - 1; i < j; i++, j--) {
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+		return order;
+	}
+
+	// the nodes in ascending order of degree, ties in ascending order of index
+	private int[] byDegree() {
+		int maxDegree = 0;
+		for (int node = 0; node < ids.length; node++)
+			maxDegree = Math.max(maxDegree, degree(node));
+		int[] starts = new int[maxDegree + 2];
+		for (int node = 0; node < ids.length; node++)
+			starts[degree(node) + 1]++;
+		for (int degree = 0; degree <= maxDegree; degree++)
+			starts[degree + 1] += starts[degree];
+		int[] nodes = new int[ids.length];
+		for (int node = 0; node < ids.length; node++)
+			nodes[starts[degree(node)]++] = node;
+		return nodes;
+	}
+
+	// George and Liu: moves to the lowest degree node of the last level of a
+	// breadth first search until the number of levels stops growing
+	private int peripheralNode(int start, int[] levels, int[] queue) {
+		int count = levels(start, levels, queue);
+		int depth = levels[queue[count - 1]];
+		while (true) {
+			int candidate = -1;
+			for (int i = count - 1; i >= 0 && levels[queue[i]] == depth; i--) {
+				if (candidate < 0 || degree(queue[i]) < degree(candidate)) candidate = queue[i];
+			}
+			for (int i = 0; i < count; i++)
+				levels[queue[i]] = -1;
+			count = levels(candidate, levels, queue);
+			int candidateDepth = levels[queue[count - 1]];
+			if (candidateDepth <= depth) {
+				for (int i = 0; i < count; i++)
+					levels[queue[i]] = -1;
+				return start;
+			}
+			start = candidate;
+			depth = candidateDepth;
+		}
+	}
+
+	// a breadth first search from the start, leaves the level of every node it
+	// reaches and the nodes in the order they were reached; returns their number
+	private int levels(int start, int[] levels, int[] queue) {
+		int count = 0;
+		queue[count++] = start;
+		levels[start] = 0;
+		for (int head = 0; head < count; head++) {
+			int node = queue[head];
+			for (int slot = start(node); slot < end(node); slot++) {
+				int neighbour = neighbours[slot];
+				if (levels[neighbour] >= 0) continue;
+				levels[neighbour] = levels[node] + 1;
+				queue[count++] = neighbour;
+			}
+		}
+		return count;
+	}
+
+	// insertion sort, rows are as short as the degree of a node
+	private void sortByDegree(int[] nodes, int length) {
+		for (int i = 1; i < length; i++) {
+			int node = nodes[i];
+			int j = i - 1;
+			for (; j >= 0 && degree(nodes[j]) > degree(node); j--)
+				nodes[j + 1] = nodes[j];
+			nodes[j + 1] = node;
+		}
+	}
+
+	/**
+	 * The transports a ticket can be used on, as a bit mask of
+	 * {@link Transport#ordinal()}
+	 *
+	 * @param ticket the ticket; not null
+	 * @return the mask; zero for {@link Ticket#Double}
+	 */
+	public static int transportMask(Ticket ticket) {
+		switch (Objects.requireNonNull(ticket)) {
+		case Taxi:
+			return 1 << Transport.Taxi.ordinal();
+		case Bus:
+			return 1 << Transport.Bus.ordinal();
+		case Underground:
+			return 1 << Transport.Underground.ordinal();
+		case Secret:
+			return (1 << Transport.values().length) - 1;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * @return how the nodes are numbered; never null
+	 */
+	public Ordering ordering() {
+		return ordering;
+	}
+
+	/**
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * @param index the index of a node
+	 * @return the id of the node
+	 */
+	public int id(int index) {
+		return ids[index];
+	}
+
+	/**
+	 * @param id the id of a node
+	 * @return the index of the node, or -1 if the graph has no such node
+	 */
+	public int indexOf(int id) {
+		if (indexById != null) return id >= 0 && id < indexById.length ? indexById[id] : -1;
+		Integer index = sparseIndexById.get(id);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * @param index the index of a node
+	 * @return the first neighbour slot of the node
+	 */
+	public int start(int index) {
+		return offsets[index];
+	}
+
+	/**
+	 * @param index the index of a node
+	 * @return one past the last neighbour slot of the node
+	 */
+	public int end(int index) {
+		return offsets[index + 1];
+	}
+
+	/**
+	 * @param index the index of a node
+	 * @return the number of distinct neighbours of the node
+	 */
+	public int degree(int index) {
+		return offsets[index + 1] - offsets[index];
+	}
+
+	/**
+	 * @param slot a neighbour slot
+	 * @return the index of the neighbour in the slot
+	 */
+	public int neighbour(int slot) {
+		return neighbours[slot];
+	}
+
+	/**
+	 * @param slot a neighbour slot
+	 * @return the transports to the neighbour in the slot as a bit mask of
+	 *         {@link Transport#ordinal()}
+	 */
+	public int transports(int slot) {
+		return transports[slot];
+	}
+
+	/**
+	 * @param slot a neighbour slot
+	 * @param ticket the ticket; not null
+	 * @return true if the ticket can be used to move to the neighbour in the
+	 *         slot
+	 */
+	public boolean accepts(int slot, Ticket ticket) {
+		return (transports[slot] & transportMask(ticket)) != 0;
+	}
+
+	/**
+	 * @param from the index of a node
+	 * @param to the index of another node
+	 * @return the slot of {@code to} among the neighbours of {@code from}, or -1
+	 *         if they are not adjacent
+	 */
+	public int slotOf(int from, int to) {
+		int low = offsets[from];
+		int high = offsets[from + 1] - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (neighbours[middle] < to) low = middle + 1;
+			else if (neighbours[middle] > to) high = middle - 1;
+			else return middle;
+		}
+		return -1;
+	}
+
+	private static class CacheEntry {
+
+		final WeakReference<Graph<Integer, Transport>> graph;
+		final GraphIndex index;
+
+		CacheEntry(Graph<Integer, Transport> graph, GraphIndex index) {
+			this.graph = new WeakReference<>(graph);
+			this.index = index;
+		}
+
+	}
+
+}
@@ -0,0 +1,130 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import uk.ac.bris.cs.gamekit.graph.Graph;
+
+/**
+ * A {@link ScotlandYardView} of one fixed game state. It never changes, so it
+ * can be kept and read from any number of threads without locks or copying.
+ *
+ * <br>
+ * Like any view it shows Mr.X at his last revealed location.
+ * {@link ScotlandYardModel#snapshot()} publishes a new instance after every
+ * move; consecutive instances share the rounds, the players, the graph and
+ * every location and ticket array that the move did not change.
+ */
+public final class ImmutableView implements ScotlandYardView {
+
+	private final GameSnapshot snapshot;
+	private final Graph<Integer, Transport> graph;
+	private final List<Boolean> rounds;
+	private final List<Colour> players;
+	private final Set<Colour> winningPlayers;
+
+	/**
+	 * @param snapshot the state of the view; not null
+	 * @param graph the graph of the game; not null
+	 * @param winningPlayers the winning players, empty if the game is not over;
+	 *        not null
+	 */
+	ImmutableView(GameSnapshot snapshot, Graph<Integer, Transport> graph,
+			Set<Colour> winningPlayers) {
+		this(snapshot, graph, snapshot.rounds(), snapshot.players(), winningPlayers);
+	}
+
+	private ImmutableView(GameSnapshot snapshot, Graph<Integer, Transport> graph,
+			List<Boolean> rounds, List<Colour> players, Set<Colour> winningPlayers) {
+		this.snapshot = Objects.requireNonNull(snapshot);
+		this.graph = Objects.requireNonNull(graph);
+		this.rounds = rounds;
+		this.players = players;
+		this.winningPlayers = winningPlayers.isEmpty() ? Collections.emptySet()
+				: Collections.unmodifiableSet(EnumSet.copyOf(winningPlayers));
+	}
+
+	/**
+	 * Returns an immutable copy of a view, for example to hand the view a
+	 * {@link Player} is given to other threads
+	 *
+	 * @param view the view; not null
+	 * @return the view itself if it is immutable, the latest published
+	 *         snapshot if it is a {@link ScotlandYardModel}, a copy otherwise;
+	 *         never null
+	 */
+	public static ImmutableView of(ScotlandYardView view) {
+		if (view instanceof ImmutableView) return (ImmutableView) view;
+		if (view instanceof ScotlandYardModel) return ((ScotlandYardModel) view).snapshot();
+		return new ImmutableView(GameSnapshot.fromView(view), view.getGraph(),
+				view.isGameOver() ? view.getWinningPlayers() : Collections.emptySet());
+	}
+
+	// the view of a later state of the same game, sharing what did not change
+	ImmutableView next(int currentRound, int currentPlayer, int[] locations, int[][] tickets,
+			int mrXLastLocation, Set<Colour> winningPlayers) {
+		return new ImmutableView(
+				snapshot.next(currentRound, currentPlayer, locations, tickets, mrXLastLocation),
+				graph, rounds, players, winningPlayers);
+	}
+
+	GameSnapshot snapshot() {
+		return snapshot;
+	}
+
+	@Override
+	public List<Colour> getPlayers() {
+		return players;
+	}
+
+	@Override
+	public Set<Colour> getWinningPlayers() {
+		return winningPlayers;
+	}
+
+	@Override
+	public int getPlayerLocation(Colour colour) {
+		if (colour.isMrX()) return snapshot.mrXLastLocation();
+		return snapshot.location(colour);
+	}
+
+	@Override
+	public int getPlayerTickets(Colour colour, Ticket ticket) {
+		return snapshot.tickets(colour, ticket);
+	}
+
+	@Override
+	public boolean isGameOver() {
+		return !winningPlayers.isEmpty();
+	}
+
+	@Override
+	public Colour getCurrentPlayer() {
+		return snapshot.currentPlayer();
+	}
+
+	@Override
+	public int getCurrentRound() {
+		return snapshot.currentRound();
+	}
+
+	@Override
+	public boolean isRevealRound() {
+		int round = snapshot.currentRound();
+		return round < rounds.size() && rounds.get(round);
+	}
+
+	@Override
+	public List<Boolean> getRounds() {
+		return rounds;
+	}
+
+	@Override
+	public Graph<Integer, Transport> getGraph() {
+		return graph;
+	}
+
+}
@@ -0,0 +1,316 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * The joint moves of the detectives that are still to move in the current
+ * rotation, generated lazily.
+ *
+ * <br>
+ * A joint move holds one move per detective, in play order. Detectives move one
+ * after another, so a detective cannot move to a location that an earlier
+ * detective of the joint move moved to, nor to the location of a detective that
+ * has not moved yet. A detective left with no valid move passes. The moves are
+ * the ones the model would offer each detective in turn, except that the
+ * enumeration does not stop at a capture of Mr.X.
+ *
+ * <br>
+ * By default moves of a detective to the same location are treated as
+ * duplicates, only the one using the ticket the detective holds most of is
+ * kept. Joint moves are enumerated depth first without building the product
+ * of all moves, and {@link #sample(Random)} draws them in random order without
+ * replacement.
+ */
+public final class JointDetectiveMoves implements Iterable<List<Move>> {
+
+	private static final Ticket[] TICKETS = Ticket.values();
+	private static final int PASS = -1;
+
+	private final GraphIndex index;
+	private final Colour[] colours;
+	private final int[] locations;
+	// the moves of each detective before conflicts with earlier detectives
+	private final int[][] destinations;
+	private final int[][] tickets;
+	private final long upperBound;
+
+	/**
+	 * Creates the joint moves of the current and every later detective of the
+	 * rotation, or of every detective if Mr.X is to move. Moves to the same
+	 * location count as one.
+	 *
+	 * @param view the view of the game; not null
+	 */
+	public JointDetectiveMoves(ScotlandYardView view) {
+		this(view, false);
+	}
+
+	/**
+	 * @param view the view of the game; not null
+	 * @param everyTicket true to keep moves to the same location that use
+	 *        different tickets
+	 */
+	public JointDetectiveMoves(ScotlandYardView view, boolean everyTicket) {
+		this.index = GraphIndex.of(view.getGraph());
+		List<Colour> players = view.getPlayers();
+		int first = Math.max(1, players.indexOf(view.getCurrentPlayer()));
+		this.colours = players.subList(first, players.size()).toArray(new Colour[0]);
+		this.locations = new int[colours.length];
+		for (int i = 0; i < colours.length; i++)
+			locations[i] = index.indexOf(view.getPlayerLocation(colours[i]));
+		// detectives that already moved this rotation stay where they are
+		int[] settled = new int[first - 1];
+		for (int i = 1; i < first; i++)
+			settled[i - 1] = index.indexOf(view.getPlayerLocation(players.get(i)));
+
+		this.destinations = new int[colours.length][];
+		this.tickets = new int[colours.length][];
+		long bound = 1;
+		for (int i = 0; i < colours.length; i++) {
+			candidates(view, i, settled, everyTicket);
+			bound = Math.multiplyExact(bound, Math.max(1, destinations[i].length));
+		}
+		this.upperBound = bound;
+	}
+
+	private void candidates(ScotlandYardView view, int detective, int[] settled,
+			boolean everyTicket) {
+		int from = locations[detective];
+		int[] counts = new int[TICKETS.length];
+		for (Ticket ticket : TICKETS)
+			counts[ticket.ordinal()] = view.getPlayerTickets(colours[detective], ticket);
+		int[] destinations = new int[from < 0 ? 0 : index.degree(from) * TICKETS.length];
+		int[] tickets = new int[destinations.length];
+		int count = 0;
+		for (int slot = from < 0 ? 0 : index.start(from); from >= 0 && slot < index.end(from);
+				slot++) {
+			int to = index.neighbour(slot);
+			if (contains(settled, to) || contains(locations, detective + 1, to)) continue;
+			int best = -1;
+			for (Ticket ticket : TICKETS) {
+				if (counts[ticket.ordinal()] == 0 || !index.accepts(slot, ticket)) continue;
+				if (everyTicket) {
+					destinations[count] = to;
+					tickets[count++] = ticket.ordinal();
+				} else if (best < 0 || counts[ticket.ordinal()] > counts[best]) {
+					best = ticket.ordinal();
+				}
+			}
+			if (best >= 0) {
+				destinations[count] = to;
+				tickets[count++] = best;
+			}
+		}
+		this.destinations[detective] = Arrays.copyOf(destinations, count);
+		this.tickets[detective] = Arrays.copyOf(tickets, count);
+	}
+
+	private static boolean contains(int[] nodes, int node) {
+		return contains(nodes, 0, node);
+	}
+
+	private static boolean contains(int[] nodes, int from, int node) {
+		for (int i = from; i < nodes.length; i++) {
+			if (nodes[i] == node) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the colours of the moving detectives, in play order; never null
+	 */
+	public List<Colour> detectives() {
+		return Collections.unmodifiableList(Arrays.asList(colours.clone()));
+	}
+
+	/**
+	 * @return the product of the number of moves of each detective, at least
+	 *         the number of joint moves
+	 */
+	public long upperBound() {
+		return upperBound;
+	}
+
+	/**
+	 * @return the joint moves in depth first order, each an unmodifiable list
+	 *         with one move per detective; never null
+	 */
+	@Override
+	public Iterator<List<Move>> iterator() {
+		return new Enumeration();
+	}
+
+	/**
+	 * Draws every joint move once, in uniformly random order. Each draw picks a
+	 * slot of the product of all moves and skips slots that break the
+	 * occupancy rules, so drawing costs time proportional to the number of
+	 * detectives as long as conflicts are rare.
+	 *
+	 * @param random the source of randomness; not null
+	 * @return the joint moves in random order; never null
+	 */
+	public Iterator<List<Move>> sample(Random random) {
+		return new Sample(Objects.requireNonNull(random));
+	}
+
+	private List<Move> joint(int[] choices) {
+		List<Move> moves = new ArrayList<>(colours.length);
+		for (int i = 0; i < colours.length; i++) {
+			moves.add(choices[i] == PASS ? Moves.pass(colours[i])
+					: Moves.ticket(colours[i], TICKETS[tickets[i][choices[i]]],
+							index.id(destinations[i][choices[i]])));
+		}
+		return Collections.unmodifiableList(moves);
+	}
+
+	// where the detective ends up, a passing detective stays put
+	private int destination(int detective, int choice) {
+		return choice == PASS ? locations[detective] : destinations[detective][choice];
+	}
+
+	private boolean taken(int[] choices, int detective, int node) {
+		for (int i = 0; i < detective; i++) {
+			if (destination(i, choices[i]) == node) return true;
+		}
+		return false;
+	}
+
+	private boolean canMove(int[] choices, int detective) {
+		for (int to : destinations[detective]) {
+			if (!taken(choices, detective, to)) return true;
+		}
+		return false;
+	}
+
+	// an odometer over the moves of each detective, left to right
+	private class Enumeration implements Iterator<List<Move>> {
+
+		private final int[] choices = new int[colours.length];
+		private boolean ready;
+		private boolean done;
+
+		// there is always at least one joint move, if need be every detective passes
+		Enumeration() {
+			descend(0);
+			ready = true;
+		}
+
+		// picks the first valid move of every detective from the level on
+		private void descend(int level) {
+			for (int i = level; i < colours.length; i++)
+				choices[i] = nextMove(i, 0);
+		}
+
+		private int nextMove(int detective, int from) {
+			for (int choice = from; choice < destinations[detective].length; choice++) {
+				if (!taken(choices, detective, destinations[detective][choice])) return choice;
+			}
+			return PASS;
+		}
+
+		private void advance() {
+			for (int level = colours.length - 1; level >= 0; level--) {
+				if (choices[level] == PASS) continue;
+				int next = nextMove(level, choices[level] + 1);
+				if (next != PASS) {
+					choices[level] = next;
+					descend(level + 1);
+					return;
+				}
+			}
+			done = true;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (!ready) {
+				advance();
+				ready = true;
+			}
+			return !done;
+		}
+
+		@Override
+		public List<Move> next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			ready = false;
+			return joint(choices);
+		}
+
+	}
+
+	// a lazy Fisher-Yates shuffle of the slots of the product, only swapped slots are stored
+	private class Sample implements Iterator<List<Move>> {
+
+		private final Random random;
+		private final Map<Long, Long> swapped = new HashMap<>();
+		private final int[] choices = new int[colours.length];
+		private long drawn;
+		private List<Move> next;
+
+		Sample(Random random) {
+			this.random = random;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null && drawn < upperBound) {
+				long pick = drawn + nextLong(upperBound - drawn);
+				Long value = swapped.get(pick);
+				Long current = swapped.remove(drawn);
+				if (pick != drawn) swapped.put(pick, current == null ? drawn : current);
+				drawn++;
+				if (decode(value == null ? pick : value)) next = joint(choices);
+			}
+			return next != null;
+		}
+
+		@Override
+		public List<Move> next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			List<Move> moves = next;
+			next = null;
+			return moves;
+		}
+
+		// every joint move has exactly one slot, a forced pass only the first
+		private boolean decode(long slot) {
+			for (int i = 0; i < colours.length; i++) {
+				int radix = Math.max(1, destinations[i].length);
+				int digit = (int) (slot % radix);
+				slot /= radix;
+				if (!canMove(choices, i)) {
+					if (digit != 0) return false;
+					choices[i] = PASS;
+				} else if (taken(choices, i, destinations[i][digit])) {
+					return false;
+				} else {
+					choices[i] = digit;
+				}
+			}
+			return true;
+		}
+
+		private long nextLong(long bound) {
+			if (bound <= Integer.MAX_VALUE) return random.nextInt((int) bound);
+			long bits;
+			long value;
+			do {
+				bits = random.nextLong() >>> 1;
+				value = bits % bound;
+			} while (bits - value + (bound - 1) < 0);
+			return value;
+		}
+
+	}
+
+}
@@ -0,0 +1,419 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.IntUnaryOperator;
+
+import uk.ac.bris.cs.gamekit.graph.Graph;
+
+/**
+ * An immutable set of the valid moves of a player that is computed on demand
+ * from the player's position instead of being materialised up front.
+ *
+ * <br>
+ * Only the distinct single moves are worked out when the set is created, which
+ * takes time proportional to the degree of the player's location. Moves are
+ * read from the {@link GraphIndex} of the graph, whose slots merge parallel
+ * edges, so every (destination, ticket) pair comes up once without checking for
+ * duplicates. Double moves are counted the first time the size is needed, with
+ * {@link ParallelDoubleMoves} once there are enough single moves, and are only
+ * created as {@link Move} objects while iterating. {@link #contains(Object)}
+ * checks a move directly against the position, finding the edge by binary
+ * search. Every move has an index in {@code [0, size)}, single moves first,
+ * which {@link #spliterator()} uses to split the set for parallel streams.
+ *
+ * <br>
+ * The set holds a snapshot of the tickets and occupied locations it was created
+ * with, so it stays consistent while the game moves on.
+ */
+public class LazyMoveSet extends AbstractSet<Move> {
+
+	private static final int CHARACTERISTICS = Spliterator.SIZED | Spliterator.SUBSIZED
+			| Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+
+	private static final Ticket[] TICKETS = { Ticket.Taxi, Ticket.Bus, Ticket.Underground,
+			Ticket.Secret };
+
+	private final GraphIndex index;
+	private final Colour colour;
+	private final int location;
+	private final int[] tickets;
+	private final int[] occupied;
+	private final boolean doubleAllowed;
+	private final int parallelThreshold;
+	private final Hops singles;
+	private volatile int[] offsets;
+
+	/**
+	 * Creates the set of valid moves for a player
+	 *
+	 * @param graph the graph of the game; not null
+	 * @param colour the colour of the player; not null
+	 * @param location the location of the player
+	 * @param tickets ticket counts of the player indexed by
+	 *        {@link Ticket#ordinal()}; not null, copied
+	 * @param occupied locations the player cannot move to; not null, copied
+	 * @param doubleAllowed whether the player may play a double move this turn
+	 */
+	LazyMoveSet(Graph<Integer, Transport> graph, Colour colour, int location, int[] tickets,
+			Collection<Integer> occupied, boolean doubleAllowed) {
+		this(graph, colour, location, tickets, occupied, doubleAllowed, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Creates the set of valid moves for a player, counting the double moves
+	 * with fork/join from a number of single moves on
+	 *
+	 * @param graph the graph of the game; not null
+	 * @param colour the colour of the player; not null
+	 * @param location the location of the player
+	 * @param tickets ticket counts of the player indexed by
+	 *        {@link Ticket#ordinal()}; not null, copied
+	 * @param occupied locations the player cannot move to; not null, copied
+	 * @param doubleAllowed whether the player may play a double move this turn
+	 * @param parallelThreshold the number of single moves from which double
+	 *        moves are counted in parallel
+	 */
+	LazyMoveSet(Graph<Integer, Transport> graph, Colour colour, int location, int[] tickets,
+			Collection<Integer> occupied, boolean doubleAllowed, int parallelThreshold) {
+		this.parallelThreshold = parallelThreshold;
+		this.index = GraphIndex.of(Objects.requireNonNull(graph));
+		this.colour = Objects.requireNonNull(colour);
+		this.location = index.indexOf(location);
+		if (this.location < 0) throw new IllegalArgumentException(location + " is not on the graph");
+		this.tickets = Arrays.copyOf(tickets, Ticket.values().length);
+		this.occupied = new int[occupied.size()];
+		int count = 0;
+		for (int id : occupied)
+			this.occupied[count++] = index.indexOf(id);
+		this.doubleAllowed = doubleAllowed && this.tickets[Ticket.Double.ordinal()] > 0;
+		this.singles = hops(this.location, null);
+	}
+
+	/**
+	 * @return the colour of the player these moves are for
+	 */
+	public Colour colour() {
+		return colour;
+	}
+
+	/**
+	 * @return true if the only valid move is a {@link PassMove}
+	 */
+	public boolean isPass() {
+		return singles.size == 0 && colour.isDetective();
+	}
+
+	/**
+	 * @return a lazy view of the single ticket moves in this set; never null
+	 */
+	public Set<TicketMove> singleMoves() {
+		return new RangeView<>(TicketMove.class, 0, isPass() ? 0 : singles.size);
+	}
+
+	/**
+	 * @return a lazy view of the double moves in this set; never null
+	 */
+	public Set<DoubleMove> doubleMoves() {
+		if (isPass()) return new RangeView<>(DoubleMove.class, 0, 0);
+		return new RangeView<>(DoubleMove.class, singles.size, size());
+	}
+
+	@Override
+	public int size() {
+		if (isPass()) return 1;
+		int[] offsets = offsets();
+		return offsets[offsets.length - 1];
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return singles.size == 0 && colour.isMrX();
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof Move) || ((Move) o).colour() != colour) return false;
+		if (o instanceof PassMove) return isPass();
+		if (o instanceof TicketMove) return isHop(location, null, (TicketMove) o);
+		if (o instanceof DoubleMove) {
+			DoubleMove move = (DoubleMove) o;
+			TicketMove first = move.firstMove();
+			if (!doubleAllowed || first.colour() != colour || move.secondMove().colour() != colour
+					|| !isHop(location, null, first)) return false;
+			return isHop(index.indexOf(first.destination()), first.ticket(), move.secondMove());
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the move at the given index, single moves come before double
+	 * moves
+	 *
+	 * @param index the index, between zero and {@link #size()}
+	 * @return the move; never null
+	 */
+	public Move get(int index) {
+		if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("index " + index);
+		return new Cursor().get(index);
+	}
+
+	@Override
+	public Iterator<Move> iterator() {
+		return new RangeIterator<>(Move.class, 0, size());
+	}
+
+	@Override
+	public Spliterator<Move> spliterator() {
+		return new RangeSpliterator<>(Move.class, 0, size());
+	}
+
+	// whether the move is one of the hops from a node, optionally after using a ticket
+	private boolean isHop(int from, Ticket used, TicketMove move) {
+		Ticket ticket = move.ticket();
+		if (ticket == null || ticket == Ticket.Double || remaining(ticket, used) <= 0) return false;
+		int to = index.indexOf(move.destination());
+		if (to < 0 || isOccupied(to)) return false;
+		int slot = index.slotOf(from, to);
+		return slot >= 0 && index.accepts(slot, ticket);
+	}
+
+	// prefix sums of the number of moves up to each first move, computed once
+	private int[] offsets() {
+		int[] offsets = this.offsets;
+		if (offsets != null) return offsets;
+		int[] seconds = new int[singles.size];
+		IntUnaryOperator expand = i -> hops(singles.nodes[i], singles.tickets[i]).size;
+		if (doubleAllowed && singles.size >= parallelThreshold) {
+			// hops only reads the set, so first moves can be expanded concurrently
+			ForkJoinPool.commonPool().invoke(new ParallelDoubleMoves(expand, seconds));
+		} else if (doubleAllowed) {
+			for (int i = 0; i < singles.size; i++)
+				seconds[i] = expand.applyAsInt(i);
+		}
+		offsets = new int[singles.size + 2];
+		offsets[0] = 0;
+		offsets[1] = singles.size;
+		for (int i = 0; i < singles.size; i++)
+			offsets[i + 2] = offsets[i + 1] + seconds[i];
+		this.offsets = offsets;
+		return offsets;
+	}
+
+	// distinct (ticket, destination) pairs from a node, optionally after using a ticket
+	private Hops hops(int from, Ticket used) {
+		Hops hops = new Hops(index.degree(from) * TICKETS.length);
+		for (int slot = index.start(from); slot < index.end(from); slot++) {
+			int neighbour = index.neighbour(slot);
+			if (isOccupied(neighbour)) continue;
+			for (Ticket ticket : TICKETS) {
+				if (remaining(ticket, used) > 0 && index.accepts(slot, ticket))
+					hops.add(ticket, neighbour, index.id(neighbour));
+			}
+		}
+		return hops;
+	}
+
+	private boolean isOccupied(int node) {
+		for (int other : occupied) {
+			if (other == node) return true;
+		}
+		return false;
+	}
+
+	private int remaining(Ticket ticket, Ticket used) {
+		int count = tickets[ticket.ordinal()];
+		return ticket == used ? count - 1 : count;
+	}
+
+	/**
+	 * The distinct single hops from a location
+	 */
+	private static class Hops {
+
+		final Ticket[] tickets;
+		// the node index and id of each destination
+		final int[] nodes;
+		final int[] destinations;
+		int size;
+
+		Hops(int capacity) {
+			tickets = new Ticket[capacity];
+			nodes = new int[capacity];
+			destinations = new int[capacity];
+		}
+
+		void add(Ticket ticket, int node, int destination) {
+			tickets[size] = ticket;
+			nodes[size] = node;
+			destinations[size] = destination;
+			size++;
+		}
+
+	}
+
+	/**
+	 * Decodes move indices, keeping the second hops of the last first move so
+	 * sequential access only expands each first move once. Not thread safe,
+	 * every iterator and spliterator has its own.
+	 */
+	private class Cursor {
+
+		private int first = -1;
+		private Hops seconds;
+
+		Move get(int index) {
+			if (isPass()) return Moves.pass(colour);
+			if (index < singles.size)
+				return Moves.ticket(colour, singles.tickets[index], singles.destinations[index]);
+			int[] offsets = offsets();
+			if (first < 0 || index < offsets[first + 1] || index >= offsets[first + 2]) {
+				first = upperBound(offsets, index) - 2;
+				seconds = hops(singles.nodes[first], singles.tickets[first]);
+			}
+			int second = index - offsets[first + 1];
+			TicketMove firstMove = Moves.ticket(colour, singles.tickets[first],
+					singles.destinations[first]);
+			return Moves.doubleMove(colour, firstMove, Moves.ticket(colour,
+					seconds.tickets[second], seconds.destinations[second]));
+		}
+
+	}
+
+	// the smallest k > 0 with offsets[k] > index
+	private static int upperBound(int[] offsets, int index) {
+		int low = 1;
+		int high = offsets.length - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (offsets[middle] > index) high = middle;
+			else low = middle + 1;
+		}
+		return low;
+	}
+
+	/**
+	 * Iterates the moves with indices in {@code [from, to)}
+	 */
+	private class RangeIterator<T extends Move> implements Iterator<T> {
+
+		private final Class<T> type;
+		private final Cursor cursor = new Cursor();
+		private final int to;
+		private int index;
+
+		RangeIterator(Class<T> type, int from, int to) {
+			this.type = type;
+			this.index = from;
+			this.to = to;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return index < to;
+		}
+
+		@Override
+		public T next() {
+			if (index >= to) throw new NoSuchElementException();
+			return type.cast(cursor.get(index++));
+		}
+
+	}
+
+	/**
+	 * Splits the moves with indices in {@code [from, to)} in halves
+	 */
+	private class RangeSpliterator<T extends Move> implements Spliterator<T> {
+
+		private final Class<T> type;
+		private final Cursor cursor = new Cursor();
+		private final int to;
+		private int index;
+
+		RangeSpliterator(Class<T> type, int from, int to) {
+			this.type = type;
+			this.index = from;
+			this.to = to;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super T> action) {
+			if (index >= to) return false;
+			action.accept(type.cast(cursor.get(index++)));
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super T> action) {
+			while (index < to)
+				action.accept(type.cast(cursor.get(index++)));
+		}
+
+		@Override
+		public Spliterator<T> trySplit() {
+			int middle = (index + to) >>> 1;
+			if (middle <= index) return null;
+			RangeSpliterator<T> prefix = new RangeSpliterator<>(type, index, middle);
+			index = middle;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return to - index;
+		}
+
+		@Override
+		public int characteristics() {
+			return CHARACTERISTICS;
+		}
+
+	}
+
+	/**
+	 * A lazy subset of the moves with indices in {@code [from, to)}
+	 */
+	private class RangeView<T extends Move> extends AbstractSet<T> {
+
+		private final Class<T> type;
+		private final int from;
+		private final int to;
+
+		RangeView(Class<T> type, int from, int to) {
+			this.type = type;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public int size() {
+			return to - from;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return type.isInstance(o) && LazyMoveSet.this.contains(o);
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+			return new RangeIterator<>(type, from, to);
+		}
+
+		@Override
+		public Spliterator<T> spliterator() {
+			return new RangeSpliterator<>(type, from, to);
+		}
+
+	}
+
+}
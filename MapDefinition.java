@@ -0,0 +1,114 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import uk.ac.bris.cs.gamekit.graph.ImmutableGraph;
+
+/**
+ * An immutable, loaded map that any number of games can share: the graph, the
+ * position of every node on the map image and the round schedule.
+ *
+ * <br>
+ * Definitions are obtained from the {@link MapRegistry}, which loads each
+ * distinct map once per process. Structures derived from the graph, like its
+ * {@link GraphIndex} in the ordering the map was loaded with, are prepared on
+ * first use and then kept with the definition.
+ */
+public final class MapDefinition {
+
+	private final String checksum;
+	private final ImmutableGraph<Integer, Transport> graph;
+	private final Map<Integer, Entry<Integer, Integer>> positions;
+	private final List<Boolean> rounds;
+	private final GraphIndex.Ordering ordering;
+	private volatile GraphIndex index;
+	private volatile GameDefinition game;
+
+	MapDefinition(String checksum, ImmutableGraph<Integer, Transport> graph,
+			Map<Integer, Entry<Integer, Integer>> positions, List<Boolean> rounds,
+			GraphIndex.Ordering ordering) {
+		this.checksum = checksum;
+		this.graph = graph;
+		this.positions = positions;
+		this.rounds = rounds;
+		this.ordering = ordering;
+	}
+
+	/**
+	 * @return the hex encoded SHA-256 checksum of the map's content; never null
+	 */
+	public String checksum() {
+		return checksum;
+	}
+
+	/**
+	 * @return the graph; never null
+	 */
+	public ImmutableGraph<Integer, Transport> graph() {
+		return graph;
+	}
+
+	/**
+	 * @return an unmodifiable map from node to its x and y position on the map
+	 *         image; empty if the map has no positions, never null
+	 */
+	public Map<Integer, Entry<Integer, Integer>> positions() {
+		return positions;
+	}
+
+	/**
+	 * @return the unmodifiable round schedule, true for reveal rounds; never
+	 *         null
+	 */
+	public List<Boolean> rounds() {
+		return rounds;
+	}
+
+	/**
+	 * @return the ordering the map was loaded with; never null
+	 */
+	public GraphIndex.Ordering ordering() {
+		return ordering;
+	}
+
+	/**
+	 * @return the index of the graph in the ordering of the map, built on the
+	 *         first call; never null
+	 */
+	public GraphIndex index() {
+		GraphIndex index = this.index;
+		if (index == null) {
+			// racing threads build equal indices, any of them may be kept
+			index = GraphIndex.of(graph, ordering);
+			this.index = index;
+		}
+		return index;
+	}
+
+	/**
+	 * @return the definition of games on the map with its round schedule,
+	 *         created on the first call; never null
+	 */
+	public GameDefinition game() {
+		GameDefinition game = this.game;
+		if (game == null) {
+			// states are only equal for the same definition, so exactly one is created
+			synchronized (this) {
+				game = this.game;
+				if (game == null) {
+					game = new GameDefinition(rounds, graph, ordering);
+					this.game = game;
+				}
+			}
+		}
+		return game;
+	}
+
+	@Override
+	public String toString() {
+		return "MapDefinition{" + checksum + ", " + rounds.size() + " rounds, " + ordering + "}";
+	}
+
+}
@@ -0,0 +1,233 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * A process wide registry of {@link MapDefinition}s.
+ *
+ * <br>
+ * Each map is parsed once and then shared by every game that plays on it.
+ * Definitions are keyed by a checksum of their content, so loading the same
+ * map again, from the same or from a different source, returns the definition
+ * that is already registered. Classpath resources are also remembered by name,
+ * so {@link #standard()} reads {@code graph.txt} and {@code pos.txt} only once.
+ * A map can also be loaded with a {@link GraphIndex.Ordering}, which gives a
+ * definition sharing the graph of the map whose {@link MapDefinition#index()}
+ * numbers the nodes in that ordering; ids stay the same.
+ *
+ * <br>
+ * The registry is safe to use from any number of threads. Registered
+ * definitions are never released.
+ */
+public final class MapRegistry {
+
+	private static final Map<String, MapDefinition> BY_CHECKSUM = new ConcurrentHashMap<>();
+	private static final Map<String, MapDefinition> BY_RESOURCE = new ConcurrentHashMap<>();
+	private static final Map<String, MapDefinition> BY_ORDERING = new ConcurrentHashMap<>();
+
+	private MapRegistry() {
+		// nope
+	}
+
+	/**
+	 * @return the standard Scotland Yard map with {@link StandardGame#ROUNDS},
+	 *         positions include {@link StandardGame#MAP_OFFSET}; never null
+	 * @throws IOException if the map resources cannot be read
+	 */
+	public static MapDefinition standard() throws IOException {
+		return resource("graph.txt", "pos.txt", StandardGame.MAP_OFFSET, StandardGame.ROUNDS);
+	}
+
+	/**
+	 * Loads a map from classpath resources, or returns it if it was loaded
+	 * before under the same names and rounds
+	 *
+	 * @param graph the name of the graph resource, in the format of
+	 *        {@link ScotlandYardGraphReader}; not null
+	 * @param positions the name of the position resource, one
+	 *        {@code node x y} line per node; not null
+	 * @param offset added to every coordinate of the positions
+	 * @param rounds the round schedule; not null
+	 * @return the definition; never null
+	 * @throws IOException if a resource cannot be read
+	 */
+	public static MapDefinition resource(String graph, String positions, int offset,
+			List<Boolean> rounds) throws IOException {
+		String key = graph + '\0' + positions + '\0' + offset + '\0' + rounds;
+		MapDefinition definition = BY_RESOURCE.get(key);
+		if (definition != null) return definition;
+		try {
+			return BY_RESOURCE.computeIfAbsent(key, k -> {
+				try {
+					return load(readLines(graph), readLines(positions), offset, rounds);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Loads a map like {@link #resource(String, String, int, List)}, with its
+	 * nodes indexed in an ordering
+	 *
+	 * @param graph the name of the graph resource; not null
+	 * @param positions the name of the position resource; not null
+	 * @param offset added to every coordinate of the positions
+	 * @param rounds the round schedule; not null
+	 * @param ordering the ordering of the nodes; not null
+	 * @return the definition; never null
+	 * @throws IOException if a resource cannot be read
+	 */
+	public static MapDefinition resource(String graph, String positions, int offset,
+			List<Boolean> rounds, GraphIndex.Ordering ordering) throws IOException {
+		Objects.requireNonNull(ordering);
+		return ordered(resource(graph, positions, offset, rounds), ordering);
+	}
+
+	/**
+	 * Parses a map, or returns the registered definition with the same content
+	 *
+	 * @param graph the lines of the graph, in the format of
+	 *        {@link ScotlandYardGraphReader}; not null
+	 * @param positions the lines of the positions, one {@code node x y} line per
+	 *        node, others are ignored; not null but may be empty
+	 * @param offset added to every coordinate of the positions
+	 * @param rounds the round schedule; not null
+	 * @return the definition; never null
+	 * @throws IllegalArgumentException if the graph or positions cannot be
+	 *         parsed
+	 */
+	public static MapDefinition load(List<String> graph, List<String> positions, int offset,
+			List<Boolean> rounds) {
+		Objects.requireNonNull(graph);
+		Objects.requireNonNull(positions);
+		List<Boolean> schedule = Collections.unmodifiableList(new ArrayList<>(rounds));
+		String checksum = checksum(graph, positions, offset, schedule);
+		MapDefinition definition = BY_CHECKSUM.get(checksum);
+		if (definition != null) return definition;
+		return BY_CHECKSUM.computeIfAbsent(checksum,
+				k -> new MapDefinition(k, ScotlandYardGraphReader.fromLines(graph),
+						parsePositions(positions, offset), schedule, GraphIndex.Ordering.IDS));
+	}
+
+	/**
+	 * Parses a map like {@link #load(List, List, int, List)}, with its nodes
+	 * indexed in an ordering
+	 *
+	 * @param graph the lines of the graph; not null
+	 * @param positions the lines of the positions; not null but may be empty
+	 * @param offset added to every coordinate of the positions
+	 * @param rounds the round schedule; not null
+	 * @param ordering the ordering of the nodes; not null
+	 * @return the definition; never null
+	 * @throws IllegalArgumentException if the graph or positions cannot be
+	 *         parsed
+	 */
+	public static MapDefinition load(List<String> graph, List<String> positions, int offset,
+			List<Boolean> rounds, GraphIndex.Ordering ordering) {
+		Objects.requireNonNull(ordering);
+		return ordered(load(graph, positions, offset, rounds), ordering);
+	}
+
+	// the definition of the same map in another ordering, sharing its graph
+	private static MapDefinition ordered(MapDefinition definition, GraphIndex.Ordering ordering) {
+		if (ordering == definition.ordering()) return definition;
+		return BY_ORDERING.computeIfAbsent(definition.checksum() + '/' + ordering,
+				k -> new MapDefinition(definition.checksum(), definition.graph(),
+						definition.positions(), definition.rounds(), ordering));
+	}
+
+	/**
+	 * @param checksum a checksum as returned by {@link MapDefinition#checksum()}
+	 * @return the registered definition with the checksum in
+	 *         {@link GraphIndex.Ordering#IDS}, or null if there is none
+	 */
+	public static MapDefinition get(String checksum) {
+		return BY_CHECKSUM.get(Objects.requireNonNull(checksum));
+	}
+
+	private static Map<Integer, Entry<Integer, Integer>> parsePositions(List<String> lines,
+			int offset) {
+		Map<Integer, Entry<Integer, Integer>> map = new HashMap<>();
+		for (String line : lines) {
+			String[] values = line.trim().split("\\s+");
+			if (values.length != 3) continue;
+			try {
+				map.put(Integer.parseInt(values[0]),
+						new SimpleImmutableEntry<>(
+								Integer.parseInt(values[1]) + offset,
+								Integer.parseInt(values[2]) + offset));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Malformed position: " + line, e);
+			}
+		}
+		return Collections.unmodifiableMap(map);
+	}
+
+	private static String checksum(List<String> graph, List<String> positions, int offset,
+			List<Boolean> rounds) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-256
+			throw new AssertionError(e);
+		}
+		// the line counts keep the graph and the positions apart
+		update(digest, graph);
+		update(digest, positions);
+		digest.update((byte) (offset >>> 24));
+		digest.update((byte) (offset >>> 16));
+		digest.update((byte) (offset >>> 8));
+		digest.update((byte) offset);
+		for (boolean round : rounds)
+			digest.update((byte) (round ? 1 : 0));
+		StringBuilder hex = new StringBuilder(64);
+		for (byte b : digest.digest())
+			hex.append(Character.forDigit(b >> 4 & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		return hex.toString();
+	}
+
+	private static void update(MessageDigest digest, List<String> lines) {
+		digest.update(Integer.toString(lines.size()).getBytes(StandardCharsets.UTF_8));
+		for (String line : lines) {
+			digest.update((byte) '\n');
+			digest.update(line.getBytes(StandardCharsets.UTF_8));
+		}
+		digest.update((byte) 0);
+	}
+
+	private static List<String> readLines(String resource) throws IOException {
+		try (InputStream stream = MapRegistry.class
+				.getClassLoader()
+				.getResourceAsStream(resource)) {
+			if (stream == null) throw new IOException("Resource " + resource + " not found");
+			return new BufferedReader(
+					new InputStreamReader(stream, StandardCharsets.UTF_8))
+							.lines()
+							.collect(toList());
+		}
+	}
+
+}
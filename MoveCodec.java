@@ -0,0 +1,81 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes moves as a kind byte followed by the colour, ticket and destination
+ * values as unsigned variable length integers. A ticket move takes three to
+ * four bytes. Decoded moves are the canonical instances of {@link Moves}.
+ */
+final class MoveCodec {
+
+	private static final int PASS = 0;
+	private static final int TICKET = 1;
+	private static final int DOUBLE = 2;
+
+	private static final Colour[] COLOURS = Colour.values();
+	private static final Ticket[] TICKETS = Ticket.values();
+
+	private MoveCodec() {
+		// nope
+	}
+
+	static void write(ByteArrayOutputStream out, Move move) {
+		move.visit(new MoveVisitor() {
+			@Override
+			public void visit(PassMove move) {
+				out.write(PASS);
+				GameSnapshot.writeInt(out, move.colour().ordinal());
+			}
+
+			@Override
+			public void visit(TicketMove move) {
+				out.write(TICKET);
+				GameSnapshot.writeInt(out, move.colour().ordinal());
+				writeTicketMove(out, move);
+			}
+
+			@Override
+			public void visit(DoubleMove move) {
+				out.write(DOUBLE);
+				GameSnapshot.writeInt(out, move.colour().ordinal());
+				writeTicketMove(out, move.firstMove());
+				writeTicketMove(out, move.secondMove());
+			}
+		});
+	}
+
+	static Move read(ByteBuffer buffer) {
+		int kind = buffer.get();
+		Colour colour = colour(GameSnapshot.readInt(buffer));
+		switch (kind) {
+		case PASS:
+			return Moves.pass(colour);
+		case TICKET:
+			return readTicketMove(buffer, colour);
+		case DOUBLE:
+			return Moves.doubleMove(colour, readTicketMove(buffer, colour),
+					readTicketMove(buffer, colour));
+		default:
+			throw new IllegalArgumentException("Unknown move kind " + kind);
+		}
+	}
+
+	private static void writeTicketMove(ByteArrayOutputStream out, TicketMove move) {
+		GameSnapshot.writeInt(out, move.ticket().ordinal());
+		GameSnapshot.writeInt(out, move.destination());
+	}
+
+	private static TicketMove readTicketMove(ByteBuffer buffer, Colour colour) {
+		int ticket = GameSnapshot.readInt(buffer);
+		if (ticket >= TICKETS.length) throw new IllegalArgumentException("Unknown ticket " + ticket);
+		return Moves.ticket(colour, TICKETS[ticket], GameSnapshot.readInt(buffer));
+	}
+
+	private static Colour colour(int ordinal) {
+		if (ordinal >= COLOURS.length) throw new IllegalArgumentException("Unknown colour " + ordinal);
+		return COLOURS[ordinal];
+	}
+
+}
@@ -0,0 +1,107 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+
+import uk.ac.bris.cs.gamekit.graph.Edge;
+import uk.ac.bris.cs.gamekit.graph.Graph;
+
+/**
+ * Checks whether a single move is valid for a player without generating the
+ * player's valid moves. A {@link TicketMove} is checked against the edges of
+ * the player's location, a {@link DoubleMove} as two chained ticket moves with
+ * the first ticket deducted and a {@link PassMove} by proving that no ticket
+ * move exists, so every check takes time proportional to the degree of the
+ * locations involved.
+ *
+ * <br>
+ * The rules are the same as the ones used to build the valid moves in
+ * {@link ScotlandYardModel}.
+ */
+class MoveValidator implements MoveVisitor {
+
+	private final Graph<Integer, Transport> graph;
+	private final Colour colour;
+	private final int location;
+	private final int[] tickets;
+	private final Collection<Integer> occupied;
+	private final boolean doubleAllowed;
+	private boolean valid;
+
+	/**
+	 * Creates a validator for a player's position
+	 *
+	 * @param graph the graph of the game; not null
+	 * @param colour the colour of the player; not null
+	 * @param location the location of the player
+	 * @param tickets ticket counts of the player indexed by
+	 *        {@link Ticket#ordinal()}; not null
+	 * @param occupied locations the player cannot move to; not null
+	 * @param doubleAllowed whether the round limit allows a double move
+	 */
+	MoveValidator(Graph<Integer, Transport> graph, Colour colour, int location, int[] tickets,
+			Collection<Integer> occupied, boolean doubleAllowed) {
+		this.graph = Objects.requireNonNull(graph);
+		this.colour = Objects.requireNonNull(colour);
+		this.location = location;
+		this.tickets = Arrays.copyOf(tickets, Ticket.values().length);
+		this.occupied = Objects.requireNonNull(occupied);
+		this.doubleAllowed = doubleAllowed;
+	}
+
+	/**
+	 * @param move the move to check; not null
+	 * @return true if the move is one of the player's valid moves
+	 */
+	boolean isValid(Move move) {
+		valid = false;
+		if (Objects.requireNonNull(move).colour() == colour) move.visit(this);
+		return valid;
+	}
+
+	/**
+	 * @return true if the player has at least one valid ticket move
+	 */
+	boolean hasTicketMove() {
+		boolean secret = tickets[Ticket.Secret.ordinal()] > 0;
+		for (Edge<Integer, Transport> edge : graph.getEdgesFrom(graph.getNode(location))) {
+			if (occupied.contains(edge.destination().value())) continue;
+			if (secret || tickets[Ticket.fromTransport(edge.data()).ordinal()] > 0) return true;
+		}
+		return false;
+	}
+
+	@Override
+	public void visit(PassMove move) {
+		valid = colour.isDetective() && !hasTicketMove();
+	}
+
+	@Override
+	public void visit(TicketMove move) {
+		valid = canMove(location, move, null);
+	}
+
+	@Override
+	public void visit(DoubleMove move) {
+		TicketMove first = move.firstMove();
+		TicketMove second = move.secondMove();
+		valid = doubleAllowed && tickets[Ticket.Double.ordinal()] > 0
+				&& first.colour() == colour && second.colour() == colour
+				&& canMove(location, first, null)
+				&& canMove(first.destination(), second, first.ticket());
+	}
+
+	private boolean canMove(int from, TicketMove move, Ticket used) {
+		Ticket ticket = move.ticket();
+		int count = tickets[ticket.ordinal()] - (ticket == used ? 1 : 0);
+		if (count <= 0 || occupied.contains(move.destination())) return false;
+		for (Edge<Integer, Transport> edge : graph.getEdgesFrom(graph.getNode(from))) {
+			if (edge.destination().value() != move.destination()) continue;
+			// a secret ticket can be used on any edge, boats only take secret tickets
+			if (ticket == Ticket.Secret || Ticket.fromTransport(edge.data()) == ticket) return true;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,122 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A process wide table of canonical, immutable {@link Move} instances.
+ *
+ * <br>
+ * Ticket moves are indexed by (colour, ticket, destination) in lazily created
+ * chunks of an array, so asking for the same ticket or pass move twice returns
+ * the same instance. Moves obtained here compare by identity before falling
+ * back to value equality. Double moves are not interned, as there are far
+ * more of them than ticket moves on large maps and a table of every pair ever
+ * built would only grow; they are created on demand from the canonical ticket
+ * moves, so a double move only costs its own small object. Moves created with
+ * the public constructors are still valid and equal to their canonical
+ * counterparts.
+ */
+public final class Moves {
+
+	private static final int CHUNK_BITS = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int MAX_CHUNKS = 1024;
+	private static final int TICKETS = Ticket.values().length;
+	private static final int ROWS = Colour.values().length * TICKETS;
+
+	private static final AtomicReferenceArray<AtomicReferenceArray<TicketMove>> TICKET_MOVES =
+			new AtomicReferenceArray<>(ROWS * MAX_CHUNKS);
+	private static final PassMove[] PASS_MOVES = new PassMove[Colour.values().length];
+
+	static {
+		for (Colour colour : Colour.values())
+			PASS_MOVES[colour.ordinal()] = new PassMove(colour);
+	}
+
+	private Moves() {
+		// nope
+	}
+
+	/**
+	 * @param colour the colour of the player; not null
+	 * @return the canonical pass move of the player; never null
+	 */
+	public static PassMove pass(Colour colour) {
+		return PASS_MOVES[colour.ordinal()];
+	}
+
+	/**
+	 * @param colour the colour of the player; not null
+	 * @param ticket the ticket of the move; not null
+	 * @param destination the destination of the move
+	 * @return the canonical ticket move; never null
+	 */
+	public static TicketMove ticket(Colour colour, Ticket ticket, int destination) {
+		int row = colour.ordinal() * TICKETS + ticket.ordinal();
+		int chunkIndex = destination >>> CHUNK_BITS;
+		// destinations outside the table are rare enough to not be worth interning
+		if (destination < 0 || chunkIndex >= MAX_CHUNKS)
+			return new TicketMove(colour, ticket, destination);
+		int slot = row * MAX_CHUNKS + chunkIndex;
+		AtomicReferenceArray<TicketMove> chunk = TICKET_MOVES.get(slot);
+		if (chunk == null) {
+			TICKET_MOVES.compareAndSet(slot, null, new AtomicReferenceArray<>(CHUNK_SIZE));
+			chunk = TICKET_MOVES.get(slot);
+		}
+		int offset = destination & (CHUNK_SIZE - 1);
+		TicketMove move = chunk.get(offset);
+		if (move != null) return move;
+		chunk.compareAndSet(offset, null, new TicketMove(colour, ticket, destination));
+		return chunk.get(offset);
+	}
+
+	/**
+	 * @param colour the colour of the player; not null
+	 * @param first the first ticket of the move; not null
+	 * @param firstDestination the first destination of the move
+	 * @param second the second ticket of the move; not null
+	 * @param secondDestination the second destination of the move
+	 * @return the double move, made of canonical ticket moves; never null
+	 */
+	public static DoubleMove doubleMove(Colour colour, Ticket first, int firstDestination,
+			Ticket second, int secondDestination) {
+		return doubleMove(colour, ticket(colour, first, firstDestination),
+				ticket(colour, second, secondDestination));
+	}
+
+	/**
+	 * @param colour the colour of the player; not null
+	 * @param firstMove the first ticket move; not null
+	 * @param secondMove the second ticket move; not null
+	 * @return the double move, made of canonical ticket moves; never null
+	 */
+	public static DoubleMove doubleMove(Colour colour, TicketMove firstMove,
+			TicketMove secondMove) {
+		return new DoubleMove(colour, canonical(firstMove), canonical(secondMove));
+	}
+
+	/**
+	 * Returns the canonical instance of a move, or for a double move an equal
+	 * one made of canonical ticket moves
+	 *
+	 * @param move the move; not null
+	 * @param <T> the type of the move
+	 * @return the canonical move equal to the given move; never null
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends Move> T canonical(T move) {
+		Objects.requireNonNull(move);
+		if (move.getClass() == TicketMove.class) {
+			TicketMove ticketMove = (TicketMove) move;
+			return (T) ticket(move.colour(), ticketMove.ticket(), ticketMove.destination());
+		}
+		if (move.getClass() == DoubleMove.class) {
+			DoubleMove doubleMove = (DoubleMove) move;
+			return (T) doubleMove(move.colour(), doubleMove.firstMove(), doubleMove.secondMove());
+		}
+		if (move.getClass() == PassMove.class) return (T) pass(move.colour());
+		return move;
+	}
+
+}
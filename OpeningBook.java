@@ -0,0 +1,156 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A table of precomputed opening moves, read from a memory mapped file written
+ * by {@link OpeningBookBuilder}.
+ *
+ * <br>
+ * Positions are keyed by the round, the location of the player to move, whether
+ * that player is Mr.X, Mr.X's location when he is the one to move and the set
+ * of detective locations. Keys are 64 bit hashes of these values, stored in an
+ * open addressing table next to the move they map to, so a lookup hashes the
+ * position and probes a few slots of the file. Instances are immutable and safe
+ * to share between threads.
+ */
+public final class OpeningBook {
+
+	static final int MAGIC = 0x5359424b;
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 16;
+	static final long EMPTY = 0;
+
+	private final LongBuffer keys;
+	private final IntBuffer values;
+	private final int mask;
+	private final int size;
+
+	private OpeningBook(ByteBuffer buffer) {
+		if (buffer.getInt(0) != MAGIC) throw new IllegalArgumentException("Not an opening book");
+		if (buffer.getInt(4) != VERSION)
+			throw new IllegalArgumentException("Unsupported opening book version " + buffer.getInt(4));
+		int capacity = buffer.getInt(8);
+		if (Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException("Corrupt opening book");
+		if (HEADER_BYTES + capacity * 12L > buffer.capacity())
+			throw new IllegalArgumentException("Truncated opening book");
+		this.size = buffer.getInt(12);
+		this.mask = capacity - 1;
+		buffer.position(HEADER_BYTES);
+		this.keys = buffer.slice().asLongBuffer();
+		buffer.position(HEADER_BYTES + capacity * 8);
+		this.values = buffer.slice().asIntBuffer();
+	}
+
+	/**
+	 * Maps an opening book file into memory
+	 *
+	 * @param file the file; not null
+	 * @return the book; never null
+	 * @throws IOException if the file cannot be read
+	 */
+	public static OpeningBook open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return new OpeningBook(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * @return the number of positions in the book
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Looks up the book move of the player to move
+	 *
+	 * @param view the view of the game; not null
+	 * @param location the location of the player to move
+	 * @param moves the valid moves of the player; not null
+	 * @return the book move if the position is in the book and the move is one
+	 *         of the valid moves, null otherwise; always null for a detective
+	 *         once Mr.X has revealed himself, as the book was computed without
+	 *         knowing where he is
+	 */
+	public Move lookup(ScotlandYardView view, int location, Set<Move> moves) {
+		Colour colour = view.getCurrentPlayer();
+		if (colour.isDetective() && revealed(view)) return null;
+		List<Colour> players = view.getPlayers();
+		int[] detectives = new int[players.size() - 1];
+		int count = 0;
+		for (Colour player : players) {
+			if (player.isDetective()) detectives[count++] = view.getPlayerLocation(player);
+		}
+		long key = colour.isMrX()
+				? mrXKey(view.getCurrentRound(), location, Arrays.copyOf(detectives, count))
+				: detectiveKey(view.getCurrentRound(), location, Arrays.copyOf(detectives, count));
+		int value = get(key);
+		if (value < 0) return null;
+		TicketMove move = Moves.ticket(colour, Ticket.values()[value & 0xff], value >>> 8);
+		if (moves.contains(move)) return move;
+		// the same destination with another ticket, e.g. a secret ticket
+		for (Move valid : moves) {
+			if (valid instanceof TicketMove && ((TicketMove) valid).destination() == move.destination())
+				return valid;
+		}
+		return null;
+	}
+
+	private static boolean revealed(ScotlandYardView view) {
+		List<Boolean> rounds = view.getRounds();
+		for (int round = 0; round < view.getCurrentRound() && round < rounds.size(); round++) {
+			if (rounds.get(round)) return true;
+		}
+		return false;
+	}
+
+	// the packed move of a key, -1 if the key is not in the book
+	int get(long key) {
+		for (int slot = (int) key & mask;; slot = (slot + 1) & mask) {
+			long stored = keys.get(slot);
+			if (stored == key) return values.get(slot);
+			if (stored == EMPTY) return -1;
+		}
+	}
+
+	static int pack(Ticket ticket, int destination) {
+		return destination << 8 | ticket.ordinal();
+	}
+
+	static long mrXKey(int round, int mrX, int[] detectives) {
+		return key(1, round, mrX, detectives);
+	}
+
+	static long detectiveKey(int round, int location, int[] detectives) {
+		return key(2, round, location, detectives);
+	}
+
+	// the detective locations are hashed as a set, the order of play does not matter
+	private static long key(int role, int round, int location, int[] detectives) {
+		int[] sorted = detectives.clone();
+		Arrays.sort(sorted);
+		long hash = role;
+		hash = hash * 0x9E3779B97F4A7C15L + round;
+		hash = hash * 0x9E3779B97F4A7C15L + location;
+		for (int detective : sorted)
+			hash = hash * 0x9E3779B97F4A7C15L + detective;
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash == EMPTY ? 1 : hash;
+	}
+
+}
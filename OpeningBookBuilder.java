@@ -0,0 +1,388 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import uk.ac.bris.cs.gamekit.graph.Graph;
+
+/**
+ * Builds an {@link OpeningBook} for the standard start positions of a game.
+ *
+ * <br>
+ * Mr.X's book holds his first move for every combination of start locations.
+ * The move is found by a search of {@link #setSearchDepth(int)} of his moves,
+ * where after each of them every detective steps towards him along a shortest
+ * path. Leaves are scored by the distance to the nearest detective, then by
+ * the number of free neighbours. Being caught later scores better than being
+ * caught sooner.
+ *
+ * <br>
+ * The detectives' book holds their moves for the first
+ * {@link #setDetectiveRounds(int)} rounds, when they do not know where Mr.X is,
+ * and stops before the first round of {@link #setRounds(List)} in which Mr.X
+ * reveals himself. For each round the builder takes the nodes Mr.X can have
+ * reached from his start locations, one hop per move. Each detective moves so
+ * that the detectives together are as close as possible to all of them. These
+ * moves do not depend on Mr.X, so the builder follows them from every ordered
+ * choice of start locations and records each position it meets. Between two
+ * turns of the detectives Mr.X makes one move, or two while he has double
+ * tickets left, so both are followed.
+ *
+ * <br>
+ * All distances are precomputed shortest paths over any transport, and
+ * positions are solved in parallel.
+ */
+public class OpeningBookBuilder {
+
+	private static final int CAUGHT = -1_000_000;
+	private static final int DETECTIVE_TRANSPORTS = (1 << Transport.Taxi.ordinal())
+			| (1 << Transport.Bus.ordinal()) | (1 << Transport.Underground.ordinal());
+
+	private final GraphIndex index;
+	private final int nodes;
+	private final int[] mrXStarts;
+	private final int[] detectiveStarts;
+	private final int detectives;
+	private final short[] distances;
+	private int searchDepth = 3;
+	private int detectiveRounds = 3;
+	private List<Boolean> rounds = StandardGame.ROUNDS;
+
+	/**
+	 * Creates a builder for the standard start locations
+	 * {@link StandardGame#MRX_LOCATIONS} and
+	 * {@link StandardGame#DETECTIVE_LOCATIONS}
+	 *
+	 * @param graph the graph of the game; not null
+	 * @param detectives the number of detectives
+	 */
+	public OpeningBookBuilder(Graph<Integer, Transport> graph, int detectives) {
+		this(graph, StandardGame.MRX_LOCATIONS, StandardGame.DETECTIVE_LOCATIONS, detectives);
+	}
+
+	/**
+	 * @param graph the graph of the game; not null
+	 * @param mrXLocations the start locations of Mr.X; not null
+	 * @param detectiveLocations the start locations of the detectives; not null
+	 * @param detectives the number of detectives
+	 */
+	public OpeningBookBuilder(Graph<Integer, Transport> graph, Collection<Integer> mrXLocations,
+			Collection<Integer> detectiveLocations, int detectives) {
+		this.index = GraphIndex.of(Objects.requireNonNull(graph));
+		this.nodes = index.size();
+		this.mrXStarts = indices(mrXLocations);
+		this.detectiveStarts = indices(detectiveLocations);
+		if (detectives < 1 || detectives > detectiveStarts.length)
+			throw new IllegalArgumentException("Not enough detective locations");
+		this.detectives = detectives;
+		this.distances = distances();
+	}
+
+	/**
+	 * @param searchDepth the number of Mr.X's moves searched for his first
+	 *        move, at least 1
+	 */
+	public void setSearchDepth(int searchDepth) {
+		if (searchDepth < 1) throw new IllegalArgumentException("Depth must be positive");
+		this.searchDepth = searchDepth;
+	}
+
+	/**
+	 * @param detectiveRounds the number of rounds in the detectives' book, at
+	 *        least 0
+	 */
+	public void setDetectiveRounds(int detectiveRounds) {
+		if (detectiveRounds < 0) throw new IllegalArgumentException("Rounds must not be negative");
+		this.detectiveRounds = detectiveRounds;
+	}
+
+	/**
+	 * @param rounds the rounds of the game, true where Mr.X reveals himself;
+	 *        not null, {@link StandardGame#ROUNDS} by default
+	 */
+	public void setRounds(List<Boolean> rounds) {
+		this.rounds = new ArrayList<>(Objects.requireNonNull(rounds));
+	}
+
+	/**
+	 * Searches all opening positions and writes the book
+	 *
+	 * @param file the file to write; not null
+	 * @return the written book, opened from the file; never null
+	 * @throws IOException if the file cannot be written
+	 */
+	public OpeningBook build(Path file) throws IOException {
+		Map<Long, Integer> book = new ConcurrentHashMap<>();
+		List<int[]> combinations = new ArrayList<>();
+		choose(new int[detectives], 0, 0, false, combinations);
+		combinations.parallelStream().forEach(starts -> {
+			for (int mrX : mrXStarts) {
+				if (contains(starts, mrX, starts.length)) continue;
+				int move = mrXMove(mrX, starts);
+				if (move >= 0) book.put(OpeningBook.mrXKey(0, index.id(mrX), ids(starts)), move);
+			}
+		});
+		int blindRounds = blindRounds();
+		if (blindRounds > 0) {
+			int[][] targets = targets(blindRounds);
+			List<int[]> orders = new ArrayList<>();
+			choose(new int[detectives], 0, 0, true, orders);
+			orders.parallelStream().forEach(order -> followDetectives(order.clone(), 0,
+					StandardGame.generateMrXTickets().get(Ticket.Double), targets, book));
+		}
+		book.values().removeIf(move -> move < 0);
+		write(file, book);
+		return OpeningBook.open(file);
+	}
+
+	private int[] indices(Collection<Integer> locations) {
+		return locations.stream().mapToInt(index::indexOf).filter(node -> node >= 0).distinct()
+				.toArray();
+	}
+
+	private int[] ids(int[] nodes) {
+		int[] ids = new int[nodes.length];
+		for (int i = 0; i < nodes.length; i++)
+			ids[i] = index.id(nodes[i]);
+		return ids;
+	}
+
+	// all pairs shortest paths over any transport, one breadth first search per node
+	private short[] distances() {
+		short[] distances = new short[nodes * nodes];
+		Arrays.fill(distances, Short.MAX_VALUE);
+		int[] queue = new int[nodes];
+		for (int from = 0; from < nodes; from++) {
+			int head = 0;
+			int tail = 0;
+			queue[tail++] = from;
+			distances[from * nodes + from] = 0;
+			while (head < tail) {
+				int node = queue[head++];
+				short next = (short) (distances[from * nodes + node] + 1);
+				for (int slot = index.start(node); slot < index.end(node); slot++) {
+					int neighbour = index.neighbour(slot);
+					if (distances[from * nodes + neighbour] != Short.MAX_VALUE) continue;
+					distances[from * nodes + neighbour] = next;
+					queue[tail++] = neighbour;
+				}
+			}
+		}
+		return distances;
+	}
+
+	private int distance(int from, int to) {
+		return distances[from * nodes + to];
+	}
+
+	// combinations, or ordered choices, of detective start locations
+	private void choose(int[] chosen, int size, int first, boolean ordered, List<int[]> into) {
+		if (size == chosen.length) {
+			into.add(chosen.clone());
+			return;
+		}
+		for (int i = ordered ? 0 : first; i < detectiveStarts.length; i++) {
+			if (ordered && contains(chosen, detectiveStarts[i], size)) continue;
+			chosen[size] = detectiveStarts[i];
+			choose(chosen, size + 1, i + 1, ordered, into);
+		}
+	}
+
+	private static boolean contains(int[] nodes, int node, int length) {
+		for (int i = 0; i < length; i++) {
+			if (nodes[i] == node) return true;
+		}
+		return false;
+	}
+
+	private int mrXMove(int mrX, int[] detectives) {
+		int best = -1;
+		int bestScore = Integer.MIN_VALUE;
+		for (int slot = index.start(mrX); slot < index.end(mrX); slot++) {
+			int to = index.neighbour(slot);
+			if (contains(detectives, to, detectives.length)) continue;
+			int score = afterMrX(to, detectives, searchDepth - 1);
+			if (score > bestScore) {
+				bestScore = score;
+				best = slot;
+			}
+		}
+		if (best < 0) return -1;
+		return OpeningBook.pack(mrXTicket(index.transports(best)), index.id(index.neighbour(best)));
+	}
+
+	private int search(int mrX, int[] detectives, int depth) {
+		if (depth == 0) return evaluate(mrX, detectives);
+		// a stuck Mr.X is caught now
+		int best = CAUGHT + searchDepth - depth;
+		for (int slot = index.start(mrX); slot < index.end(mrX); slot++) {
+			int to = index.neighbour(slot);
+			if (!contains(detectives, to, detectives.length))
+				best = Math.max(best, afterMrX(to, detectives, depth - 1));
+		}
+		return best;
+	}
+
+	// the detectives step towards Mr.X one after another
+	private int afterMrX(int mrX, int[] detectives, int depth) {
+		int[] next = detectives.clone();
+		for (int i = 0; i < next.length; i++) {
+			int from = next[i];
+			int best = from;
+			int bestDistance = Integer.MAX_VALUE;
+			for (int slot = index.start(from); slot < index.end(from); slot++) {
+				int to = index.neighbour(slot);
+				if ((index.transports(slot) & DETECTIVE_TRANSPORTS) == 0
+						|| contains(next, to, next.length)) continue;
+				if (distance(to, mrX) < bestDistance) {
+					bestDistance = distance(to, mrX);
+					best = to;
+				}
+			}
+			next[i] = best;
+			if (best == mrX) return CAUGHT + searchDepth - depth;
+		}
+		return search(mrX, next, depth);
+	}
+
+	private int evaluate(int mrX, int[] detectives) {
+		int nearest = Short.MAX_VALUE;
+		for (int detective : detectives)
+			nearest = Math.min(nearest, distance(detective, mrX));
+		int free = 0;
+		for (int slot = index.start(mrX); slot < index.end(mrX); slot++) {
+			if (!contains(detectives, index.neighbour(slot), detectives.length)) free++;
+		}
+		return nearest * 64 + free;
+	}
+
+	// the last round of the book, before Mr.X's first reveal
+	private int blindRounds() {
+		int blindRounds = Math.min(detectiveRounds, rounds.size());
+		for (int round = 1; round <= blindRounds; round++) {
+			if (rounds.get(round - 1)) return round - 1;
+		}
+		return blindRounds;
+	}
+
+	// the nodes Mr.X can have reached after each of his first moves
+	private int[][] targets(int blindRounds) {
+		int[][] targets = new int[blindRounds + 1][];
+		boolean[] reached = new boolean[nodes];
+		for (int node : mrXStarts)
+			reached[node] = true;
+		for (int round = 1; round <= blindRounds; round++) {
+			boolean[] next = new boolean[nodes];
+			for (int node = 0; node < nodes; node++) {
+				if (!reached[node]) continue;
+				for (int slot = index.start(node); slot < index.end(node); slot++)
+					next[index.neighbour(slot)] = true;
+			}
+			reached = next;
+			int count = 0;
+			int[] reachable = new int[nodes];
+			for (int node = 0; node < nodes; node++) {
+				if (reached[node]) reachable[count++] = node;
+			}
+			targets[round] = Arrays.copyOf(reachable, count);
+		}
+		return targets;
+	}
+
+	// a single move of Mr.X takes the detectives to the next round, a double move past it
+	private void followDetectives(int[] locations, int round, int doubles, int[][] targets,
+			Map<Long, Integer> book) {
+		for (int moves = 1; moves <= (doubles > 0 ? 2 : 1); moves++) {
+			int next = round + moves;
+			if (next >= targets.length) return;
+			int[] reachable = targets[next];
+			int[] moved = locations.clone();
+			for (int i = 0; i < moved.length; i++) {
+				int current = i;
+				long key = OpeningBook.detectiveKey(next, index.id(moved[i]), ids(moved));
+				int move = book.computeIfAbsent(key,
+						absent -> detectiveMove(current, moved, reachable));
+				if (move >= 0) moved[i] = index.indexOf(move >>> 8);
+			}
+			followDetectives(moved, next, doubles - (moves - 1), targets, book);
+		}
+	}
+
+	// the free neighbour that brings the detectives closest to all reachable nodes
+	private int detectiveMove(int detective, int[] locations, int[] reachable) {
+		int[] others = new int[reachable.length];
+		Arrays.fill(others, Short.MAX_VALUE);
+		for (int i = 0; i < locations.length; i++) {
+			if (i == detective) continue;
+			for (int j = 0; j < reachable.length; j++)
+				others[j] = Math.min(others[j], distance(locations[i], reachable[j]));
+		}
+		int from = locations[detective];
+		int best = -1;
+		long bestScore = Long.MAX_VALUE;
+		for (int slot = index.start(from); slot < index.end(from); slot++) {
+			int to = index.neighbour(slot);
+			if ((index.transports(slot) & DETECTIVE_TRANSPORTS) == 0
+					|| contains(locations, to, locations.length)) continue;
+			long score = 0;
+			for (int j = 0; j < reachable.length; j++)
+				score += Math.min(others[j], distance(to, reachable[j]));
+			if (score < bestScore) {
+				bestScore = score;
+				best = slot;
+			}
+		}
+		if (best < 0) return -1;
+		return OpeningBook.pack(detectiveTicket(index.transports(best)),
+				index.id(index.neighbour(best)));
+	}
+
+	// the most plentiful ticket of a standard game that fits
+	private static Ticket detectiveTicket(int transports) {
+		if ((transports & 1 << Transport.Taxi.ordinal()) != 0) return Ticket.Taxi;
+		if ((transports & 1 << Transport.Bus.ordinal()) != 0) return Ticket.Bus;
+		return Ticket.Underground;
+	}
+
+	// secret tickets are kept for later unless only a boat goes there
+	private static Ticket mrXTicket(int transports) {
+		if ((transports & DETECTIVE_TRANSPORTS) != 0) return detectiveTicket(transports);
+		return Ticket.Secret;
+	}
+
+	private static void write(Path file, Map<Long, Integer> book) throws IOException {
+		int capacity = Integer.highestOneBit(Math.max(16, book.size() * 2 - 1)) << 1;
+		long[] keys = new long[capacity];
+		int[] values = new int[capacity];
+		for (Map.Entry<Long, Integer> entry : book.entrySet()) {
+			int slot = (int) (long) entry.getKey() & (capacity - 1);
+			while (keys[slot] != OpeningBook.EMPTY)
+				slot = (slot + 1) & (capacity - 1);
+			keys[slot] = entry.getKey();
+			values[slot] = entry.getValue();
+		}
+		try (OutputStream stream = Files.newOutputStream(file);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+			out.writeInt(OpeningBook.MAGIC);
+			out.writeInt(OpeningBook.VERSION);
+			out.writeInt(capacity);
+			out.writeInt(book.size());
+			for (long key : keys)
+				out.writeLong(key);
+			for (int value : values)
+				out.writeInt(value);
+		}
+	}
+
+}
@@ -0,0 +1,34 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * A {@link Player} that plays book moves from an {@link OpeningBook} and asks
+ * another player once the game leaves the book.
+ */
+public class OpeningBookPlayer implements Player {
+
+	private final OpeningBook book;
+	private final Player fallback;
+
+	/**
+	 * @param book the opening book; not null
+	 * @param fallback the player for positions that are not in the book; not
+	 *        null
+	 */
+	public OpeningBookPlayer(OpeningBook book, Player fallback) {
+		this.book = Objects.requireNonNull(book);
+		this.fallback = Objects.requireNonNull(fallback);
+	}
+
+	@Override
+	public void makeMove(ScotlandYardView view, int location, Set<Move> moves,
+			Consumer<Move> callback) {
+		Move move = book.lookup(view, location, moves);
+		if (move != null) callback.accept(move);
+		else fallback.makeMove(view, location, moves, callback);
+	}
+
+}
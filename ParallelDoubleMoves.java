@@ -0,0 +1,66 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.Objects;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A fork/join task that expands the second hop of Mr.X's double moves. The
+ * first moves are split into ranges and each range is expanded on its own
+ * worker, so the quadratic part of move generation scales across cores on
+ * large, high-degree maps.
+ *
+ * <br>
+ * The task stores the number of second hops of every first move, which is what
+ * {@link LazyMoveSet} needs to number its double moves; the moves themselves
+ * are still only created while iterating. The expansion of a first move must
+ * not mutate shared state, which makes the result identical to the sequential
+ * expansion.
+ */
+class ParallelDoubleMoves extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Number of first moves below which a range is expanded on the current
+	 * thread instead of being split further
+	 */
+	static final int GRANULARITY = 8;
+
+	private final IntUnaryOperator expand;
+	private final int[] seconds;
+	private final int from;
+	private final int to;
+
+	/**
+	 * Creates a task that expands all first moves
+	 *
+	 * @param expand the number of second hops of the first move with the given
+	 *        index; not null, called from several threads
+	 * @param seconds receives the number of second hops of each first move; not
+	 *        null, one entry per first move
+	 */
+	ParallelDoubleMoves(IntUnaryOperator expand, int[] seconds) {
+		this(Objects.requireNonNull(expand), Objects.requireNonNull(seconds), 0, seconds.length);
+	}
+
+	private ParallelDoubleMoves(IntUnaryOperator expand, int[] seconds, int from, int to) {
+		this.expand = expand;
+		this.seconds = seconds;
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	protected void compute() {
+		if (to - from <= GRANULARITY) {
+			for (int i = from; i < to; i++)
+				seconds[i] = expand.applyAsInt(i);
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		invokeAll(new ParallelDoubleMoves(expand, seconds, from, middle),
+				new ParallelDoubleMoves(expand, seconds, middle, to));
+	}
+
+}
@@ -3,7 +3,8 @@ package uk.ac.bris.cs.scotlandyard.model;
 import java.util.Objects;
 
 /**
- * Represents a pass move in the Scotland Yard game
+ * Represents a pass move in the Scotland Yard game, see {@link Moves} for
+ * canonical instances
  */
 public class PassMove extends Move {
 
@@ -0,0 +1,350 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import uk.ac.bris.cs.gamekit.graph.Graph;
+
+/**
+ * Plays many independent games with uniformly random moves, in lockstep, for
+ * search players that estimate positions by random playouts.
+ *
+ * <br>
+ * The engine holds no {@link ScotlandYardModel}s, players or move objects. The
+ * state of every game lives in flat primitive arrays with one entry per game,
+ * {@code location[player * games + game]} and
+ * {@code tickets[(player * TICKETS + ticket) * games + game]}, and the
+ * detectives' locations are also kept as one bit set per game. Each
+ * {@link #step()} moves the current player of every running game once. A move
+ * is drawn uniformly from the player's valid single moves by counting the
+ * tickets usable on each edge of the player's location with bit operations,
+ * then walking the edges again to the drawn one.
+ *
+ * <br>
+ * The rules are those of the model, simplified for speed: Mr.X plays no double
+ * moves, the detectives win when one of them lands on Mr.X or when Mr.X cannot
+ * move, and Mr.X wins when the last round is complete or when every detective
+ * passed in a rotation. Tickets used by detectives are given to Mr.X.
+ *
+ * <br>
+ * An engine is not thread safe; use one engine per thread.
+ */
+public final class PlayoutEngine {
+
+	/**
+	 * Result of a game that is still running
+	 */
+	public static final int RUNNING = 0;
+
+	/**
+	 * Result of a game won by Mr.X
+	 */
+	public static final int MR_X_WINS = 1;
+
+	/**
+	 * Result of a game won by the detectives
+	 */
+	public static final int DETECTIVES_WIN = 2;
+
+	private static final int TICKETS = Ticket.values().length;
+	// the tickets a single move can use, in ordinal order
+	private static final Ticket[] MOVE_TICKETS = { Ticket.Taxi, Ticket.Bus, Ticket.Underground,
+			Ticket.Secret };
+
+	private final GraphIndex index;
+	private final int[] offsets;
+	private final int[] neighbours;
+	// bit t is set if MOVE_TICKETS[t] can be used on the slot
+	private final byte[] slotTickets;
+	private final int[] ticketOrdinals = new int[MOVE_TICKETS.length];
+
+	private final int rounds;
+	private final int players;
+	private final int games;
+	private final int words;
+
+	private final int[] location;
+	private final int[] tickets;
+	private final long[] occupied;
+	private final int[] round;
+	private final int[] turn;
+	private final int[] passes;
+	private final byte[] result;
+	private final int[] active;
+	private int running;
+
+	private long random;
+	private long moves;
+
+	/**
+	 * Creates an engine with every game finished, load games with
+	 * {@link #load(int, GameSnapshot)}
+	 *
+	 * @param graph the graph of the games; not null
+	 * @param rounds the number of rounds of the games
+	 * @param detectives the number of detectives of each game, at least 1
+	 * @param games the number of games
+	 * @param seed the seed of the random moves
+	 */
+	public PlayoutEngine(Graph<Integer, Transport> graph, int rounds, int detectives, int games,
+			long seed) {
+		this(GraphIndex.of(Objects.requireNonNull(graph)), rounds, detectives, games, seed);
+	}
+
+	/**
+	 * Creates an engine on an index of the graph, e.g. one in an ordering that
+	 * keeps neighbours close, see {@link MapDefinition#index()}
+	 *
+	 * @param index the index of the graph of the games; not null
+	 * @param rounds the number of rounds of the games
+	 * @param detectives the number of detectives of each game, at least 1
+	 * @param games the number of games
+	 * @param seed the seed of the random moves
+	 */
+	public PlayoutEngine(GraphIndex index, int rounds, int detectives, int games, long seed) {
+		this.index = Objects.requireNonNull(index);
+		if (rounds < 1) throw new IllegalArgumentException("rounds must be positive");
+		if (detectives < 1) throw new IllegalArgumentException("At least one detective is required");
+		if (games < 1) throw new IllegalArgumentException("games must be positive");
+		int nodes = index.size();
+		this.offsets = new int[nodes + 1];
+		for (int node = 0; node < nodes; node++)
+			offsets[node + 1] = index.end(node);
+		this.neighbours = new int[offsets[nodes]];
+		this.slotTickets = new byte[offsets[nodes]];
+		for (int slot = 0; slot < neighbours.length; slot++) {
+			neighbours[slot] = index.neighbour(slot);
+			for (int ticket = 0; ticket < MOVE_TICKETS.length; ticket++) {
+				if (index.accepts(slot, MOVE_TICKETS[ticket])) slotTickets[slot] |= 1 << ticket;
+			}
+		}
+		for (int ticket = 0; ticket < MOVE_TICKETS.length; ticket++)
+			ticketOrdinals[ticket] = MOVE_TICKETS[ticket].ordinal();
+
+		this.rounds = rounds;
+		this.players = detectives + 1;
+		this.games = games;
+		this.words = (nodes + 63) >>> 6;
+		this.location = new int[players * games];
+		this.tickets = new int[players * TICKETS * games];
+		this.occupied = new long[games * words];
+		this.round = new int[games];
+		this.turn = new int[games];
+		this.passes = new int[games];
+		this.result = new byte[games];
+		Arrays.fill(result, (byte) MR_X_WINS);
+		this.active = new int[games];
+		// xorshift must not start at zero
+		this.random = seed == 0 ? 0x9e3779b97f4a7c15L : seed;
+	}
+
+	/**
+	 * @return the number of games
+	 */
+	public int games() {
+		return games;
+	}
+
+	/**
+	 * @return the number of games still running
+	 */
+	public int running() {
+		return running;
+	}
+
+	/**
+	 * @return the number of moves made so far in all games, passes included
+	 */
+	public long moves() {
+		return moves;
+	}
+
+	/**
+	 * Loads a game, e.g. the current state of a model or a determinisation of
+	 * a player's view
+	 *
+	 * @param game the game to replace
+	 * @param snapshot the state to load; not null
+	 * @throws IllegalArgumentException if the snapshot has a different number
+	 *         of players or a location that is not on the graph
+	 */
+	public void load(int game, GameSnapshot snapshot) {
+		load(game, snapshot, snapshot.location(Colour.Black));
+	}
+
+	/**
+	 * Loads what a player sees of a game, with a guess of Mr.X's location
+	 *
+	 * @param game the game to replace
+	 * @param view the view of the game; not null
+	 * @param mrXLocation where Mr.X is assumed to be
+	 * @throws IllegalArgumentException if the view has a different number of
+	 *         players or a location that is not on the graph
+	 */
+	public void load(int game, ScotlandYardView view, int mrXLocation) {
+		load(game, GameSnapshot.fromView(view), mrXLocation);
+	}
+
+	private void load(int game, GameSnapshot snapshot, int mrXLocation) {
+		List<Colour> colours = snapshot.players();
+		if (colours.size() != players)
+			throw new IllegalArgumentException("Expected " + players + " players");
+		boolean wasRunning = result[game] == RUNNING;
+		Arrays.fill(occupied, game * words, (game + 1) * words, 0);
+		for (int player = 0; player < players; player++) {
+			Colour colour = colours.get(player);
+			int node = index.indexOf(player == 0 ? mrXLocation : snapshot.location(colour));
+			if (node < 0) throw new IllegalArgumentException(colour + " is not on the graph");
+			location[player * games + game] = node;
+			if (player > 0) occupied[game * words + (node >>> 6)] |= 1L << node;
+			for (Ticket ticket : Ticket.values())
+				tickets[(player * TICKETS + ticket.ordinal()) * games + game] = snapshot
+						.tickets(colour, ticket);
+		}
+		round[game] = snapshot.currentRound();
+		turn[game] = colours.indexOf(snapshot.currentPlayer());
+		passes[game] = 0;
+		result[game] = RUNNING;
+		if (!wasRunning) active[running++] = game;
+	}
+
+	/**
+	 * @param game a game
+	 * @return {@link #RUNNING}, {@link #MR_X_WINS} or {@link #DETECTIVES_WIN}
+	 */
+	public int result(int game) {
+		return result[game];
+	}
+
+	/**
+	 * @param game a game
+	 * @return the number of moves Mr.X made in the game
+	 */
+	public int round(int game) {
+		return round[game];
+	}
+
+	/**
+	 * @param game a game
+	 * @param player the index of a player, 0 for Mr.X
+	 * @return the location of the player
+	 */
+	public int location(int game, int player) {
+		return index.id(location[player * games + game]);
+	}
+
+	/**
+	 * @param game a game
+	 * @param player the index of a player, 0 for Mr.X
+	 * @param ticket the ticket; not null
+	 * @return the number of tickets the player holds
+	 */
+	public int tickets(int game, int player, Ticket ticket) {
+		return tickets[(player * TICKETS + ticket.ordinal()) * games + game];
+	}
+
+	/**
+	 * Plays every running game to its end
+	 */
+	public void run() {
+		while (running > 0)
+			step();
+	}
+
+	/**
+	 * Moves the current player of every running game once
+	 *
+	 * @return the number of games still running
+	 */
+	public int step() {
+		int kept = 0;
+		for (int i = 0; i < running; i++) {
+			int game = active[i];
+			move(game);
+			if (result[game] == RUNNING) active[kept++] = game;
+		}
+		moves += running;
+		running = kept;
+		return running;
+	}
+
+	private void move(int game) {
+		int player = turn[game];
+		int at = location[player * games + game];
+		int have = 0;
+		for (int ticket = 0; ticket < MOVE_TICKETS.length; ticket++) {
+			int count = tickets[(player * TICKETS + ticketOrdinals[ticket]) * games + game];
+			have |= (-count >>> 31) << ticket;
+		}
+		int base = game * words;
+		int end = offsets[at + 1];
+		int total = 0;
+		for (int slot = offsets[at]; slot < end; slot++) {
+			int to = neighbours[slot];
+			int free = (int) ~(occupied[base + (to >>> 6)] >>> to) & 1;
+			total += Integer.bitCount(slotTickets[slot] & have) * free;
+		}
+
+		if (total == 0) {
+			if (player == 0) {
+				result[game] = DETECTIVES_WIN;
+				return;
+			}
+			passes[game]++;
+			next(game, player);
+			return;
+		}
+
+		int pick = (int) (((nextRandom() >>> 32) * total) >>> 32);
+		int slot = offsets[at];
+		int usable;
+		for (;; slot++) {
+			int to = neighbours[slot];
+			int free = (int) ~(occupied[base + (to >>> 6)] >>> to) & 1;
+			usable = (slotTickets[slot] & have) * free;
+			int count = Integer.bitCount(usable);
+			if (pick < count) break;
+			pick -= count;
+		}
+		// the pick-th set bit of the usable tickets
+		for (; pick > 0; pick--)
+			usable &= usable - 1;
+		int ticket = ticketOrdinals[Integer.numberOfTrailingZeros(usable)];
+		int to = neighbours[slot];
+
+		location[player * games + game] = to;
+		tickets[(player * TICKETS + ticket) * games + game]--;
+		if (player == 0) {
+			round[game]++;
+		} else {
+			tickets[ticket * games + game]++;
+			occupied[base + (at >>> 6)] &= ~(1L << at);
+			occupied[base + (to >>> 6)] |= 1L << to;
+			if (to == location[game]) {
+				result[game] = DETECTIVES_WIN;
+				return;
+			}
+		}
+		next(game, player);
+	}
+
+	private void next(int game, int player) {
+		if (player + 1 < players) {
+			turn[game] = player + 1;
+			return;
+		}
+		turn[game] = 0;
+		if (round[game] >= rounds || passes[game] == players - 1) result[game] = MR_X_WINS;
+		passes[game] = 0;
+	}
+
+	// xorshift64*
+	private long nextRandom() {
+		random ^= random >>> 12;
+		random ^= random << 25;
+		random ^= random >>> 27;
+		return random * 0x2545f4914f6cdd1dL;
+	}
+
+}
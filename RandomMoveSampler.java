@@ -0,0 +1,240 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+
+import uk.ac.bris.cs.gamekit.graph.Graph;
+
+/**
+ * Draws uniformly random valid moves of a player straight from the map, the
+ * player's tickets and the occupied locations, without creating the player's
+ * set of valid moves.
+ *
+ * <br>
+ * The moves that can be drawn are exactly the ones of {@link LazyMoveSet}: the
+ * distinct single moves, every double move when the player has a Double
+ * ticket and the round limit allows one, and a {@link PassMove} for a
+ * detective that cannot move. {@link #sample(Random)} uses rejection: it picks
+ * a single move and one of {@code 1 + bound} slots after it, where slot zero
+ * stands for the single move and the others for the double moves that start
+ * with it, and retries if the slot is not a valid double move. Every move has
+ * the same chance, and a draw takes time proportional to the degree of a few
+ * locations. {@link #sample(Random, int)} draws distinct moves with Floyd's
+ * algorithm over move indices, which only needs the number of double moves
+ * per single move. {@link RandomMoveSamplerCheck} tests the distribution.
+ */
+public final class RandomMoveSampler {
+
+	private static final Ticket[] TICKETS = { Ticket.Taxi, Ticket.Bus, Ticket.Underground,
+			Ticket.Secret };
+
+	private final GraphIndex index;
+	private final Colour colour;
+	private final int[] tickets;
+	private final int[] occupied;
+	private final boolean doubleAllowed;
+	// the single moves, as destination node and index into TICKETS
+	private final int[] destinations;
+	private final int[] singleTickets;
+	private final int singles;
+	private final int bound;
+	// double moves starting with each single move, -1 until counted
+	private final int[] seconds;
+
+	/**
+	 * Creates a sampler for a player's position, with the same arguments as
+	 * {@link LazyMoveSet}
+	 *
+	 * @param graph the graph of the game; not null
+	 * @param colour the colour of the player; not null
+	 * @param location the location of the player
+	 * @param tickets ticket counts of the player indexed by
+	 *        {@link Ticket#ordinal()}; not null, copied
+	 * @param occupied locations the player cannot move to; not null
+	 * @param doubleAllowed whether the round limit allows a double move
+	 */
+	RandomMoveSampler(Graph<Integer, Transport> graph, Colour colour, int location,
+			int[] tickets, Collection<Integer> occupied, boolean doubleAllowed) {
+		this.index = GraphIndex.of(Objects.requireNonNull(graph));
+		this.colour = Objects.requireNonNull(colour);
+		this.tickets = Arrays.copyOf(tickets, Ticket.values().length);
+		this.occupied = new int[occupied.size()];
+		int count = 0;
+		for (int id : occupied)
+			this.occupied[count++] = index.indexOf(id);
+		this.doubleAllowed = doubleAllowed && this.tickets[Ticket.Double.ordinal()] > 0;
+
+		int from = index.indexOf(location);
+		if (from < 0) throw new IllegalArgumentException(location + " is not on the graph");
+		this.destinations = new int[index.degree(from) * TICKETS.length];
+		this.singleTickets = new int[destinations.length];
+		this.singles = hops(from, -1, destinations, singleTickets);
+		int kinds = 0;
+		for (Ticket ticket : TICKETS) {
+			if (this.tickets[ticket.ordinal()] > 0) kinds++;
+		}
+		int bound = 0;
+		for (int single = 0; this.doubleAllowed && single < singles; single++)
+			bound = Math.max(bound, index.degree(destinations[single]) * kinds);
+		this.bound = bound;
+		this.seconds = new int[singles];
+		Arrays.fill(seconds, -1);
+	}
+
+	/**
+	 * Creates a sampler for the current player of a game
+	 *
+	 * @param view the view of the game; not null
+	 * @param location the actual location of the current player, as passed to
+	 *        {@link Player#makeMove}
+	 * @return the sampler; never null
+	 */
+	public static RandomMoveSampler of(ScotlandYardView view, int location) {
+		Colour current = view.getCurrentPlayer();
+		int[] tickets = new int[Ticket.values().length];
+		for (Ticket ticket : Ticket.values())
+			tickets[ticket.ordinal()] = view.getPlayerTickets(current, ticket);
+		List<Integer> occupied = new ArrayList<>();
+		for (Colour colour : view.getPlayers()) {
+			if (colour.isDetective() && colour != current)
+				occupied.add(view.getPlayerLocation(colour));
+		}
+		return new RandomMoveSampler(view.getGraph(), current, location, tickets, occupied,
+				view.getCurrentRound() < view.getRounds().size() - 1);
+	}
+
+	/**
+	 * Draws a move, every valid move has the same chance
+	 *
+	 * @param random the source of randomness; not null
+	 * @return the move; never null
+	 * @throws IllegalStateException if the player is Mr.X and cannot move
+	 */
+	public Move sample(Random random) {
+		if (singles == 0) {
+			if (colour.isDetective()) return Moves.pass(colour);
+			throw new IllegalStateException("Mr.X has no valid moves");
+		}
+		while (true) {
+			int single = random.nextInt(singles);
+			int slot = random.nextInt(1 + bound);
+			if (slot == 0) return single(single);
+			if (slot - 1 < seconds(single)) return doubleMove(single, slot - 1);
+		}
+	}
+
+	/**
+	 * Draws distinct moves, every subset of the valid moves of the given size
+	 * has the same chance
+	 *
+	 * @param random the source of randomness; not null
+	 * @param count the number of moves to draw
+	 * @return the drawn moves, or every valid move if there are fewer; never
+	 *         null
+	 */
+	public List<Move> sample(Random random, int count) {
+		Objects.requireNonNull(random);
+		if (count < 0) throw new IllegalArgumentException("Negative count");
+		if (singles == 0) {
+			return colour.isDetective() && count > 0
+					? Collections.singletonList(Moves.pass(colour))
+					: Collections.emptyList();
+		}
+		int[] offsets = new int[singles + 1];
+		offsets[0] = singles;
+		for (int single = 0; single < singles; single++)
+			offsets[single + 1] = offsets[single] + seconds(single);
+		int size = offsets[singles];
+		count = Math.min(count, size);
+		// Floyd: for each of the last count indices pick one below it, or it if taken
+		Set<Integer> picked = new HashSet<>();
+		List<Move> moves = new ArrayList<>(count);
+		for (int last = size - count; last < size; last++) {
+			int pick = random.nextInt(last + 1);
+			if (!picked.add(pick)) {
+				picked.add(last);
+				pick = last;
+			}
+			moves.add(get(offsets, pick));
+		}
+		return moves;
+	}
+
+	/**
+	 * @return the number of valid moves, found without creating them
+	 */
+	public int size() {
+		if (singles == 0) return colour.isDetective() ? 1 : 0;
+		int size = singles;
+		for (int single = 0; single < singles; single++)
+			size += seconds(single);
+		return size;
+	}
+
+	// the move with the index, numbered like the moves of LazyMoveSet
+	private Move get(int[] offsets, int index) {
+		if (index < singles) return single(index);
+		int single = Arrays.binarySearch(offsets, index);
+		// the first single move whose double moves end after the index
+		single = single >= 0 ? single : -single - 2;
+		while (offsets[single + 1] <= index)
+			single++;
+		return doubleMove(single, index - offsets[single]);
+	}
+
+	private TicketMove single(int single) {
+		return Moves.ticket(colour, TICKETS[singleTickets[single]],
+				index.id(destinations[single]));
+	}
+
+	private DoubleMove doubleMove(int single, int second) {
+		int from = destinations[single];
+		int[] to = new int[index.degree(from) * TICKETS.length];
+		int[] ticket = new int[to.length];
+		hops(from, singleTickets[single], to, ticket);
+		return Moves.doubleMove(colour, TICKETS[singleTickets[single]], index.id(from),
+				TICKETS[ticket[second]], index.id(to[second]));
+	}
+
+	private int seconds(int single) {
+		if (!doubleAllowed) return 0;
+		if (seconds[single] < 0) {
+			int from = destinations[single];
+			int[] scratch = new int[index.degree(from) * TICKETS.length];
+			seconds[single] = hops(from, singleTickets[single], scratch, new int[scratch.length]);
+		}
+		return seconds[single];
+	}
+
+	// the distinct (destination, ticket) moves from a node, after using a ticket or -1
+	private int hops(int from, int used, int[] to, int[] ticket) {
+		int count = 0;
+		for (int slot = index.start(from); slot < index.end(from); slot++) {
+			int neighbour = index.neighbour(slot);
+			if (isOccupied(neighbour)) continue;
+			for (int i = 0; i < TICKETS.length; i++) {
+				int left = tickets[TICKETS[i].ordinal()] - (i == used ? 1 : 0);
+				if (left > 0 && index.accepts(slot, TICKETS[i])) {
+					to[count] = neighbour;
+					ticket[count++] = i;
+				}
+			}
+		}
+		return count;
+	}
+
+	private boolean isOccupied(int node) {
+		for (int other : occupied) {
+			if (other == node) return true;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,154 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A statistical check that {@link RandomMoveSampler} draws every valid move
+ * with the same chance.
+ *
+ * <br>
+ * {@link #chiSquare} draws a number of moves per valid move and computes
+ * Pearson's statistic of the counts against the uniform distribution;
+ * {@link #zScore} turns it into a standard score with the Wilson-Hilferty
+ * approximation. {@link #check} plays random games on a {@link SyntheticMap}
+ * and, at every position, compares the sampler's moves with the valid moves
+ * the model offers and tests their distribution, so a bias in the rejection
+ * step or a missing or extra move is found on maps of any shape.
+ */
+public final class RandomMoveSamplerCheck {
+
+	/**
+	 * The standard score above which a distribution is taken to not be uniform,
+	 * a one-sided p-value of about 1e-5, so that checking many positions does
+	 * not report chance deviations
+	 */
+	public static final double CRITICAL_Z = 4.265;
+
+	private static final Colour[] DETECTIVES = { Colour.Blue, Colour.Green, Colour.Red,
+			Colour.White, Colour.Yellow };
+
+	private RandomMoveSamplerCheck() {
+		// nope
+	}
+
+	/**
+	 * Draws moves and computes Pearson's chi-square statistic of their counts
+	 * against the uniform distribution over the valid moves
+	 *
+	 * @param sampler the sampler; not null
+	 * @param moves the valid moves of the sampler's position; not null
+	 * @param draws the number of draws per valid move, at least 1
+	 * @param random the source of randomness; not null
+	 * @return the statistic, with {@code moves.size() - 1} degrees of freedom
+	 * @throws IllegalStateException if a drawn move is not one of the valid
+	 *         moves
+	 */
+	public static double chiSquare(RandomMoveSampler sampler, Set<Move> moves, int draws,
+			Random random) {
+		Objects.requireNonNull(sampler);
+		Objects.requireNonNull(random);
+		if (draws < 1) throw new IllegalArgumentException("draws must be positive");
+		Map<Move, Integer> counts = new HashMap<>();
+		for (Move move : moves)
+			counts.put(move, 0);
+		for (long draw = (long) draws * moves.size(); draw > 0; draw--) {
+			Move move = sampler.sample(random);
+			Integer count = counts.get(move);
+			if (count == null) throw new IllegalStateException(move + " is not a valid move");
+			counts.put(move, count + 1);
+		}
+		double statistic = 0;
+		for (int count : counts.values())
+			statistic += (double) (count - draws) * (count - draws) / draws;
+		return statistic;
+	}
+
+	/**
+	 * @param chiSquare a chi-square statistic
+	 * @param degreesOfFreedom its degrees of freedom, at least 1
+	 * @return the standard score of the statistic, large when the counts are
+	 *         further from uniform than chance explains
+	 */
+	public static double zScore(double chiSquare, int degreesOfFreedom) {
+		if (degreesOfFreedom < 1) throw new IllegalArgumentException("No degrees of freedom");
+		double h = 2.0 / (9 * degreesOfFreedom);
+		return (Math.cbrt(chiSquare / degreesOfFreedom) - (1 - h)) / Math.sqrt(h);
+	}
+
+	/**
+	 * Plays games with random players on a map and checks the sampler at every
+	 * position: its size and moves must equal the valid moves, and at positions
+	 * with more than one move their distribution must be uniform
+	 *
+	 * @param map the map; not null, with at least five detective locations
+	 * @param games the number of games to play
+	 * @param draws the number of draws per valid move of each chi-square test
+	 * @param seed the seed of the games and the draws
+	 * @return the number of positions whose distribution was tested
+	 * @throws IllegalStateException if the sampler fails a check, describing the
+	 *         position
+	 */
+	public static int check(SyntheticMap map, int games, int draws, long seed) {
+		Objects.requireNonNull(map);
+		if (map.detectiveLocations.size() < DETECTIVES.length)
+			throw new IllegalArgumentException("Not enough detective locations");
+		Random random = new Random(seed);
+		int[] tested = { 0 };
+		Player player = (view, location, moves, callback) -> {
+			if (verify(view, location, moves, draws, random)) tested[0]++;
+			List<Move> list = new ArrayList<>(moves);
+			callback.accept(list.get(random.nextInt(list.size())));
+		};
+		for (int game = 0; game < games; game++) {
+			PlayerConfiguration[] detectives = new PlayerConfiguration[DETECTIVES.length];
+			for (int i = 0; i < detectives.length; i++) {
+				int location = map.detectiveLocations.get((i + game) % map.detectiveLocations.size());
+				detectives[i] = new PlayerConfiguration.Builder(DETECTIVES[i]).using(player)
+						.with(StandardGame.generateDetectiveTickets()).at(location).build();
+			}
+			Map<Ticket, Integer> mrXTickets = new EnumMap<>(Ticket.class);
+			mrXTickets.putAll(StandardGame.generateMrXTickets());
+			mrXTickets.put(Ticket.Taxi, 4);
+			mrXTickets.put(Ticket.Bus, 3);
+			mrXTickets.put(Ticket.Underground, 3);
+			int mrX = map.mrXLocations.get(game % map.mrXLocations.size());
+			ScotlandYardModel model = new ScotlandYardModel(map.rounds, map.graph,
+					new PlayerConfiguration.Builder(Colour.Black).using(player).with(mrXTickets)
+							.at(mrX).build(),
+					detectives[0], Arrays.copyOfRange(detectives, 1, detectives.length));
+			while (!model.isGameOver())
+				model.startRotate();
+		}
+		return tested[0];
+	}
+
+	// true if the distribution was tested
+	private static boolean verify(ScotlandYardView view, int location, Set<Move> moves,
+			int draws, Random random) {
+		RandomMoveSampler sampler = RandomMoveSampler.of(view, location);
+		String position = view.getCurrentPlayer() + " at " + location + " in round "
+				+ view.getCurrentRound();
+		if (sampler.size() != moves.size())
+			throw new IllegalStateException(String.format("%s: %d moves, sampler counts %d",
+					position, moves.size(), sampler.size()));
+		if (!new HashSet<>(sampler.sample(random, Integer.MAX_VALUE)).equals(new HashSet<>(moves)))
+			throw new IllegalStateException(position + ": sampler draws different moves");
+		if (moves.size() < 2) return false;
+		double z = zScore(chiSquare(sampler, moves, draws, random), moves.size() - 1);
+		if (z > CRITICAL_Z)
+			throw new IllegalStateException(String.format(
+					"%s: distribution over %d moves is not uniform, z = %.2f", position,
+					moves.size(), z));
+		return true;
+	}
+
+}
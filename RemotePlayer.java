@@ -0,0 +1,78 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * A {@link Player} of one game that is hosted by a {@link RemotePlayerServer}.
+ *
+ * <br>
+ * Each move is asked for through a {@link RemotePlayerClient}, which may be
+ * shared by the remote players of many games. The player does not wait for the
+ * answer: {@link #makeMove} returns once the request is sent and the callback
+ * is called when the answer arrives, on a thread of the player's executor, so
+ * a single thread can keep requests of many games in flight. Drive the game
+ * from {@link Spectator#onRotationComplete} rather than calling
+ * {@link ScotlandYardGame#startRotate()} in a loop. If the remote player does
+ * not answer before the deadline, or the request fails, the move is asked of a
+ * local fallback player instead. Register the player as a {@link Spectator} of
+ * its game so the server is told when the game ends.
+ */
+public class RemotePlayer implements Player, Spectator {
+
+	private final RemotePlayerClient client;
+	private final long game;
+	private final long timeoutMillis;
+	private final Player fallback;
+	private final Executor executor;
+
+	/**
+	 * Creates a player that answers on the common fork/join pool
+	 *
+	 * @param client the connection to the server; not null
+	 * @param game the id of the game, unique among the games of the client
+	 * @param timeoutMillis how long to wait for each move
+	 * @param fallback the player asked when the remote player fails; not null
+	 */
+	public RemotePlayer(RemotePlayerClient client, long game, long timeoutMillis,
+			Player fallback) {
+		this(client, game, timeoutMillis, fallback, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param client the connection to the server; not null
+	 * @param game the id of the game, unique among the games of the client
+	 * @param timeoutMillis how long to wait for each move
+	 * @param fallback the player asked when the remote player fails; not null
+	 * @param executor runs the callbacks, and with them the rest of the
+	 *        rotation, so the client's selector thread is never blocked by a
+	 *        game; not null
+	 */
+	public RemotePlayer(RemotePlayerClient client, long game, long timeoutMillis,
+			Player fallback, Executor executor) {
+		this.client = Objects.requireNonNull(client);
+		this.game = game;
+		this.timeoutMillis = timeoutMillis;
+		this.fallback = Objects.requireNonNull(fallback);
+		this.executor = Objects.requireNonNull(executor);
+	}
+
+	@Override
+	public void makeMove(ScotlandYardView view, int location, Set<Move> moves,
+			Consumer<Move> callback) {
+		client.requestMove(game, view, location, moves, timeoutMillis)
+				.whenCompleteAsync((move, error) -> {
+					if (error == null) callback.accept(move);
+					else fallback.makeMove(view, location, moves, callback);
+				}, executor);
+	}
+
+	@Override
+	public void onGameOver(ScotlandYardView view, Set<Colour> winningPlayers) {
+		client.endGame(game);
+	}
+
+}
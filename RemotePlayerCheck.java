@@ -0,0 +1,141 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A loopback check of {@link RemotePlayerServer}, {@link RemotePlayerClient}
+ * and {@link RemotePlayer}.
+ *
+ * <br>
+ * {@link #check} starts a server on the loopback interface and plays games on
+ * a {@link SyntheticMap} whose every player is remote, all over one
+ * connection. The games are started together and driven from their rotation
+ * callbacks, so the requests of all games are in flight at once. The check
+ * fails if a game does not finish, if a remote player is asked to move for a
+ * colour other than its own, if a game and colour do not get a player of their
+ * own, or if any move has to be asked of the fallback player.
+ */
+public final class RemotePlayerCheck {
+
+	private static final Colour[] DETECTIVES = { Colour.Blue, Colour.Green, Colour.Red,
+			Colour.White, Colour.Yellow };
+
+	private RemotePlayerCheck() {
+		// nope
+	}
+
+	/**
+	 * Plays games against a loopback server
+	 *
+	 * @param map the map; not null, with at least five detective locations
+	 * @param games the number of concurrent games
+	 * @param workers the number of worker threads of the server, at least 1
+	 * @param timeoutMillis how long all games together may take
+	 * @return the number of moves answered by remote players
+	 * @throws IOException if the server cannot be started or reached
+	 * @throws InterruptedException if interrupted while waiting for the games
+	 * @throws IllegalStateException if a check fails
+	 */
+	public static int check(SyntheticMap map, int games, int workers, long timeoutMillis)
+			throws IOException, InterruptedException {
+		Objects.requireNonNull(map);
+		if (map.detectiveLocations.size() < DETECTIVES.length)
+			throw new IllegalArgumentException("Not enough detective locations");
+		AtomicInteger created = new AtomicInteger();
+		AtomicInteger moves = new AtomicInteger();
+		AtomicInteger fallbacks = new AtomicInteger();
+		AtomicReference<String> failure = new AtomicReference<>();
+		CountDownLatch finished = new CountDownLatch(games);
+		ExecutorService rotations = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "remote-player-check");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try (RemotePlayerServer server = new RemotePlayerServer(map.graph, (game, colour) -> {
+			created.incrementAndGet();
+			Random random = new Random(game * 31 + colour.ordinal());
+			return (view, location, valid, callback) -> {
+				if (view.getCurrentPlayer() != colour)
+					failure.compareAndSet(null, colour + " of game " + game + " was asked to move for "
+							+ view.getCurrentPlayer());
+				moves.incrementAndGet();
+				List<Move> list = new ArrayList<>(valid);
+				callback.accept(list.get(random.nextInt(list.size())));
+			};
+		}, workers)) {
+			InetSocketAddress address = server.start(
+					new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			try (RemotePlayerClient client = RemotePlayerClient.connect(address)) {
+				Player fallback = (view, location, valid, callback) -> {
+					fallbacks.incrementAndGet();
+					callback.accept(valid.iterator().next());
+				};
+				for (int game = 0; game < games; game++) {
+					RemotePlayer player = new RemotePlayer(client, game, timeoutMillis, fallback);
+					ScotlandYardModel model = model(map, game, player);
+					model.registerSpectator(player);
+					model.registerSpectator(new Spectator() {
+						@Override
+						public void onRotationComplete(ScotlandYardView view) {
+							rotations.execute(model::startRotate);
+						}
+
+						@Override
+						public void onGameOver(ScotlandYardView view, Set<Colour> winningPlayers) {
+							finished.countDown();
+						}
+					});
+					rotations.execute(model::startRotate);
+				}
+				if (!finished.await(timeoutMillis, TimeUnit.MILLISECONDS))
+					throw new IllegalStateException(finished.getCount() + " of " + games
+							+ " games did not finish");
+			}
+		} finally {
+			rotations.shutdownNow();
+		}
+		if (failure.get() != null) throw new IllegalStateException(failure.get());
+		if (fallbacks.get() > 0)
+			throw new IllegalStateException(fallbacks.get() + " moves fell back to the local player");
+		if (created.get() > games * (1 + DETECTIVES.length) || created.get() < games * 2)
+			throw new IllegalStateException(created.get() + " players created for " + games
+					+ " games");
+		return moves.get();
+	}
+
+	private static ScotlandYardModel model(SyntheticMap map, int game, Player player) {
+		PlayerConfiguration[] detectives = new PlayerConfiguration[DETECTIVES.length];
+		for (int i = 0; i < detectives.length; i++) {
+			int location = map.detectiveLocations.get((i + game) % map.detectiveLocations.size());
+			detectives[i] = new PlayerConfiguration.Builder(DETECTIVES[i]).using(player)
+					.with(StandardGame.generateDetectiveTickets()).at(location).build();
+		}
+		Map<Ticket, Integer> mrXTickets = new EnumMap<>(Ticket.class);
+		mrXTickets.putAll(StandardGame.generateMrXTickets());
+		mrXTickets.put(Ticket.Taxi, 4);
+		mrXTickets.put(Ticket.Bus, 3);
+		mrXTickets.put(Ticket.Underground, 3);
+		int mrX = map.mrXLocations.get(game % map.mrXLocations.size());
+		return new ScotlandYardModel(map.rounds, map.graph,
+				new PlayerConfiguration.Builder(Colour.Black).using(player).with(mrXTickets)
+						.at(mrX).build(),
+				detectives[0], Arrays.copyOfRange(detectives, 1, detectives.length));
+	}
+
+}
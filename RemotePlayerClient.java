@@ -0,0 +1,204 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.ac.bris.cs.scotlandyard.model.RemotePlayerProtocol.Connection;
+
+/**
+ * A connection to a {@link RemotePlayerServer} that asks remote players for
+ * moves, see {@link RemotePlayerProtocol} for the messages.
+ *
+ * <br>
+ * Requests can be sent from any number of threads, for any number of games,
+ * and are pipelined over the one connection. Each request has a deadline;
+ * its future fails with a {@link TimeoutException} once the deadline passes
+ * without an answer. One selector thread reads answers and completes the
+ * futures, so callers should not block in callbacks of the futures.
+ */
+public class RemotePlayerClient implements Closeable {
+
+	private final Selector selector;
+	private final Connection connection;
+	private final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+	private final AtomicInteger requests = new AtomicInteger();
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	private RemotePlayerClient(SocketChannel channel) throws IOException {
+		this.selector = Selector.open();
+		this.connection = new Connection(channel, selector);
+		this.thread = new Thread(this::loop, "remote-player-client");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Connects to a server
+	 *
+	 * @param address the address of the server; not null
+	 * @return the client; never null
+	 * @throws IOException if the server cannot be reached
+	 */
+	public static RemotePlayerClient connect(InetSocketAddress address) throws IOException {
+		SocketChannel channel = SocketChannel.open(address);
+		channel.socket().setTcpNoDelay(true);
+		return new RemotePlayerClient(channel);
+	}
+
+	/**
+	 * Asks the remote player of a game for a move, the server has a player per
+	 * game and colour
+	 *
+	 * @param game the id of the game
+	 * @param view the view of the player, whose current player is the one
+	 *        asked; not null
+	 * @param location the location of the player
+	 * @param moves the valid moves of the player; not null
+	 * @param timeoutMillis how long to wait for the answer
+	 * @return the move chosen by the remote player, one of the given moves;
+	 *         never null
+	 */
+	public CompletableFuture<Move> requestMove(long game, ScotlandYardView view, int location,
+			Collection<Move> moves, long timeoutMillis) {
+		List<Move> list = new ArrayList<>(moves);
+		int request = requests.incrementAndGet() & Integer.MAX_VALUE;
+		byte[] snapshot = GameSnapshot.fromView(view).toBytes();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(snapshot.length + list.size() * 5 + 32);
+		out.write(RemotePlayerProtocol.MOVE_REQUEST);
+		GameSnapshot.writeInt(out, request);
+		RemotePlayerProtocol.writeLong(out, game);
+		GameSnapshot.writeInt(out, view.getCurrentPlayer().ordinal());
+		GameSnapshot.writeInt(out, (int) Math.min(Integer.MAX_VALUE, Math.max(0, timeoutMillis)));
+		GameSnapshot.writeInt(out, location);
+		GameSnapshot.writeInt(out, snapshot.length);
+		out.write(snapshot, 0, snapshot.length);
+		GameSnapshot.writeInt(out, list.size());
+		for (Move move : list)
+			MoveCodec.write(out, move);
+		CompletableFuture<Move> future = new CompletableFuture<>();
+		if (!running) {
+			future.completeExceptionally(new IOException("Client closed"));
+			return future;
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		pending.put(request, new Pending(list, deadline, future));
+		connection.send(out.toByteArray());
+		return future;
+	}
+
+	/**
+	 * Tells the server that a game is over so it can drop its players
+	 *
+	 * @param game the id of the game
+	 */
+	public void endGame(long game) {
+		if (running) connection.send(RemotePlayerProtocol.endGame(game));
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void loop() {
+		try {
+			while (running) {
+				selector.select(expire());
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (key.isValid() && key.isWritable()) connection.flush();
+					if (key.isValid() && key.isReadable()) {
+						for (ByteBuffer frame : connection.read())
+							receive(frame);
+					}
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			running = false;
+		} finally {
+			connection.close();
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// closing anyway
+			}
+			for (Pending request : pending.values())
+				request.future.completeExceptionally(new IOException("Connection closed"));
+			pending.clear();
+		}
+	}
+
+	// fails the requests past their deadline, returns the milliseconds to the next one
+	private long expire() {
+		long now = System.nanoTime();
+		long next = Long.MAX_VALUE;
+		Iterator<Map.Entry<Integer, Pending>> entries = pending.entrySet().iterator();
+		while (entries.hasNext()) {
+			Pending request = entries.next().getValue();
+			if (request.deadline - now <= 0) {
+				entries.remove();
+				request.future.completeExceptionally(new TimeoutException("No move before the deadline"));
+			} else {
+				next = Math.min(next, request.deadline - now);
+			}
+		}
+		return next == Long.MAX_VALUE ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(next) + 1);
+	}
+
+	private void receive(ByteBuffer frame) {
+		int type = frame.get();
+		int request = GameSnapshot.readInt(frame);
+		Pending answered = pending.remove(request);
+		if (answered == null) return;
+		if (type == RemotePlayerProtocol.MOVE_RESPONSE) {
+			int index = GameSnapshot.readInt(frame);
+			if (index < answered.moves.size()) answered.future.complete(answered.moves.get(index));
+			else answered.future.completeExceptionally(new IOException("Move index out of range"));
+		} else if (type == RemotePlayerProtocol.ERROR) {
+			answered.future.completeExceptionally(
+					new IOException(RemotePlayerProtocol.readString(frame)));
+		} else {
+			answered.future.completeExceptionally(new IOException("Unknown message " + type));
+		}
+	}
+
+	private static class Pending {
+
+		final List<Move> moves;
+		final long deadline;
+		final CompletableFuture<Move> future;
+
+		Pending(List<Move> moves, long deadline, CompletableFuture<Move> future) {
+			this.moves = moves;
+			this.deadline = deadline;
+			this.future = future;
+		}
+
+	}
+
+}
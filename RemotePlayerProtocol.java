@@ -0,0 +1,174 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The wire protocol between {@link RemotePlayerClient} and
+ * {@link RemotePlayerServer}.
+ *
+ * <br>
+ * Every message is a frame of a 4 byte big endian length followed by that many
+ * bytes of payload. The payload starts with a type byte, the rest are unsigned
+ * variable length integers unless stated otherwise:
+ * <ul>
+ * <li>{@link #MOVE_REQUEST}: request id, game id, the {@link Colour#ordinal()}
+ * of the player, timeout in milliseconds, the location of the player, the
+ * length and bytes of a {@link GameSnapshot} of the player's view, the number
+ * of valid moves and each move as written by {@link MoveCodec}</li>
+ * <li>{@link #MOVE_RESPONSE}: request id, index of the chosen move among the
+ * requested moves</li>
+ * <li>{@link #ERROR}: request id, length and UTF-8 bytes of a message</li>
+ * <li>{@link #END_GAME}: game id, the server drops the players of the game</li>
+ * </ul>
+ * Requests carry ids so many requests, of many games, can be in flight on one
+ * connection and be answered in any order.
+ */
+final class RemotePlayerProtocol {
+
+	static final int MOVE_REQUEST = 1;
+	static final int MOVE_RESPONSE = 2;
+	static final int ERROR = 3;
+	static final int END_GAME = 4;
+
+	static final int MAX_FRAME = 1 << 24;
+
+	private RemotePlayerProtocol() {
+		// nope
+	}
+
+	static byte[] moveResponse(int request, int index) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(8);
+		out.write(MOVE_RESPONSE);
+		GameSnapshot.writeInt(out, request);
+		GameSnapshot.writeInt(out, index);
+		return out.toByteArray();
+	}
+
+	static byte[] error(int request, String message) {
+		byte[] text = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(text.length + 8);
+		out.write(ERROR);
+		GameSnapshot.writeInt(out, request);
+		GameSnapshot.writeInt(out, text.length);
+		out.write(text, 0, text.length);
+		return out.toByteArray();
+	}
+
+	static byte[] endGame(long game) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(12);
+		out.write(END_GAME);
+		writeLong(out, game);
+		return out.toByteArray();
+	}
+
+	static String readString(ByteBuffer buffer) {
+		byte[] text = new byte[GameSnapshot.readInt(buffer)];
+		buffer.get(text);
+		return new String(text, StandardCharsets.UTF_8);
+	}
+
+	static void writeLong(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7fL) != 0) {
+			out.write((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	static long readLong(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = buffer.get();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IllegalArgumentException("Malformed long");
+	}
+
+	/**
+	 * A non-blocking channel that reads and writes frames. Reads and flushes
+	 * happen on the selector thread; frames can be sent from any thread.
+	 */
+	static final class Connection {
+
+		final SocketChannel channel;
+		final SelectionKey key;
+		private final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+		private ByteBuffer in = ByteBuffer.allocate(4096);
+
+		Connection(SocketChannel channel, Selector selector) throws IOException {
+			this.channel = channel;
+			channel.configureBlocking(false);
+			this.key = channel.register(selector, SelectionKey.OP_READ, this);
+		}
+
+		void send(byte[] payload) {
+			ByteBuffer frame = ByteBuffer.allocate(4 + payload.length);
+			frame.putInt(payload.length).put(payload).flip();
+			out.add(frame);
+			if (!key.isValid()) return;
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			key.selector().wakeup();
+		}
+
+		// the complete frames received so far
+		List<ByteBuffer> read() throws IOException {
+			if (channel.read(in) < 0) throw new EOFException("Connection closed");
+			List<ByteBuffer> frames = new ArrayList<>();
+			in.flip();
+			while (in.remaining() >= 4) {
+				int length = in.getInt(in.position());
+				if (length < 0 || length > MAX_FRAME) throw new IOException("Bad frame length " + length);
+				if (in.remaining() < 4 + length) {
+					if (in.capacity() < 4 + length) {
+						ByteBuffer bigger = ByteBuffer.allocate(Integer.highestOneBit(4 + length) << 1);
+						bigger.put(in);
+						in = bigger;
+						return frames;
+					}
+					break;
+				}
+				in.getInt();
+				byte[] payload = new byte[length];
+				in.get(payload);
+				frames.add(ByteBuffer.wrap(payload));
+			}
+			in.compact();
+			return frames;
+		}
+
+		void flush() throws IOException {
+			ByteBuffer frame;
+			while ((frame = out.peek()) != null) {
+				channel.write(frame);
+				if (frame.hasRemaining()) return;
+				out.poll();
+			}
+			key.interestOps(SelectionKey.OP_READ);
+			// a frame sent while switching off writes must not be stranded
+			if (!out.isEmpty()) key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+
+		void close() {
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// closing anyway
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,220 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+
+import uk.ac.bris.cs.gamekit.graph.Graph;
+
+import uk.ac.bris.cs.scotlandyard.model.RemotePlayerProtocol.Connection;
+
+/**
+ * Hosts {@link Player}s for {@link RemotePlayerClient}s, see
+ * {@link RemotePlayerProtocol} for the messages.
+ *
+ * <br>
+ * One selector thread accepts connections and reads and writes frames without
+ * blocking. Move requests are handed to a pool of worker threads, which ask the
+ * player of the request's game and colour. Each connection has its own players,
+ * one per game and colour, so Mr.X and the detectives of a game can share a
+ * connection. A player is created on the first request of its colour in a game
+ * and dropped when the client ends the game. A request whose deadline has
+ * passed by the time a worker takes it is answered with an error. An answer
+ * given after the deadline is dropped, since the client has given up on it.
+ */
+public class RemotePlayerServer implements Closeable {
+
+	private static final Colour[] COLOURS = Colour.values();
+
+	private final Graph<Integer, Transport> graph;
+	private final BiFunction<Long, Colour, Player> players;
+	private final ExecutorService workers;
+	private Selector selector;
+	private ServerSocketChannel server;
+	private Thread thread;
+	private volatile boolean running;
+
+	/**
+	 * @param graph the graph of the games, shown to players in their views; not
+	 *        null
+	 * @param players creates the player of a colour of a game from the game id
+	 *        and the colour; not null
+	 * @param workers the number of threads that run players, at least 1
+	 */
+	public RemotePlayerServer(Graph<Integer, Transport> graph,
+			BiFunction<Long, Colour, Player> players, int workers) {
+		this.graph = Objects.requireNonNull(graph);
+		this.players = Objects.requireNonNull(players);
+		if (workers < 1) throw new IllegalArgumentException("At least one worker");
+		this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+			Thread thread = new Thread(runnable, "remote-player-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Starts listening
+	 *
+	 * @param address the address to bind to, use port 0 for any free port; not
+	 *        null
+	 * @return the bound address; never null
+	 * @throws IOException if the address cannot be bound
+	 */
+	public synchronized InetSocketAddress start(InetSocketAddress address) throws IOException {
+		if (running) throw new IllegalStateException("Already started");
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(address);
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		running = true;
+		thread = new Thread(this::loop, "remote-player-server");
+		thread.setDaemon(true);
+		thread.start();
+		return (InetSocketAddress) server.getLocalAddress();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (!running) return;
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		workers.shutdownNow();
+		server.close();
+		selector.close();
+	}
+
+	private void loop() {
+		try {
+			while (running) {
+				selector.select();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) continue;
+					if (key.isAcceptable()) accept();
+					else handle((Client) key.attachment(), key);
+				}
+			}
+		} catch (IOException e) {
+			running = false;
+		} finally {
+			for (SelectionKey key : new ArrayList<>(selector.keys())) {
+				if (key.attachment() instanceof Client) ((Client) key.attachment()).connection.close();
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel == null) return;
+		channel.socket().setTcpNoDelay(true);
+		Client client = new Client();
+		client.connection = new Connection(channel, selector);
+		client.connection.key.attach(client);
+	}
+
+	private void handle(Client client, SelectionKey key) {
+		try {
+			if (key.isWritable()) client.connection.flush();
+			if (key.isValid() && key.isReadable()) {
+				for (ByteBuffer frame : client.connection.read())
+					receive(client, frame);
+			}
+		} catch (IOException | RuntimeException e) {
+			client.connection.close();
+			client.games.clear();
+		}
+	}
+
+	private void receive(Client client, ByteBuffer frame) {
+		int type = frame.get();
+		switch (type) {
+		case RemotePlayerProtocol.MOVE_REQUEST:
+			int request = GameSnapshot.readInt(frame);
+			long game = RemotePlayerProtocol.readLong(frame);
+			int colour = GameSnapshot.readInt(frame);
+			if (colour >= COLOURS.length) throw new IllegalArgumentException("Unknown colour");
+			long deadline = System.nanoTime()
+					+ TimeUnit.MILLISECONDS.toNanos(GameSnapshot.readInt(frame));
+			int location = GameSnapshot.readInt(frame);
+			byte[] snapshot = new byte[GameSnapshot.readInt(frame)];
+			frame.get(snapshot);
+			int count = GameSnapshot.readInt(frame);
+			if (count > frame.remaining()) throw new IllegalArgumentException("Corrupt move count");
+			List<Move> moves = new ArrayList<>(count);
+			for (int i = 0; i < count; i++)
+				moves.add(MoveCodec.read(frame));
+			workers.execute(() -> play(client, request, game, COLOURS[colour], deadline, location,
+					snapshot, moves));
+			break;
+		case RemotePlayerProtocol.END_GAME:
+			client.games.remove(RemotePlayerProtocol.readLong(frame));
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown message " + type);
+		}
+	}
+
+	private void play(Client client, int request, long game, Colour colour, long deadline,
+			int location, byte[] snapshot, List<Move> moves) {
+		Connection connection = client.connection;
+		if (System.nanoTime() > deadline) {
+			connection.send(RemotePlayerProtocol.error(request, "Deadline exceeded"));
+			return;
+		}
+		try {
+			Player player = client.games.computeIfAbsent(game, id -> new ConcurrentHashMap<>())
+					.computeIfAbsent(colour, key -> players.apply(game, colour));
+			ScotlandYardView view = new ImmutableView(GameSnapshot.fromBytes(snapshot), graph,
+					Collections.emptySet());
+			Map<Move, Integer> indices = new LinkedHashMap<>();
+			for (Move move : moves)
+				indices.putIfAbsent(move, indices.size());
+			AtomicBoolean answered = new AtomicBoolean();
+			player.makeMove(view, location, Collections.unmodifiableSet(indices.keySet()), move -> {
+				if (!answered.compareAndSet(false, true)) return;
+				if (System.nanoTime() > deadline) return;
+				Integer index = indices.get(move);
+				connection.send(index == null
+						? RemotePlayerProtocol.error(request, "Invalid move " + move)
+						: RemotePlayerProtocol.moveResponse(request, index));
+			});
+		} catch (RuntimeException e) {
+			connection.send(RemotePlayerProtocol.error(request, String.valueOf(e)));
+		}
+	}
+
+	private static class Client {
+
+		Connection connection;
+		final Map<Long, Map<Colour, Player>> games = new ConcurrentHashMap<>();
+
+	}
+
+}
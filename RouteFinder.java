@@ -0,0 +1,342 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+
+import uk.ac.bris.cs.gamekit.graph.Graph;
+
+/**
+ * Answers how a player can reach a node with the tickets they hold.
+ *
+ * <br>
+ * Plain hop distance ignores tickets: a detective with no Underground tickets
+ * left cannot take the underground, and one with 4 Bus tickets cannot take 5
+ * buses. A search here explores states of a node and the tickets left, one
+ * move per layer. A state is dropped when the same node was already reached
+ * in no more moves with at least as many tickets of every kind. The result of
+ * a search, a {@link Routes}, holds the fewest moves to every node and a
+ * route that achieves it.
+ *
+ * <br>
+ * Taxi, Bus, Underground and Secret tickets are used, Double tickets are not.
+ * Results are cached for the most recently used pairs of start location and
+ * tickets, so evaluation functions can ask thousands of times per move. A
+ * finder is safe to use from any number of threads.
+ */
+public final class RouteFinder {
+
+	/**
+	 * The number of results cached by default
+	 */
+	public static final int DEFAULT_CACHE_SIZE = 1024;
+
+	private static final Ticket[] TICKETS = { Ticket.Taxi, Ticket.Bus, Ticket.Underground,
+			Ticket.Secret };
+	private static final int[] MASKS = new int[TICKETS.length];
+
+	static {
+		for (int ticket = 0; ticket < TICKETS.length; ticket++)
+			MASKS[ticket] = GraphIndex.transportMask(TICKETS[ticket]);
+	}
+
+	private final GraphIndex index;
+	private final Map<Long, Routes> cache;
+
+	/**
+	 * @param graph the graph of the game; not null
+	 */
+	public RouteFinder(Graph<Integer, Transport> graph) {
+		this(graph, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * @param graph the graph of the game; not null
+	 * @param cacheSize the number of results to cache, 0 to disable the cache
+	 */
+	public RouteFinder(Graph<Integer, Transport> graph, int cacheSize) {
+		this(GraphIndex.of(Objects.requireNonNull(graph)), cacheSize);
+	}
+
+	/**
+	 * @param index the index of the graph of the game, e.g. one in an ordering
+	 *        that keeps neighbours close, see {@link MapDefinition#index()};
+	 *        not null
+	 * @param cacheSize the number of results to cache, 0 to disable the cache
+	 */
+	public RouteFinder(GraphIndex index, int cacheSize) {
+		this.index = Objects.requireNonNull(index);
+		if (cacheSize < 0) throw new IllegalArgumentException("Negative cache size");
+		this.cache = new LinkedHashMap<Long, Routes>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Entry<Long, Routes> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * @param location the start location; must be on the graph
+	 * @param tickets the tickets of the player, missing tickets count as none;
+	 *        not null
+	 * @return the routes from the location; never null
+	 */
+	public Routes routes(int location, Map<Ticket, Integer> tickets) {
+		int packed = 0;
+		for (int ticket = 0; ticket < TICKETS.length; ticket++)
+			packed |= clamp(tickets.getOrDefault(TICKETS[ticket], 0)) << ticket * 8;
+		return routes(location, packed);
+	}
+
+	/**
+	 * @param view the view of the game; not null
+	 * @param colour the player; not null
+	 * @return the routes from the player's location with their tickets; never
+	 *         null
+	 */
+	public Routes routes(ScotlandYardView view, Colour colour) {
+		int packed = 0;
+		for (int ticket = 0; ticket < TICKETS.length; ticket++)
+			packed |= clamp(view.getPlayerTickets(colour, TICKETS[ticket])) << ticket * 8;
+		return routes(view.getPlayerLocation(colour), packed);
+	}
+
+	/**
+	 * Answers for every detective at once, e.g. for an evaluation function
+	 *
+	 * @param view the view of the game; not null
+	 * @return the routes of each detective, in play order; never null
+	 */
+	public Map<Colour, Routes> detectives(ScotlandYardView view) {
+		Map<Colour, Routes> routes = new LinkedHashMap<>();
+		for (Colour colour : view.getPlayers()) {
+			if (colour.isDetective()) routes.put(colour, routes(view, colour));
+		}
+		return Collections.unmodifiableMap(routes);
+	}
+
+	/**
+	 * @param view the view of the game; not null
+	 * @param location a location on the graph
+	 * @return the fewest moves any detective needs to reach the location with
+	 *         their tickets, or -1 if none can
+	 */
+	public int closestDetective(ScotlandYardView view, int location) {
+		int closest = -1;
+		for (Routes routes : detectives(view).values()) {
+			int distance = routes.distance(location);
+			if (distance >= 0 && (closest < 0 || distance < closest)) closest = distance;
+		}
+		return closest;
+	}
+
+	// counts above 255 make no difference, no route is that long
+	private static int clamp(int count) {
+		if (count < 0) throw new IllegalArgumentException("Negative ticket count");
+		return Math.min(count, 0xff);
+	}
+
+	private Routes routes(int location, int tickets) {
+		int source = index.indexOf(location);
+		if (source < 0) throw new IllegalArgumentException(location + " is not on the graph");
+		Long key = (long) source << 32 | tickets & 0xffffffffL;
+		synchronized (cache) {
+			Routes routes = cache.get(key);
+			if (routes != null) return routes;
+		}
+		// racing threads may search twice, their results are equal
+		Routes routes = search(source, tickets);
+		synchronized (cache) {
+			cache.put(key, routes);
+		}
+		return routes;
+	}
+
+	private Routes search(int source, int tickets) {
+		int n = index.size();
+		int[] distance = new int[n];
+		int[] first = new int[n];
+		int[] head = new int[n];
+		Arrays.fill(distance, -1);
+		Arrays.fill(head, -1);
+		Labels labels = new Labels();
+		first[source] = labels.add(source, tickets, -1, -1, head);
+		distance[source] = 0;
+		int reached = 1;
+		int layerStart = 0;
+		int layerEnd = labels.size;
+		for (int moves = 1; layerStart < layerEnd && reached < n; moves++) {
+			for (int label = layerStart; label < layerEnd; label++) {
+				int from = labels.node[label];
+				int left = labels.tickets[label];
+				for (int slot = index.start(from); slot < index.end(from); slot++) {
+					int to = index.neighbour(slot);
+					int transports = index.transports(slot);
+					for (int ticket = 0; ticket < TICKETS.length; ticket++) {
+						if ((left >>> ticket * 8 & 0xff) == 0 || (transports & MASKS[ticket]) == 0)
+							continue;
+						int after = left - (1 << ticket * 8);
+						if (labels.dominated(to, after, head)) continue;
+						int added = labels.add(to, after, label, ticket, head);
+						if (distance[to] < 0) {
+							distance[to] = moves;
+							first[to] = added;
+							reached++;
+						}
+					}
+				}
+			}
+			layerStart = layerEnd;
+			layerEnd = labels.size;
+		}
+		return labels.routes(index, index.id(source), distance, first);
+	}
+
+	// the states of a search; states at the same node are chained through next
+	private static class Labels {
+
+		int[] node = new int[64];
+		int[] tickets = new int[64];
+		int[] parent = new int[64];
+		int[] next = new int[64];
+		byte[] ticket = new byte[64];
+		int size;
+
+		int add(int node, int tickets, int parent, int ticket, int[] head) {
+			if (size == this.node.length) {
+				this.node = Arrays.copyOf(this.node, size * 2);
+				this.tickets = Arrays.copyOf(this.tickets, size * 2);
+				this.parent = Arrays.copyOf(this.parent, size * 2);
+				this.next = Arrays.copyOf(this.next, size * 2);
+				this.ticket = Arrays.copyOf(this.ticket, size * 2);
+			}
+			this.node[size] = node;
+			this.tickets[size] = tickets;
+			this.parent[size] = parent;
+			this.ticket[size] = (byte) ticket;
+			this.next[size] = head[node];
+			head[node] = size;
+			return size++;
+		}
+
+		// every state at the node was reached in no more moves, so only tickets are compared
+		boolean dominated(int node, int tickets, int[] head) {
+			for (int label = head[node]; label >= 0; label = next[label]) {
+				int other = this.tickets[label];
+				if ((other & 0xff) >= (tickets & 0xff)
+						&& (other >>> 8 & 0xff) >= (tickets >>> 8 & 0xff)
+						&& (other >>> 16 & 0xff) >= (tickets >>> 16 & 0xff)
+						&& (other >>> 24) >= (tickets >>> 24))
+					return true;
+			}
+			return false;
+		}
+
+		// keeps only the states on the chosen route to each node
+		Routes routes(GraphIndex index, int location, int[] distance, int[] first) {
+			int[] kept = new int[size];
+			Arrays.fill(kept, -1);
+			int count = 0;
+			for (int node = 0; node < first.length; node++) {
+				if (distance[node] < 0) continue;
+				for (int label = first[node]; label >= 0 && kept[label] < 0; label = parent[label])
+					kept[label] = 0;
+			}
+			// states were added in order of moves, so parents are renumbered first
+			int[] keptNode = new int[size];
+			int[] keptParent = new int[size];
+			byte[] keptTicket = new byte[size];
+			for (int label = 0; label < size; label++) {
+				if (kept[label] < 0) continue;
+				keptNode[count] = index.id(node[label]);
+				keptParent[count] = parent[label] < 0 ? -1 : kept[parent[label]];
+				keptTicket[count] = ticket[label];
+				kept[label] = count++;
+			}
+			int[] last = new int[first.length];
+			for (int node = 0; node < first.length; node++)
+				last[node] = distance[node] < 0 ? -1 : kept[first[node]];
+			return new Routes(index, location, distance, last, Arrays.copyOf(keptNode, count),
+					Arrays.copyOf(keptParent, count), Arrays.copyOf(keptTicket, count));
+		}
+
+	}
+
+	/**
+	 * The fewest moves from one location with one set of tickets to every node
+	 * of the graph, and a route for each. Routes are immutable and can be shared
+	 * between threads.
+	 */
+	public static final class Routes {
+
+		private final GraphIndex index;
+		private final int location;
+		private final int[] distance;
+		private final int[] last;
+		private final int[] node;
+		private final int[] parent;
+		private final byte[] ticket;
+
+		private Routes(GraphIndex index, int location, int[] distance, int[] last, int[] node,
+				int[] parent, byte[] ticket) {
+			this.index = index;
+			this.location = location;
+			this.distance = distance;
+			this.last = last;
+			this.node = node;
+			this.parent = parent;
+			this.ticket = ticket;
+		}
+
+		/**
+		 * @return the start location
+		 */
+		public int location() {
+			return location;
+		}
+
+		/**
+		 * @param destination a location
+		 * @return the fewest moves to the location, 0 for the start location and
+		 *         -1 if it cannot be reached with the tickets
+		 */
+		public int distance(int destination) {
+			int to = index.indexOf(destination);
+			return to < 0 ? -1 : distance[to];
+		}
+
+		/**
+		 * @param destination a location
+		 * @param moves the number of moves
+		 * @return true if the location can be reached within the number of moves
+		 */
+		public boolean canReach(int destination, int moves) {
+			int distance = distance(destination);
+			return distance >= 0 && distance <= moves;
+		}
+
+		/**
+		 * @param colour the colour of the moving player; not null
+		 * @param destination a location
+		 * @return the moves of a shortest route to the location, empty for the
+		 *         start location, or null if it cannot be reached
+		 */
+		public List<TicketMove> route(Colour colour, int destination) {
+			Objects.requireNonNull(colour);
+			int to = index.indexOf(destination);
+			if (to < 0 || distance[to] < 0) return null;
+			List<TicketMove> moves = new ArrayList<>(distance[to]);
+			for (int label = last[to]; parent[label] >= 0; label = parent[label])
+				moves.add(Moves.ticket(colour, TICKETS[ticket[label]], node[label]));
+			Collections.reverse(moves);
+			return Collections.unmodifiableList(moves);
+		}
+
+	}
+
+}
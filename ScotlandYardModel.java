@@ -17,40 +17,67 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.function.Consumer;
-import uk.ac.bris.cs.gamekit.graph.Edge;
 import uk.ac.bris.cs.gamekit.graph.Graph;
 import uk.ac.bris.cs.gamekit.graph.ImmutableGraph;
 
 public class ScotlandYardModel implements ScotlandYardGame, Consumer<Move>, MoveVisitor{
 
+	private final GameDefinition definition;
 	private final List<Boolean> rounds;
-	private final Graph<Integer, Transport> graph;
+	private final ImmutableGraph<Integer, Transport> graph;
 	private final ArrayList<ScotlandYardPlayer> playerList;
 	private int currentRound;
 	private int currentPlayer;
 	private final ArrayList<Spectator> spectators;
 	private int mrXLastLocation;
+	private int parallelThreshold;
+	private final GameOverDetector gameOverDetector;
+	private volatile ImmutableView published;
+
+	/**
+	 * Default number of first moves from which Mr X's double moves are
+	 * expanded in parallel, high enough that the standard map never uses it
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 64;
 
 //Constructor
 	public ScotlandYardModel(List<Boolean> rounds, Graph<Integer, Transport> graph,
 			PlayerConfiguration mrX, PlayerConfiguration firstDetective,
 			PlayerConfiguration... restOfTheDetectives){
+		//The definition checks that rounds and graph are not null or empty
+		this(new GameDefinition(rounds, graph), mrX, firstDetective, restOfTheDetectives);
+	}
+
+	/**
+	 * Creates a game on a definition that may be shared with other games
+	 *
+	 * @param definition the graph and rounds of the game; not null
+	 * @param mrX the configuration of Mr.X; not null
+	 * @param firstDetective the configuration of the first detective; not null
+	 * @param restOfTheDetectives the configurations of the other detectives;
+	 *        not null
+	 */
+	public ScotlandYardModel(GameDefinition definition,
+			PlayerConfiguration mrX, PlayerConfiguration firstDetective,
+			PlayerConfiguration... restOfTheDetectives){
 		//Set current round to NOT_STARTED
 		currentRound = NOT_STARTED;
 		//Set current player to 0 (MrX)
 		currentPlayer = 0;
 		//Set MrX's last location to 0
 		mrXLastLocation = 0;
+		//Only expand double moves in parallel for very large numbers of first moves
+		parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
 		//Create the list for the players
 		playerList = new ArrayList<ScotlandYardPlayer>();
 		//Create the list for the spectators
 		spectators = new ArrayList<Spectator>();
-		//requireNonNull() to ensure they are not null which could break things
-		this.rounds = requireNonNull(rounds);
-		this.graph = requireNonNull(graph);
-		//Check that rounds and graph aren't empty
-		if(rounds.isEmpty()){throw new IllegalArgumentException("Empty rounds");}
-		if(graph.isEmpty()){throw new IllegalArgumentException("Empty graph");}
+		//The rounds and the immutable graph are shared with every game of the definition
+		this.definition = requireNonNull(definition);
+		this.rounds = definition.rounds();
+		this.graph = definition.graph();
+		//Keeps the game over state, recomputed only after the state has changed
+		gameOverDetector = new GameOverDetector(graph, rounds.size());
 		//Check that MrX has the black colour
 		if(mrX.colour != Black){throw new IllegalArgumentException("MrX should be Black");}
 		//Checks whether any player is null, adds them to configurations
@@ -91,6 +118,78 @@ public class ScotlandYardModel implements ScotlandYardGame, Consumer<Move>, Move
 		for(PlayerConfiguration c : configurations){
 			playerList.add(new ScotlandYardPlayer(c.player, c.colour, c.location, c.tickets));
 		}
+		//Publish the initial state for readers on other threads
+		published = new ImmutableView(checkpoint(), graph, isGameOver() ? getWinningPlayers() : emptySet());
+	}
+
+	/**
+	 * @return the graph and rounds of the game, which other games may share;
+	 *         never null
+	 */
+	public GameDefinition definition(){
+		return definition;
+	}
+
+	/**
+	 * Returns an immutable view of the game as it was after the last move.
+	 * A new view is published after every move, so any number of threads can
+	 * read it without locks or copying while the game continues.
+	 *
+	 * @return the latest published view; never null
+	 */
+	public ImmutableView snapshot(){
+		return published;
+	}
+
+	/**
+	 * Sets the number of first moves from which the double moves of the valid
+	 * moves handed to players are expanded with fork/join instead of on the
+	 * calling thread. The moves are the same either way.
+	 *
+	 * @param parallelThreshold the threshold; must be positive, use
+	 *        {@link Integer#MAX_VALUE} to always expand sequentially
+	 */
+	public void setParallelThreshold(int parallelThreshold){
+		if(parallelThreshold <= 0){throw new IllegalArgumentException("Threshold must be positive");}
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	//Captures the state of the game for checkpoints, the players and spectators are not part of it
+	GameSnapshot checkpoint(){
+		//Snapshots share the reveal rounds of the definition, they never change
+		boolean[] reveals = definition.reveals();
+		Colour[] colours = new Colour[playerList.size()];
+		int[] locations = new int[playerList.size()];
+		int[][] tickets = new int[playerList.size()][];
+		for (int i = 0; i < playerList.size(); i++){
+			colours[i] = playerList.get(i).colour();
+			locations[i] = playerList.get(i).location();
+			tickets[i] = ticketCounts(playerList.get(i));
+		}
+		return new GameSnapshot(reveals, currentRound, currentPlayer, colours, locations, tickets, mrXLastLocation);
+	}
+
+	//Moves a newly created game to the round and player of a checkpoint, see GameSnapshot
+	void restore(int currentRound, int currentPlayer, int mrXLastLocation){
+		if(currentRound < NOT_STARTED || currentRound > rounds.size()){throw new IllegalArgumentException("Round out of range");}
+		if(currentPlayer < 0 || currentPlayer >= playerList.size()){throw new IllegalArgumentException("Player out of range");}
+		this.currentRound = currentRound;
+		this.currentPlayer = currentPlayer;
+		this.mrXLastLocation = mrXLastLocation;
+		stateChanged();
+		published = new ImmutableView(checkpoint(), graph, isGameOver() ? getWinningPlayers() : emptySet());
+	}
+
+	//Publishes an immutable view of the current state, sharing whatever did not change with the last one
+	private void publish(){
+		int[] locations = new int[playerList.size()];
+		int[][] tickets = new int[playerList.size()][];
+		for (int i = 0; i < playerList.size(); i++){
+			locations[i] = playerList.get(i).location();
+			tickets[i] = ticketCounts(playerList.get(i));
+		}
+		published = published.next(currentRound, currentPlayer, locations, tickets, mrXLastLocation,
+				isGameOver() ? getWinningPlayers() : emptySet());
 	}
 
 	//Returns Mr X
@@ -98,21 +197,12 @@ public class ScotlandYardModel implements ScotlandYardGame, Consumer<Move>, Move
 		return playerList.get(0);
 	}
 
-	//Returns a list of the detectives
-	private ArrayList<ScotlandYardPlayer> detectives(){
-		ArrayList<ScotlandYardPlayer> detectives = new ArrayList<>();
-		for (int i = 1; i < playerList.size(); i++){
-			detectives.add(playerList.get(i));
-		}
-		return detectives;
-	}
-
 	@Override
 	public void startRotate(){
 		//Gets the current ScotlandYardPlayer player
 		ScotlandYardPlayer startPlayer = getCurrentScotlandYardPlayer();
-		//Creates a set of valid moves which can be made
-		Set<Move> validMoves = validMoves(startPlayer);
+		//Creates a lazy set of valid moves which can be made
+		Set<Move> validMoves = lazyValidMoves(startPlayer);
 		if(!isGameOver()){
 			//Calls the makeMove() method on the player attribute of the current ScotlandYardPlayer
 			startPlayer.player().makeMove(this, startPlayer.location(), validMoves, this);
@@ -126,35 +216,40 @@ public class ScotlandYardModel implements ScotlandYardGame, Consumer<Move>, Move
 	@Override
 	//Check whether the move chosen by the player is valid
 	public void accept(Move move){
-		Set<Move> validMoves = validMoves(getCurrentScotlandYardPlayer());
 		//Ensure the move is not null
 		move = requireNonNull(move);
-		//Checks whether the argument move is valid
-		if(validMoves.contains(move)){
+		//Checks whether the argument move is valid, without generating all valid moves
+		if(validator(getCurrentScotlandYardPlayer()).isValid(move)){
 			//Uses dynamic dispatch and the visitor design pattern to match to the correct ticket
 			move.visit(this);
 			//If all players have moved, end of rotation
 			if(currentPlayer == playerList.size()-1){
 				if(isGameOver()){
+					publish();
 					notifyGameOver();
 
 				}
 				else {
 					currentPlayer = 0;
+					stateChanged();
+					publish();
 				  notifyRotationComplete();
 				}
 			}
 			else {
 				if(isGameOver()){
+					publish();
 					notifyGameOver();
 
 				}
 				else {
 					//Increment the currentPlayer
 					currentPlayer++;
+					stateChanged();
+					publish();
 					//If the round is not over, call makeMove on the next player
 					ScotlandYardPlayer nextPlayer = getCurrentScotlandYardPlayer();
-					nextPlayer.player().makeMove(this, nextPlayer.location(), validMoves(nextPlayer), this);
+					nextPlayer.player().makeMove(this, nextPlayer.location(), lazyValidMoves(nextPlayer), this);
 				}
 			}
 		}
@@ -173,6 +268,12 @@ public class ScotlandYardModel implements ScotlandYardGame, Consumer<Move>, Move
 		if(player.isDetective()){
 			mrX().addTicket(ticket);
 		}
+		stateChanged();
+	}
+
+	//A helper method to mark the cached game over state as stale after any change
+	private void stateChanged(){
+		gameOverDetector.invalidate();
 	}
 
 	//A visit method for PassMove moves
@@ -183,10 +284,8 @@ public class ScotlandYardModel implements ScotlandYardGame, Consumer<Move>, Move
 		if(player.isMrX()){
 			throw new IllegalStateException("MrX cannot make PassMoves!");
 		}
-		HashSet<Move> set = new HashSet<Move>();
-		set.add(new PassMove(player.colour()));
 		//Throw exception if there were valid moves (not just a PassMove)
-		if(!validMoves(player).equals(set)){
+		if(!validator(player).isValid(move)){
 			throw new IllegalArgumentException("There were valid moves to make!");
 		}
 		//Notify spectators
@@ -206,9 +305,10 @@ public class ScotlandYardModel implements ScotlandYardGame, Consumer<Move>, Move
 				mrXLastLocation = move.destination();
 			}
 			else {
-				move = new TicketMove(move.colour(), move.ticket(), mrXLastLocation);
+				move = Moves.ticket(move.colour(), move.ticket(), mrXLastLocation);
 			}
 			currentRound++;
+			stateChanged();
 			notifyRoundStarted();
 		}
 		//Notify spectators
@@ -223,9 +323,9 @@ public class ScotlandYardModel implements ScotlandYardGame, Consumer<Move>, Move
 		TicketMove firstMove;
 		TicketMove secondMove;
 		DoubleMove doubleMove;
-		//Make a hidden version of the first move on hidden rounds
+		//Make a hidden version of the first move on hidden rounds, using the canonical moves
 		if(!isRevealRound()){
-		  firstMove = new TicketMove(player.colour(), move.firstMove().ticket(), mrXLastLocation);
+		  firstMove = Moves.ticket(player.colour(), move.firstMove().ticket(), mrXLastLocation);
     }
 		//Get the correct firstMove if it's a reveal round
 		else {
@@ -234,106 +334,62 @@ public class ScotlandYardModel implements ScotlandYardGame, Consumer<Move>, Move
 		}
 		//Make a hidden version of the second move on hidden rounds
 		if(!(rounds.get(currentRound + 1))){
-			secondMove = new TicketMove(player.colour(), move.secondMove().ticket(), mrXLastLocation);
+			secondMove = Moves.ticket(player.colour(), move.secondMove().ticket(), mrXLastLocation);
 		}
 		//Get the correct secondMove if it's a reveal round
 		else {
 			secondMove = move.secondMove();
 			mrXLastLocation = secondMove.destination();
 		}
-		doubleMove = new DoubleMove(player.colour(), firstMove, secondMove);
+		doubleMove = Moves.doubleMove(player.colour(), firstMove, secondMove);
 		//Nofify spectators of the double move
 		notifyMoveMade(doubleMove);
 		player.removeTicket(Ticket.Double);
+		stateChanged();
 		updatePlayer(player, move.firstMove().destination(), move.firstMove().ticket());
 		updatePlayer(player, move.secondMove().destination(), move.secondMove().ticket());
 		//Increment the round counter and notify spectators
 		currentRound++;
+		stateChanged();
 		notifyRoundStarted();
 		notifyMoveMade(firstMove);
 		currentRound++;
+		stateChanged();
 		notifyRoundStarted();
 		notifyMoveMade(secondMove);
-	}
-
-	//Method to create a set of valid moves
-	private Set<Move> validMoves(ScotlandYardPlayer player){
-		//Creates an empty set for putting moves in and returning them
-		HashSet<Move> set = new HashSet<Move>();
-		//Creates an empty array for putting single moves in
-		List<TicketMove> singleMoves = new ArrayList<TicketMove>();
-		//Gets a list of the edges from the current node
-		List<Edge<Integer, Transport>> edgesFrom = new ArrayList<Edge<Integer, Transport>>(graph.getEdgesFrom(graph.getNode(player.location())));
-
-		//--------------------------SINGLE MOVE--------------------------//
-
-		//Gets a list of the possible single moves
-		singleMoves = movesFrom(edgesFrom, player);
-		//Add the moves from the list to the set to return
-		for (TicketMove move : singleMoves){
-			set.add(move);
-		}
-
-		//--------------------------DOUBLE MOVE--------------------------//
-
-		List<DoubleMove> doubleMoves = new ArrayList<DoubleMove>();
-		//For every possible first move, if the player has a double ticket, get the possible double moves
-		if(player.hasTickets(Ticket.Double) && currentRound < rounds.size() - 1){
-			for (TicketMove firstMove : singleMoves){
-				//Get the nodes reached by the first move
-				edgesFrom = new ArrayList<Edge<Integer, Transport>>(graph.getEdgesFrom(graph.getNode(firstMove.destination())));
-				//Take the ticket used in the firstMove from the player
-				player.removeTicket(firstMove.ticket());
-				//Get the moves playable as a second move
-				List<TicketMove> secondMoves = movesFrom(edgesFrom, player);
-				//Add each double move possible
-				for (TicketMove secondMove : secondMoves){
-					set.add(new DoubleMove(player.colour(), firstMove, secondMove));
-				}
-				player.addTicket(firstMove.ticket());
-			}
-		}
-		if(set.isEmpty() && player.isDetective()){
-			set.add(new PassMove(player.colour()));
-		}
-		return set;
-	}
-
-	private List<TicketMove> movesFrom(List<Edge<Integer, Transport>> edgesFrom, ScotlandYardPlayer player){
-		List<TicketMove> moves = new ArrayList<TicketMove>();
-		//Iterates through the edges and adds the nodes that can be traversed to with a ticket
-		for (Edge<Integer, Transport> edge : edgesFrom){
-			//The ticket version of the transport
-			Ticket currentTicket = Ticket.fromTransport(edge.data());
-			//Get the list of occupied locations
-			ArrayList<Integer> locationList = occupiedLocations();
-			//If the edge can be traversed and is not occupied, add the TicketMove to the set of Moves
-			if(player.hasTickets(currentTicket) || player.hasTickets(Ticket.Secret)){
-				if(!locationList.contains(edge.destination().value())){
-					//If the player has a valid transport ticket to get to the location add it
-					if(player.hasTickets(currentTicket)){
-						moves.add(new TicketMove(player.colour(), currentTicket, edge.destination().value()));
-					}
-					//If the player has a secret ticket to get to the location add it
-					if(player.hasTickets(Ticket.Secret)){
-						moves.add(new TicketMove(player.colour(), Ticket.Secret, edge.destination().value()));
-					}
-				}
-			}
-		}
-		return moves;
-	}
-
-	//A helper method to return an ArrayList of the occupied locations on the board
-	private ArrayList<Integer> occupiedLocations(){
-		//Create list of occupied locations except the current player and Mr X's location
-		ArrayList<Integer> locationList = new ArrayList<Integer>();
-		for (ScotlandYardPlayer locPlayer : playerList){
-			if((locPlayer != getCurrentScotlandYardPlayer())&&(!locPlayer.isMrX())){
-				locationList.add(locPlayer.location());
-			}
-		}
-		return locationList;
+	}
+
+	//Creates the valid moves handed to players, which are only computed when they are used
+	private LazyMoveSet lazyValidMoves(ScotlandYardPlayer player){
+		return new LazyMoveSet(graph, player.colour(), player.location(), ticketCounts(player),
+				occupiedLocations(), currentRound < rounds.size() - 1, parallelThreshold);
+	}
+
+	//Creates a validator that checks single moves of the player directly against the graph
+	private MoveValidator validator(ScotlandYardPlayer player){
+		return new MoveValidator(graph, player.colour(), player.location(), ticketCounts(player),
+				occupiedLocations(), currentRound < rounds.size() - 1);
+	}
+
+	//A helper method to return the player's ticket counts indexed by ticket ordinal
+	private int[] ticketCounts(ScotlandYardPlayer player){
+		int[] tickets = new int[Ticket.values().length];
+		for (Ticket ticket : Ticket.values()){
+			tickets[ticket.ordinal()] = player.tickets(ticket);
+		}
+		return tickets;
+	}
+
+	//A helper method to return an ArrayList of the occupied locations on the board
+	private ArrayList<Integer> occupiedLocations(){
+		//Create list of occupied locations except the current player and Mr X's location
+		ArrayList<Integer> locationList = new ArrayList<Integer>();
+		for (ScotlandYardPlayer locPlayer : playerList){
+			if((locPlayer != getCurrentScotlandYardPlayer())&&(!locPlayer.isMrX())){
+				locationList.add(locPlayer.location());
+			}
+		}
+		return locationList;
 	}
 
 	//A helper method to notify all the spectators that the game is over
@@ -416,7 +472,7 @@ public class ScotlandYardModel implements ScotlandYardGame, Consumer<Move>, Move
 	@Override
 	public int getPlayerTickets(Colour colour, Ticket ticket){
 		//Returns the number of tickets of the correct type held by the player
-		return findPlayer(colour).tickets().get(ticket);
+		return findPlayer(colour).tickets(ticket);
 	}
 
 	//A private helper method to identify a player from playerList based on their colour
@@ -435,106 +491,15 @@ public class ScotlandYardModel implements ScotlandYardGame, Consumer<Move>, Move
 
 	@Override
 	public boolean isGameOver(){
-		//Game over if rounds have maxed out
-		if(endOfGame()){return true;}
-		//Game over if Mr X is stuck and it's the enf of the round
-		if(mrXStuck() && endOfRound()){return true;}
-		//Game over if Mr X is captured
-		if(mrXCaptured()){return true;}
-		//Game over if all detectives are stuck
-		if(detectivesStuck()){return true;}
-		//Game over if Mr X is cornered
-		if(mrXCornered()){return true;}
-		return false;
+		//Only recomputed by the detector when the state changed since the last call
+		return gameOverDetector.isGameOver(currentRound, currentPlayer, playerList);
 	}
 
 	@Override
 	public Set<Colour> getWinningPlayers(){
-		HashSet<Colour> set = new HashSet<Colour>();
-		//Mr X wins if rounds have maxed out
-		if(endOfGame()){set.add(mrX().colour());}
-		//Detectives win if Mr X is stuck and it's the end of the round
-		else if(mrXStuck() && endOfRound()){set = addDetectives(set);}
-		//Detectives win if Mr X is captured
-		else if(mrXCaptured()){set = addDetectives(set);}
-		//Mr X wins if all detectives are stuck
-		else if(detectivesStuck()){set.add(mrX().colour());}
-		//Detectives win if Mr X is cornered
-		else if(mrXCornered()){set = addDetectives(set);}
-		//Return the set
-		return Collections.unmodifiableSet(set);
-	}
-
-	//Adds the detectives to the argument set and returns it
-	private HashSet<Colour> addDetectives(HashSet<Colour> set){
-		for (ScotlandYardPlayer detective : detectives()){
-			set.add(detective.colour());
-		}
-		return set;
-	}
-
-	//Returns whether it is the end of the game
-	private boolean endOfGame(){
-		if(currentRound == rounds.size() && currentPlayer == playerList.size()-1){
-			return true;
-		}
-		return false;
-	}
-
-  //A helper method to return whether it is the end of the round
-	private boolean endOfRound(){
-		if(currentPlayer == playerList.size() - 1){
-			return true;
-		}
-		return false;
-	}
-
-  //A helper method to return a boolean of whether MrX is stuck
-	private boolean mrXStuck(){
-		//Game over if MrX is stuck
-		if(validMoves(mrX()).isEmpty()){
-			return true;
-		}
-		return false;
-	}
-
-	//A helper method to return a boolean of whether MrX has been captured
-	private boolean mrXCaptured(){
-		//Game over if Mr X is captured
-		for (ScotlandYardPlayer detective : detectives()){
-			if(detective.location() == mrX().location()){
-				return true;
-			}
-		}
-		return false;
-	}
-
-	//A helper method to return a boolean of whether the detectives are stuck
-	private boolean detectivesStuck(){
-		//Game over if all detectives are stuck
-		for (ScotlandYardPlayer detective : detectives()){
-			Set<Move> passSet = new HashSet<>();
-			passSet.add(new PassMove(detective.colour()));
-			if(!validMoves(detective).equals(passSet)){
-				return false;
-			}
-		}
-		return true;
-	}
-
-	//A helper method to return a boolean of whether Mr X is cornered
-	private boolean mrXCornered(){
-		//Gets a list of the occupied locations
-		ArrayList<Integer> occupiedLocations = occupiedLocations();
-		//Gets a list of the edges from the current node
-		List<Edge<Integer, Transport>> edgesFrom = new ArrayList<Edge<Integer, Transport>>(graph.getEdgesFrom(graph.getNode(mrX().location())));
-		for (Edge<Integer, Transport> edge : edgesFrom){
-			//If the destination of the edge is not occupied, return false
-			if(!occupiedLocations.contains(edge.destination().value())){
-				return false;
-			}
-		}
-		return true;
+		//Mr X wins if the rounds have maxed out or all detectives are stuck, the
+		//detectives win if Mr X is stuck at the end of the round, captured or cornered
+		return gameOverDetector.winningPlayers(currentRound, currentPlayer, playerList);
 	}
 
   //A private function to return the current ScotlandYardPlayer, not their colour
@@ -563,14 +528,14 @@ public class ScotlandYardModel implements ScotlandYardGame, Consumer<Move>, Move
 
 	@Override
 	public List<Boolean> getRounds(){
-		//Returns an unmodifiable copy of the list of rounds using the Collections.unmodifiableList() method
-		return Collections.unmodifiableList(rounds);
+		//Returns the unmodifiable list of rounds of the definition
+		return rounds;
 	}
 
 	@Override
 	public Graph<Integer, Transport> getGraph(){
-		//Returns an immutable copy of the graph using the ImmutableGraph() method
-		return new ImmutableGraph<Integer, Transport>(graph);
+		//Returns the immutable graph of the definition
+		return graph;
 	}
 
 }
@@ -1,17 +1,25 @@
 package uk.ac.bris.cs.scotlandyard.model;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * A class that contains all the information about a particular player.
  */
 public class ScotlandYardPlayer {
 
+	private static final Ticket[] TICKETS = Ticket.values();
+
 	private final Player player;
 	private final Colour colour;
 	private int location;
-	private final Map<Ticket, Integer> tickets;
+	// ticket counts indexed by Ticket#ordinal(), so counts are never boxed
+	private final int[] tickets;
+	private final Map<Ticket, Integer> ticketView = new TicketView();
 
 	/**
 	 * Constructs a new ScotlandYardPlayer object.
@@ -26,7 +34,9 @@ public class ScotlandYardPlayer {
 		this.player = player;
 		this.colour = colour;
 		this.location = location;
-		this.tickets = new HashMap<>(tickets);
+		this.tickets = new int[TICKETS.length];
+		for (Map.Entry<Ticket, Integer> entry : tickets.entrySet())
+			this.tickets[entry.getKey().ordinal()] = entry.getValue();
 	}
 
 	/**
@@ -78,10 +88,20 @@ public class ScotlandYardPlayer {
 	}
 
 	/**
-	 * @return the player's current tickets.
+	 * @return the player's current tickets, a live view of the counts that
+	 *         writes through to the player; every ticket has an entry, so
+	 *         entries can be changed but not removed.
 	 */
 	public Map<Ticket, Integer> tickets() {
-		return tickets;
+		return ticketView;
+	}
+
+	/**
+	 * @param ticket the ticket; not null
+	 * @return the number of the given ticket the player holds.
+	 */
+	public int tickets(Ticket ticket) {
+		return tickets[ticket.ordinal()];
 	}
 
 	/**
@@ -103,10 +123,7 @@ public class ScotlandYardPlayer {
 	}
 
 	private void adjustTicketCount(Ticket ticket, int by) {
-		Integer ticketCount = tickets.get(ticket);
-		ticketCount += by;
-		tickets.remove(ticket);
-		tickets.put(ticket, ticketCount);
+		tickets[ticket.ordinal()] += by;
 	}
 
 	/**
@@ -116,7 +133,7 @@ public class ScotlandYardPlayer {
 	 * @return true if the player has the given ticket, false otherwise
 	 */
 	public boolean hasTickets(Ticket ticket) {
-		return tickets.get(ticket) != 0;
+		return tickets[ticket.ordinal()] != 0;
 	}
 
 	/**
@@ -129,7 +146,7 @@ public class ScotlandYardPlayer {
 	 *         otherwise
 	 */
 	public boolean hasTickets(Ticket ticket, int quantityInclusive) {
-		return tickets.get(ticket) >= quantityInclusive;
+		return tickets[ticket.ordinal()] >= quantityInclusive;
 	}
 
 	@Override
@@ -138,8 +155,69 @@ public class ScotlandYardPlayer {
 		sb.append("player=").append(player);
 		sb.append(", colour=").append(colour);
 		sb.append(", location=").append(location);
-		sb.append(", tickets=").append(tickets);
+		sb.append(", tickets=").append(tickets());
 		sb.append('}');
 		return sb.toString();
 	}
+
+	// the map of tickets() over the counts
+	private final class TicketView extends AbstractMap<Ticket, Integer> {
+
+		@Override
+		public Integer get(Object key) {
+			return key instanceof Ticket ? tickets[((Ticket) key).ordinal()] : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return key instanceof Ticket;
+		}
+
+		@Override
+		public Integer put(Ticket ticket, Integer count) {
+			int previous = tickets[ticket.ordinal()];
+			tickets[ticket.ordinal()] = count;
+			return previous;
+		}
+
+		@Override
+		public int size() {
+			return tickets.length;
+		}
+
+		@Override
+		public Set<Entry<Ticket, Integer>> entrySet() {
+			return new AbstractSet<Entry<Ticket, Integer>>() {
+				@Override
+				public Iterator<Entry<Ticket, Integer>> iterator() {
+					return new Iterator<Entry<Ticket, Integer>>() {
+						private int next;
+
+						@Override
+						public boolean hasNext() {
+							return next < tickets.length;
+						}
+
+						@Override
+						public Entry<Ticket, Integer> next() {
+							if (!hasNext()) throw new NoSuchElementException();
+							Ticket ticket = TICKETS[next++];
+							return new SimpleEntry<Ticket, Integer>(ticket, tickets[ticket.ordinal()]) {
+								@Override
+								public Integer setValue(Integer count) {
+									super.setValue(count);
+									return put(ticket, count);
+								}
+							};
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return tickets.length;
+				}
+			};
+		}
+	}
 }
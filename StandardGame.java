@@ -1,11 +1,7 @@
 package uk.ac.bris.cs.scotlandyard.model;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -17,7 +13,6 @@ import java.util.Random;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 import javafx.geometry.Point2D;
 import uk.ac.bris.cs.gamekit.graph.ImmutableGraph;
@@ -135,35 +130,20 @@ public class StandardGame {
 
 	public static final int MAP_OFFSET = 60;
 
+	/**
+	 * @return node positions on the map image, loaded once per process through
+	 *         the {@link MapRegistry}
+	 */
 	public static Map<Integer, Entry<Integer, Integer>> pngMapPositionEntries() throws IOException {
-		List<String> lines = readString("pos.txt");
-		Map<Integer, Entry<Integer, Integer>> map = new HashMap<>();
-		for (String line : lines) {
-			Integer[] values = Stream.of(line.split("\\s+")).map(Integer::parseInt)
-					.toArray(Integer[]::new);
-			if (values.length != 3) continue;
-			map.put(values[0],
-					new SimpleImmutableEntry<>(
-							values[1] + MAP_OFFSET,
-							values[2] + MAP_OFFSET));
-		}
-		return Collections.unmodifiableMap(map);
+		return MapRegistry.standard().positions();
 	}
 
+	/**
+	 * @return the standard graph, loaded once per process through the
+	 *         {@link MapRegistry} and shared by every caller
+	 */
 	public static ImmutableGraph<Integer, Transport> standardGraph() throws IOException {
-		return ScotlandYardGraphReader.fromLines(readString("graph.txt"));
-	}
-
-	private static List<String> readString(String resource) throws IOException {
-		try (InputStream stream = StandardGame.class
-				.getClassLoader()
-				.getResourceAsStream(resource)) {
-			if (stream == null) throw new IOException("Resource " + resource + " not found");
-			return new BufferedReader(
-					new InputStreamReader(stream, StandardCharsets.UTF_8))
-							.lines()
-							.collect(toList());
-		}
+		return MapRegistry.standard().graph();
 	}
 
 }
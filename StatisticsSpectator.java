@@ -0,0 +1,235 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import uk.ac.bris.cs.gamekit.graph.Graph;
+import uk.ac.bris.cs.gamekit.graph.Node;
+
+/**
+ * A {@link Spectator} that counts moves across any number of concurrently
+ * running games without locks.
+ *
+ * <br>
+ * Moves are counted per role, node id and ticket, where the node is the
+ * destination the spectator is shown. Mr.X's moves are only counted per node
+ * in reveal rounds; his hidden moves reach spectators masked, so they are
+ * counted per ticket only. A double move counts once as a double move; the
+ * tickets of its two halves are counted when they are shown.
+ *
+ * <br>
+ * The per-node counts are one array shared by all threads: games spread their
+ * moves over the nodes, so threads rarely add to the same cell, and the array
+ * stays at {@code 2 * nodes * tickets} longs whatever the number of threads.
+ * Only the few counters that every game adds to, passes, double moves, wins
+ * and Mr.X's hidden moves, are striped like {@link java.util.concurrent.atomic.LongAdder}: each
+ * thread adds to one of several copies, picked from its thread id, and a
+ * snapshot sums the copies.
+ *
+ * <br>
+ * Every move shown and every game over is a single increment, and all totals of a
+ * {@link Snapshot} are derived from the counters it read. So a snapshot taken
+ * while games run never shows half of a move, and its totals always add up.
+ */
+public class StatisticsSpectator implements Spectator {
+
+	private static final int TICKETS = Ticket.values().length;
+	private static final int PASSES = 0;
+	private static final int DOUBLE_MOVES = 1;
+	private static final int MRX_WINS = 2;
+	private static final int DETECTIVE_WINS = 3;
+	// Mr.X's hidden moves by ticket
+	private static final int HIDDEN = 4;
+	private static final int COUNTERS = HIDDEN + TICKETS;
+	// cells per stripe, so the counters of a stripe are off the next stripe's cache line
+	private static final int STRIDE = 16;
+
+	private final int nodes;
+	private final AtomicLongArray moves;
+	private final AtomicLongArray counters;
+	private final int mask;
+
+	/**
+	 * @param graph the graph of the games; not null
+	 */
+	public StatisticsSpectator(Graph<Integer, Transport> graph) {
+		this(maxId(Objects.requireNonNull(graph)));
+	}
+
+	/**
+	 * @param maxNodeId the largest node id of the games, moves to larger ids are
+	 *        not counted per node
+	 */
+	public StatisticsSpectator(int maxNodeId) {
+		if (maxNodeId < 0) throw new IllegalArgumentException("Negative node id");
+		this.nodes = maxNodeId + 1;
+		this.moves = new AtomicLongArray(2 * nodes * TICKETS);
+		int processors = Runtime.getRuntime().availableProcessors();
+		int count = Integer.highestOneBit(Math.max(1, processors * 2 - 1)) << 1;
+		this.counters = new AtomicLongArray(count * STRIDE);
+		this.mask = count - 1;
+	}
+
+	private static int maxId(Graph<Integer, Transport> graph) {
+		int max = 0;
+		for (Node<Integer> node : graph.getNodes())
+			max = Math.max(max, node.value());
+		return max;
+	}
+
+	@Override
+	public void onMoveMade(ScotlandYardView view, Move move) {
+		if (move instanceof TicketMove) {
+			TicketMove ticketMove = (TicketMove) move;
+			boolean mrX = move.colour().isMrX();
+			// the round has already moved on when Mr.X's move is shown
+			if (mrX && !view.getRounds().get(view.getCurrentRound() - 1)) {
+				counters.getAndIncrement(stripe() + HIDDEN + ticketMove.ticket().ordinal());
+				return;
+			}
+			int node = ticketMove.destination();
+			// out of range destinations are still counted, under node 0
+			if (node < 0 || node >= nodes) node = 0;
+			moves.getAndIncrement(cell(mrX, node, ticketMove.ticket()));
+		} else if (move instanceof DoubleMove) {
+			counters.getAndIncrement(stripe() + DOUBLE_MOVES);
+		} else if (move instanceof PassMove) {
+			counters.getAndIncrement(stripe() + PASSES);
+		}
+	}
+
+	@Override
+	public void onGameOver(ScotlandYardView view, Set<Colour> winningPlayers) {
+		counters.getAndIncrement(
+				stripe() + (winningPlayers.contains(Colour.Black) ? MRX_WINS : DETECTIVE_WINS));
+	}
+
+	/**
+	 * Sums the counters without stopping the games
+	 *
+	 * @return the counts so far; never null
+	 */
+	public Snapshot snapshot() {
+		long[] counts = new long[COUNTERS + moves.length()];
+		for (int i = 0; i < moves.length(); i++)
+			counts[COUNTERS + i] = moves.get(i);
+		for (int stripe = 0; stripe < counters.length(); stripe += STRIDE) {
+			for (int i = 0; i < COUNTERS; i++)
+				counts[i] += counters.get(stripe + i);
+		}
+		return new Snapshot(nodes, counts);
+	}
+
+	// the first cell of the current thread's counters
+	private int stripe() {
+		long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+		return ((int) (id >>> 32) & mask) * STRIDE;
+	}
+
+	private int cell(boolean mrX, int node, Ticket ticket) {
+		return ((mrX ? 0 : nodes) + node) * TICKETS + ticket.ordinal();
+	}
+
+	/**
+	 * The counts of a {@link StatisticsSpectator} at one point
+	 */
+	public static final class Snapshot {
+
+		private final int nodes;
+		private final long[] counts;
+
+		private Snapshot(int nodes, long[] counts) {
+			this.nodes = nodes;
+			this.counts = counts;
+		}
+
+		/**
+		 * @param mrX true for Mr.X's moves, false for the detectives'
+		 * @param node the destination node id shown to spectators
+		 * @param ticket the ticket; not null
+		 * @return the number of moves to the node with the ticket, for Mr.X
+		 *         only the moves of reveal rounds
+		 */
+		public long moves(boolean mrX, int node, Ticket ticket) {
+			if (node < 0 || node >= nodes) return 0;
+			return counts[COUNTERS + ((mrX ? 0 : nodes) + node) * TICKETS + ticket.ordinal()];
+		}
+
+		/**
+		 * @param mrX true for Mr.X's moves, false for the detectives'
+		 * @param node the destination node id shown to spectators
+		 * @return the number of moves to the node, for Mr.X only the moves of
+		 *         reveal rounds
+		 */
+		public long moves(boolean mrX, int node) {
+			long total = 0;
+			for (Ticket ticket : Ticket.values())
+				total += moves(mrX, node, ticket);
+			return total;
+		}
+
+		/**
+		 * @param mrX true for Mr.X's tickets, false for the detectives'
+		 * @param ticket the ticket; not null
+		 * @return the number of tickets used, Mr.X's hidden moves included
+		 */
+		public long tickets(boolean mrX, Ticket ticket) {
+			long total = mrX ? hiddenMoves(ticket) : 0;
+			for (int node = 0; node < nodes; node++)
+				total += moves(mrX, node, ticket);
+			return total;
+		}
+
+		/**
+		 * @param mrX true for Mr.X's moves, false for the detectives'
+		 * @return the number of ticket moves, each half of a double move
+		 *         counting as one
+		 */
+		public long moves(boolean mrX) {
+			long total = 0;
+			for (Ticket ticket : Ticket.values())
+				total += tickets(mrX, ticket);
+			return total;
+		}
+
+		/**
+		 * @param ticket the ticket; not null
+		 * @return the number of Mr.X's moves with the ticket in rounds that do
+		 *         not reveal him
+		 */
+		public long hiddenMoves(Ticket ticket) {
+			return counts[HIDDEN + ticket.ordinal()];
+		}
+
+		/**
+		 * @return the number of pass moves
+		 */
+		public long passes() {
+			return counts[PASSES];
+		}
+
+		/**
+		 * @return the number of double moves
+		 */
+		public long doubleMoves() {
+			return counts[DOUBLE_MOVES];
+		}
+
+		/**
+		 * @return the number of finished games
+		 */
+		public long games() {
+			return counts[MRX_WINS] + counts[DETECTIVE_WINS];
+		}
+
+		/**
+		 * @return the number of games Mr.X won
+		 */
+		public long mrXWins() {
+			return counts[MRX_WINS];
+		}
+
+	}
+
+}
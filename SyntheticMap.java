@@ -0,0 +1,317 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import uk.ac.bris.cs.gamekit.graph.Edge;
+import uk.ac.bris.cs.gamekit.graph.Graph;
+import uk.ac.bris.cs.gamekit.graph.ImmutableGraph;
+import uk.ac.bris.cs.gamekit.graph.Node;
+import uk.ac.bris.cs.gamekit.graph.UndirectedGraph;
+
+/**
+ * A seeded, synthetic Scotland Yard map for load and scale testing. Maps are
+ * laid out like the standard board: every node is a taxi stop, roughly a
+ * quarter are bus stations, a subset of those are underground stations and a
+ * handful of underground stations along a river are connected by boat.
+ *
+ * <br>
+ * The same seed and node count always produce the same map, start locations
+ * and rounds.
+ */
+public class SyntheticMap {
+
+	/**
+	 * The map, node ids are {@code 1..nodes}
+	 */
+	public final ImmutableGraph<Integer, Transport> graph;
+
+	/**
+	 * Possible initial locations for Mr.X, disjoint from
+	 * {@link #detectiveLocations}
+	 */
+	public final List<Integer> mrXLocations;
+
+	/**
+	 * Possible initial locations for detectives
+	 */
+	public final List<Integer> detectiveLocations;
+
+	/**
+	 * Reveal and hidden rounds, in the same form as
+	 * {@link StandardGame#ROUNDS}
+	 */
+	public final List<Boolean> rounds;
+
+	private final int nodes;
+	private final int[] sources;
+	private final int[] destinations;
+	private final Transport[] transports;
+
+	private SyntheticMap(int nodes, int[] sources, int[] destinations, Transport[] transports,
+			List<Integer> mrXLocations, List<Integer> detectiveLocations, List<Boolean> rounds) {
+		this.nodes = nodes;
+		this.sources = sources;
+		this.destinations = destinations;
+		this.transports = transports;
+		this.mrXLocations = mrXLocations;
+		this.detectiveLocations = detectiveLocations;
+		this.rounds = rounds;
+		this.graph = new ImmutableGraph<>(buildGraph());
+	}
+
+	/**
+	 * Generates a map with 24 rounds, like the standard game
+	 *
+	 * @param seed the seed of the map
+	 * @param nodes number of nodes, at least 16
+	 * @return the map; never null
+	 */
+	public static SyntheticMap generate(long seed, int nodes) {
+		return generate(seed, nodes, StandardGame.ROUNDS.size());
+	}
+
+	/**
+	 * Generates a map
+	 *
+	 * @param seed the seed of the map
+	 * @param nodes number of nodes, at least 16
+	 * @param rounds number of rounds Mr.X has to survive, at least 1
+	 * @return the map; never null
+	 */
+	public static SyntheticMap generate(long seed, int nodes, int rounds) {
+		if (nodes < 16) throw new IllegalArgumentException("nodes < 16");
+		if (rounds < 1) throw new IllegalArgumentException("rounds < 1");
+		return new Generator(seed, nodes).generate(rounds);
+	}
+
+	/**
+	 * @return the number of nodes of the map
+	 */
+	public int nodes() {
+		return nodes;
+	}
+
+	/**
+	 * @return the number of edges of the map
+	 */
+	public int edges() {
+		return sources.length;
+	}
+
+	/**
+	 * Converts the map into the text format read by
+	 * {@link ScotlandYardGraphReader#fromLines(List)}
+	 *
+	 * @return the lines; never null
+	 */
+	public List<String> toLines() {
+		List<String> lines = new ArrayList<>(1 + nodes + sources.length);
+		lines.add(nodes + " " + sources.length);
+		for (int node = 1; node <= nodes; node++)
+			lines.add(Integer.toString(node));
+		for (int i = 0; i < sources.length; i++)
+			lines.add(sources[i] + " " + destinations[i] + " " + transports[i]);
+		return lines;
+	}
+
+	private Graph<Integer, Transport> buildGraph() {
+		UndirectedGraph<Integer, Transport> graph = new UndirectedGraph<>();
+		List<Node<Integer>> created = new ArrayList<>(nodes + 1);
+		created.add(null);
+		for (int node = 1; node <= nodes; node++) {
+			Node<Integer> n = new Node<>(node);
+			graph.addNode(n);
+			created.add(n);
+		}
+		for (int i = 0; i < sources.length; i++)
+			graph.addEdge(new Edge<>(created.get(sources[i]), created.get(destinations[i]),
+					transports[i]));
+		return graph;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("SyntheticMap{");
+		sb.append("nodes=").append(nodes);
+		sb.append(", edges=").append(sources.length);
+		sb.append(", mrXLocations=").append(mrXLocations.size());
+		sb.append(", detectiveLocations=").append(detectiveLocations.size());
+		sb.append(", rounds=").append(rounds.size());
+		sb.append('}');
+		return sb.toString();
+	}
+
+	/**
+	 * Lays the nodes out on a square grid and adds each transport layer on a
+	 * coarser grid of stations, so degrees stay close to the standard map no
+	 * matter how large the map gets.
+	 */
+	private static class Generator {
+
+		private static final int BUS_CELL = 2;
+		private static final int UNDERGROUND_CELL = 4;
+		private static final int BOAT_SPACING = 3;
+
+		private final SplittableRandom random;
+		private final long seed;
+		private final int nodes;
+		private final int width;
+		private final int height;
+
+		private int[] sources = new int[16];
+		private int[] destinations = new int[16];
+		private Transport[] transports = new Transport[16];
+		private int edges;
+
+		Generator(long seed, int nodes) {
+			this.seed = seed;
+			this.random = new SplittableRandom(seed);
+			this.nodes = nodes;
+			this.width = (int) Math.ceil(Math.sqrt(nodes));
+			this.height = (nodes + width - 1) / width;
+		}
+
+		SyntheticMap generate(int rounds) {
+			addTaxiLayer();
+			int[] busStations = addStationLayer(BUS_CELL, null, Transport.Bus, 0.85, 0);
+			int[] undergroundStations = addStationLayer(UNDERGROUND_CELL, busStations,
+					Transport.Underground, 0.8, 0.25);
+			addBoatLayer(undergroundStations);
+			// same proportions as StandardGame: 12 Mr.X and 14 detective locations per 199 nodes
+			int mrX = Math.max(2, nodes * 12 / 199);
+			int detectives = Math.max(6, nodes * 14 / 199);
+			List<Integer> locations = shuffledNodes(mrX + detectives);
+			return new SyntheticMap(nodes,
+					Arrays.copyOf(sources, edges),
+					Arrays.copyOf(destinations, edges),
+					Arrays.copyOf(transports, edges),
+					Collections.unmodifiableList(new ArrayList<>(locations.subList(0, mrX))),
+					Collections.unmodifiableList(
+							new ArrayList<>(locations.subList(mrX, mrX + detectives))),
+					rounds(rounds));
+		}
+
+		// every node links to its left or upper neighbour so the map is connected
+		private void addTaxiLayer() {
+			for (int index = 1; index < nodes; index++) {
+				int x = index % width;
+				int y = index / width;
+				boolean left = x > 0 && random.nextDouble() < 0.75;
+				boolean up = y > 0 && random.nextDouble() < 0.75;
+				if (!left && !up) {
+					if (x > 0) left = true;
+					else up = true;
+				}
+				if (left) addEdge(index - 1, index, Transport.Taxi);
+				if (up) addEdge(index - width, index, Transport.Taxi);
+				if (x > 0 && y > 0 && random.nextDouble() < 0.15)
+					addEdge(index - width - 1, index, Transport.Taxi);
+			}
+		}
+
+		// one station per cell, picked from the previous layer's stations if given
+		private int[] addStationLayer(int cell, int[] candidates, Transport transport,
+				double linkProbability, double longLinkProbability) {
+			int columns = (width + cell - 1) / cell;
+			int rows = (height + cell - 1) / cell;
+			int[] stations = new int[columns * rows];
+			for (int row = 0; row < rows; row++) {
+				for (int column = 0; column < columns; column++) {
+					stations[row * columns + column] = candidates == null
+							? pickInCell(column * cell, row * cell, cell)
+							: stationInCell(candidates, column * cell, row * cell, cell);
+				}
+			}
+			for (int row = 0; row < rows; row++) {
+				for (int column = 0; column < columns; column++) {
+					int station = stations[row * columns + column];
+					if (station < 0) continue;
+					if (column > 0 && random.nextDouble() < linkProbability)
+						addStationEdge(stations[row * columns + column - 1], station, transport);
+					if (row > 0 && random.nextDouble() < linkProbability)
+						addStationEdge(stations[(row - 1) * columns + column], station, transport);
+					if (column > 1 && random.nextDouble() < longLinkProbability)
+						addStationEdge(stations[row * columns + column - 2], station, transport);
+				}
+			}
+			return stations;
+		}
+
+		// a few underground stations along the middle row form the river
+		private void addBoatLayer(int[] undergroundStations) {
+			int columns = (width + UNDERGROUND_CELL - 1) / UNDERGROUND_CELL;
+			int river = ((height + UNDERGROUND_CELL - 1) / UNDERGROUND_CELL) / 2;
+			int previous = -1;
+			for (int column = 0; column < columns; column += BOAT_SPACING) {
+				int station = undergroundStations[river * columns + column];
+				if (station < 0) continue;
+				if (previous >= 0) addEdge(previous, station, Transport.Boat);
+				previous = station;
+			}
+		}
+
+		private int pickInCell(int x, int y, int cell) {
+			int columns = Math.min(cell, width - x);
+			int rows = Math.min(cell, height - y);
+			int index = (y + random.nextInt(rows)) * width + x + random.nextInt(columns);
+			if (index < nodes) return index;
+			// the last grid row may be incomplete, fall back to the cell's first node
+			return y * width + x < nodes ? y * width + x : -1;
+		}
+
+		private int stationInCell(int[] candidates, int x, int y, int cell) {
+			int subCell = BUS_CELL;
+			int columns = (width + subCell - 1) / subCell;
+			return candidates[(y / subCell) * columns + x / subCell];
+		}
+
+		private void addStationEdge(int from, int to, Transport transport) {
+			if (from >= 0 && to >= 0 && from != to) addEdge(from, to, transport);
+		}
+
+		private void addEdge(int from, int to, Transport transport) {
+			if (edges == sources.length) {
+				sources = Arrays.copyOf(sources, edges * 2);
+				destinations = Arrays.copyOf(destinations, edges * 2);
+				transports = Arrays.copyOf(transports, edges * 2);
+			}
+			// node ids start at 1, like graph.txt
+			sources[edges] = from + 1;
+			destinations[edges] = to + 1;
+			transports[edges] = transport;
+			edges++;
+		}
+
+		private List<Integer> shuffledNodes(int count) {
+			// partial Fisher-Yates, so the two lists never share a node
+			Random shuffle = new Random(seed);
+			int[] ids = new int[nodes];
+			for (int i = 0; i < nodes; i++)
+				ids[i] = i + 1;
+			List<Integer> picked = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				int j = i + shuffle.nextInt(nodes - i);
+				int swap = ids[i];
+				ids[i] = ids[j];
+				ids[j] = swap;
+				picked.add(ids[i]);
+			}
+			return picked;
+		}
+
+		// reveals on round 3 and every 5 rounds after, ending on the last round
+		private static List<Boolean> rounds(int rounds) {
+			List<Boolean> schedule = new ArrayList<>(rounds);
+			for (int round = 1; round <= rounds; round++)
+				schedule.add((round % 5 == 3 && round + 5 <= rounds) || round == rounds);
+			return Collections.unmodifiableList(schedule);
+		}
+
+	}
+
+}
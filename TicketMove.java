@@ -3,12 +3,15 @@ package uk.ac.bris.cs.scotlandyard.model;
 import java.util.Objects;
 
 /**
- * Represents a ticket move in the Scotland Yard game
+ * Represents a ticket move in the Scotland Yard game, see {@link Moves} for
+ * canonical instances
  */
 public class TicketMove extends Move {
 
 	private final Ticket ticket;
 	private final int destination;
+	// not serialized, computed from ordinals so equal moves of different JVMs hash alike
+	private transient int hash;
 
 	/**
 	 * Create a new ticket move with ticket and destination
@@ -53,7 +56,13 @@ public class TicketMove extends Move {
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(super.hashCode(), ticket, destination);
+		int hash = this.hash;
+		if (hash == 0) {
+			hash = 31 * (31 * (colour() == null ? -1 : colour().ordinal())
+					+ (ticket == null ? -1 : ticket.ordinal())) + destination;
+			this.hash = hash;
+		}
+		return hash;
 	}
 
 	@Override
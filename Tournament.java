@@ -0,0 +1,426 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+import uk.ac.bris.cs.gamekit.graph.Graph;
+
+/**
+ * Plays every Mr.X player against every detective player and aggregates the
+ * outcomes into {@link TournamentResult}s.
+ *
+ * <br>
+ * Each pairing plays the same games. The start locations of game {@code i}
+ * come from {@link StandardGame#generateMrXLocation(int)} and
+ * {@link StandardGame#generateDetectiveLocations(int, int)}, with a seed
+ * derived from the tournament seed and {@code i}. Players are created per game
+ * by a factory that is given a seed derived the same way. So a tournament with
+ * deterministic players gives the same win rates and game lengths for the same
+ * seed, however many threads it uses. Think times are measured and naturally
+ * vary between runs.
+ *
+ * <br>
+ * The detective player of a game plays all detectives. Players that are also
+ * {@link Spectator}s are registered with the game. Players may answer on
+ * another thread. A rotation that is not complete within the rotation timeout
+ * forfeits the game for the side that has not answered, which loses it.
+ */
+public class Tournament {
+
+	private static final Colour[] DETECTIVES = { Colour.Blue, Colour.Green, Colour.Red,
+			Colour.White, Colour.Yellow };
+
+	private final Graph<Integer, Transport> graph;
+	private final Map<String, LongFunction<Player>> mrXPlayers;
+	private final Map<String, LongFunction<Player>> detectivePlayers;
+	private final List<Boolean> rounds;
+	private final Map<Ticket, Integer> mrXTickets;
+	private final int detectives;
+	private final int games;
+	private final long seed;
+	private final int threads;
+	private final long rotationTimeoutNanos;
+
+	private Tournament(Builder builder) {
+		this.graph = builder.graph;
+		this.mrXPlayers = new LinkedHashMap<>(builder.mrXPlayers);
+		this.detectivePlayers = new LinkedHashMap<>(builder.detectivePlayers);
+		this.rounds = builder.rounds;
+		this.mrXTickets = builder.mrXTickets;
+		this.detectives = builder.detectives;
+		this.games = builder.games;
+		this.seed = builder.seed;
+		this.threads = builder.threads;
+		this.rotationTimeoutNanos = builder.rotationTimeoutNanos;
+	}
+
+	/**
+	 * Plays all games of the tournament
+	 *
+	 * @return one result per pairing, Mr.X players in the order they were
+	 *         added, then detective players in the order they were added;
+	 *         never null
+	 * @throws InterruptedException if interrupted while waiting for games
+	 * @throws IllegalStateException if a game fails
+	 */
+	public List<TournamentResult> run() throws InterruptedException {
+		List<Callable<Outcome>> tasks = new ArrayList<>();
+		// rotations start on their own threads, so players that block when asked
+		// for a move time out as well; threads of forfeited games are abandoned
+		ExecutorService rotator = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "tournament-rotation");
+			thread.setDaemon(true);
+			return thread;
+		});
+		for (LongFunction<Player> mrX : mrXPlayers.values()) {
+			for (LongFunction<Player> detective : detectivePlayers.values()) {
+				for (int game = 0; game < games; game++) {
+					long gameSeed = mix(seed + game);
+					tasks.add(() -> play(gameSeed, mrX, detective, rotator));
+				}
+			}
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Outcome>> futures;
+		try {
+			futures = executor.invokeAll(tasks);
+		} finally {
+			executor.shutdownNow();
+			rotator.shutdownNow();
+		}
+		List<TournamentResult> results = new ArrayList<>();
+		int next = 0;
+		for (String mrX : mrXPlayers.keySet()) {
+			for (String detective : detectivePlayers.keySet()) {
+				int wins = 0, mrXForfeits = 0, detectiveForfeits = 0;
+				long rounds = 0, mrXMoves = 0, mrXNanos = 0, detectiveMoves = 0, detectiveNanos = 0;
+				for (int game = 0; game < games; game++) {
+					Outcome outcome = outcome(futures.get(next++), mrX, detective, game);
+					if (outcome.mrXWon) wins++;
+					if (outcome.forfeited) {
+						if (outcome.mrXWon) detectiveForfeits++;
+						else mrXForfeits++;
+					}
+					rounds += outcome.rounds;
+					mrXMoves += outcome.mrX.moves.get();
+					mrXNanos += outcome.mrX.nanos.get();
+					detectiveMoves += outcome.detectives.moves.get();
+					detectiveNanos += outcome.detectives.nanos.get();
+				}
+				results.add(new TournamentResult(mrX, detective, games, wins, rounds, mrXMoves,
+						mrXNanos, detectiveMoves, detectiveNanos, mrXForfeits, detectiveForfeits));
+			}
+		}
+		return results;
+	}
+
+	private static Outcome outcome(Future<Outcome> future, String mrX, String detective,
+			int game) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(
+					String.format("Game %d of %s vs %s failed", game, mrX, detective), e.getCause());
+		}
+	}
+
+	private Outcome play(long gameSeed, LongFunction<Player> mrXFactory,
+			LongFunction<Player> detectiveFactory, ExecutorService rotator)
+			throws InterruptedException {
+		Player mrXPlayer = Objects.requireNonNull(mrXFactory.apply(mix(gameSeed ^ 1)));
+		Player detectivePlayer = Objects.requireNonNull(detectiveFactory.apply(mix(gameSeed ^ 2)));
+		TimedPlayer mrX = new TimedPlayer(mrXPlayer);
+		TimedPlayer detective = new TimedPlayer(detectivePlayer);
+		List<Integer> locations = StandardGame.generateDetectiveLocations((int) gameSeed, detectives);
+		PlayerConfiguration[] configurations = new PlayerConfiguration[detectives];
+		for (int i = 0; i < detectives; i++)
+			configurations[i] = new PlayerConfiguration.Builder(DETECTIVES[i]).using(detective)
+					.with(StandardGame.generateDetectiveTickets()).at(locations.get(i)).build();
+		ScotlandYardModel model = new ScotlandYardModel(rounds, graph,
+				new PlayerConfiguration.Builder(Colour.Black).using(mrX)
+						.with(new LinkedHashMap<>(mrXTickets))
+						.at(StandardGame.generateMrXLocation((int) gameSeed)).build(),
+				configurations[0], Arrays.copyOfRange(configurations, 1, detectives));
+		if (mrXPlayer instanceof Spectator) model.registerSpectator((Spectator) mrXPlayer);
+		if (detectivePlayer instanceof Spectator && detectivePlayer != mrXPlayer)
+			model.registerSpectator((Spectator) detectivePlayer);
+		RotationLatch latch = new RotationLatch();
+		model.registerSpectator(latch);
+		while (!model.isGameOver()) {
+			int round = model.getCurrentRound();
+			if (!rotate(model, latch, rotator)) {
+				// the game is abandoned, a late answer may still change it
+				if (mrX.waiting) return new Outcome(false, true, round, mrX, detective);
+				if (detective.waiting) return new Outcome(true, true, round, mrX, detective);
+				throw new IllegalStateException("Rotation timed out with no player to move");
+			}
+		}
+		return new Outcome(model.getWinningPlayers().contains(Colour.Black), false,
+				model.getCurrentRound(), mrX, detective);
+	}
+
+	// starts a rotation and waits until it is complete and startRotate has
+	// returned, false if that takes longer than the rotation timeout
+	private boolean rotate(ScotlandYardModel model, RotationLatch latch, ExecutorService rotator)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + rotationTimeoutNanos;
+		CountDownLatch rotation = latch.arm();
+		AtomicReference<RuntimeException> failure = new AtomicReference<>();
+		Future<?> started = rotator.submit(() -> {
+			try {
+				model.startRotate();
+			} catch (RuntimeException e) {
+				failure.set(e);
+				rotation.countDown();
+			}
+		});
+		if (!rotation.await(rotationTimeoutNanos, TimeUnit.NANOSECONDS)) return false;
+		try {
+			started.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			return false;
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+		if (failure.get() != null) throw failure.get();
+		return true;
+	}
+
+	// splitmix64, spreads consecutive seeds over the whole range
+	private static long mix(long value) {
+		long z = value + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private static class Outcome {
+
+		final boolean mrXWon;
+		// the loser did not answer in time
+		final boolean forfeited;
+		final int rounds;
+		final TimedPlayer mrX, detectives;
+
+		Outcome(boolean mrXWon, boolean forfeited, int rounds, TimedPlayer mrX,
+				TimedPlayer detectives) {
+			this.mrXWon = mrXWon;
+			this.forfeited = forfeited;
+			this.rounds = rounds;
+			this.mrX = mrX;
+			this.detectives = detectives;
+		}
+
+	}
+
+	// measures the time from being asked for a move to answering it
+	private static class TimedPlayer implements Player {
+
+		final Player player;
+		final AtomicLong moves = new AtomicLong();
+		final AtomicLong nanos = new AtomicLong();
+		// asked for a move that it has not answered yet
+		volatile boolean waiting;
+
+		TimedPlayer(Player player) {
+			this.player = player;
+		}
+
+		@Override
+		public void makeMove(ScotlandYardView view, int location, Set<Move> moves,
+				Consumer<Move> callback) {
+			long start = System.nanoTime();
+			waiting = true;
+			player.makeMove(view, location, moves, move -> {
+				waiting = false;
+				this.nanos.addAndGet(System.nanoTime() - start);
+				this.moves.incrementAndGet();
+				callback.accept(move);
+			});
+		}
+
+	}
+
+	// released when a rotation completes or the game ends, on whichever thread
+	private static class RotationLatch implements Spectator {
+
+		private volatile CountDownLatch latch;
+
+		CountDownLatch arm() {
+			latch = new CountDownLatch(1);
+			return latch;
+		}
+
+		@Override
+		public void onRotationComplete(ScotlandYardView view) {
+			latch.countDown();
+		}
+
+		@Override
+		public void onGameOver(ScotlandYardView view, Set<Colour> winningPlayers) {
+			latch.countDown();
+		}
+
+	}
+
+	/**
+	 * A builder for {@link Tournament}
+	 */
+	public static class Builder {
+
+		private final Graph<Integer, Transport> graph;
+		private final Map<String, LongFunction<Player>> mrXPlayers = new LinkedHashMap<>();
+		private final Map<String, LongFunction<Player>> detectivePlayers = new LinkedHashMap<>();
+		private List<Boolean> rounds = StandardGame.ROUNDS;
+		private Map<Ticket, Integer> mrXTickets = StandardGame.generateMrXTickets();
+		private int detectives = DETECTIVES.length;
+		private int games = 100;
+		private long seed;
+		private int threads = Runtime.getRuntime().availableProcessors();
+		private long rotationTimeoutNanos = TimeUnit.MINUTES.toNanos(1);
+
+		/**
+		 * Creates a builder for tournaments on the given map, usually
+		 * {@link StandardGame#standardGraph()}
+		 *
+		 * @param graph the graph of the games; not null
+		 */
+		public Builder(Graph<Integer, Transport> graph) {
+			this.graph = Objects.requireNonNull(graph);
+		}
+
+		/**
+		 * Adds a Mr.X player
+		 *
+		 * @param name a unique name of the player; not null
+		 * @param factory creates a player for a game from a seed; not null
+		 * @return the builder for chaining; never null
+		 */
+		public Builder mrX(String name, LongFunction<Player> factory) {
+			add(mrXPlayers, name, factory);
+			return this;
+		}
+
+		/**
+		 * Adds a detective player, one instance plays all detectives of a game
+		 *
+		 * @param name a unique name of the player; not null
+		 * @param factory creates a player for a game from a seed; not null
+		 * @return the builder for chaining; never null
+		 */
+		public Builder detectives(String name, LongFunction<Player> factory) {
+			add(detectivePlayers, name, factory);
+			return this;
+		}
+
+		private static void add(Map<String, LongFunction<Player>> players, String name,
+				LongFunction<Player> factory) {
+			Objects.requireNonNull(name);
+			Objects.requireNonNull(factory);
+			if (players.putIfAbsent(name, factory) != null)
+				throw new IllegalArgumentException("Duplicate player " + name);
+		}
+
+		/**
+		 * @param rounds the rounds of every game; not null
+		 * @return the builder for chaining; never null
+		 */
+		public Builder rounds(List<Boolean> rounds) {
+			this.rounds = Collections.unmodifiableList(new ArrayList<>(rounds));
+			return this;
+		}
+
+		/**
+		 * @param tickets Mr.X's tickets at the start of every game, the
+		 *        detectives get {@link StandardGame#generateDetectiveTickets()};
+		 *        not null
+		 * @return the builder for chaining; never null
+		 */
+		public Builder mrXTickets(Map<Ticket, Integer> tickets) {
+			this.mrXTickets = new LinkedHashMap<>(Objects.requireNonNull(tickets));
+			return this;
+		}
+
+		/**
+		 * @param detectives the number of detectives, between 1 and 5
+		 * @return the builder for chaining; never null
+		 */
+		public Builder detectiveCount(int detectives) {
+			if (detectives < 1 || detectives > DETECTIVES.length)
+				throw new IllegalArgumentException("Between 1 and 5 detectives");
+			this.detectives = detectives;
+			return this;
+		}
+
+		/**
+		 * @param games the number of games per pairing, at least 1
+		 * @return the builder for chaining; never null
+		 */
+		public Builder games(int games) {
+			if (games < 1) throw new IllegalArgumentException("At least one game");
+			this.games = games;
+			return this;
+		}
+
+		/**
+		 * @param seed the seed that determines all start locations and player
+		 *        seeds
+		 * @return the builder for chaining; never null
+		 */
+		public Builder seed(long seed) {
+			this.seed = seed;
+			return this;
+		}
+
+		/**
+		 * @param threads the number of games played at once, at least 1
+		 * @return the builder for chaining; never null
+		 */
+		public Builder threads(int threads) {
+			if (threads < 1) throw new IllegalArgumentException("At least one thread");
+			this.threads = threads;
+			return this;
+		}
+
+		/**
+		 * @param timeout the time a rotation of a game may take, Mr.X's move
+		 *        and all detectives' moves; positive. Defaults to one minute.
+		 * @param unit the unit of the timeout; not null
+		 * @return the builder for chaining; never null
+		 */
+		public Builder rotationTimeout(long timeout, TimeUnit unit) {
+			if (timeout < 1) throw new IllegalArgumentException("timeout must be positive");
+			this.rotationTimeoutNanos = unit.toNanos(timeout);
+			return this;
+		}
+
+		/**
+		 * @return the tournament; never null
+		 */
+		public Tournament build() {
+			if (mrXPlayers.isEmpty() || detectivePlayers.isEmpty())
+				throw new IllegalStateException("Tournament needs Mr.X and detective players");
+			return new Tournament(this);
+		}
+
+	}
+
+}
@@ -0,0 +1,124 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+/**
+ * The aggregated outcome of all games between one Mr.X player and one
+ * detective player of a {@link Tournament}.
+ */
+public class TournamentResult {
+
+	/**
+	 * The name of the Mr.X player
+	 */
+	public final String mrX;
+
+	/**
+	 * The name of the detective player
+	 */
+	public final String detectives;
+
+	/**
+	 * The number of games played
+	 */
+	public final int games;
+
+	/**
+	 * The number of games Mr.X won
+	 */
+	public final int mrXWins;
+
+	/**
+	 * The total number of rounds played over all games
+	 */
+	public final long rounds;
+
+	/**
+	 * The number of moves Mr.X made and the total time he took to choose them
+	 */
+	public final long mrXMoves, mrXThinkNanos;
+
+	/**
+	 * The number of moves the detectives made and the total time they took to
+	 * choose them
+	 */
+	public final long detectiveMoves, detectiveThinkNanos;
+
+	/**
+	 * The number of games Mr.X and the detectives lost because they did not
+	 * answer within the rotation timeout
+	 */
+	public final int mrXForfeits, detectiveForfeits;
+
+	TournamentResult(String mrX, String detectives, int games, int mrXWins, long rounds,
+			long mrXMoves, long mrXThinkNanos, long detectiveMoves, long detectiveThinkNanos,
+			int mrXForfeits, int detectiveForfeits) {
+		this.mrX = mrX;
+		this.detectives = detectives;
+		this.games = games;
+		this.mrXWins = mrXWins;
+		this.rounds = rounds;
+		this.mrXMoves = mrXMoves;
+		this.mrXThinkNanos = mrXThinkNanos;
+		this.detectiveMoves = detectiveMoves;
+		this.detectiveThinkNanos = detectiveThinkNanos;
+		this.mrXForfeits = mrXForfeits;
+		this.detectiveForfeits = detectiveForfeits;
+	}
+
+	/**
+	 * @return the fraction of games Mr.X won
+	 */
+	public double mrXWinRate() {
+		return games == 0 ? 0 : (double) mrXWins / games;
+	}
+
+	/**
+	 * The Wilson score interval of Mr.X's win rate
+	 *
+	 * @param z the standard score of the confidence level, e.g. 1.96 for 95%
+	 * @return the lower and upper bound of the interval; never null
+	 */
+	public double[] mrXWinRateInterval(double z) {
+		if (games == 0) return new double[] { 0, 1 };
+		double p = mrXWinRate();
+		double z2 = z * z;
+		double centre = (p + z2 / (2 * games)) / (1 + z2 / games);
+		double spread = z * Math.sqrt(p * (1 - p) / games + z2 / (4.0 * games * games))
+				/ (1 + z2 / games);
+		return new double[] { Math.max(0, centre - spread), Math.min(1, centre + spread) };
+	}
+
+	/**
+	 * @return the average number of rounds of a game
+	 */
+	public double averageRounds() {
+		return games == 0 ? 0 : (double) rounds / games;
+	}
+
+	/**
+	 * @return the average time in milliseconds Mr.X took to choose a move
+	 */
+	public double mrXMillisPerMove() {
+		return mrXMoves == 0 ? 0 : mrXThinkNanos / 1e6 / mrXMoves;
+	}
+
+	/**
+	 * @return the average time in milliseconds a detective took to choose a
+	 *         move
+	 */
+	public double detectiveMillisPerMove() {
+		return detectiveMoves == 0 ? 0 : detectiveThinkNanos / 1e6 / detectiveMoves;
+	}
+
+	@Override
+	public String toString() {
+		double[] interval = mrXWinRateInterval(1.96);
+		String forfeits = mrXForfeits + detectiveForfeits == 0 ? ""
+				: String.format(", forfeits Mr.X %d, detectives %d", mrXForfeits, detectiveForfeits);
+		return String.format(
+				"%s vs %s: %d games, Mr.X wins %.1f%% [%.1f%%, %.1f%%], %.1f rounds, "
+						+ "Mr.X %.3f ms/move, detectives %.3f ms/move%s",
+				mrX, detectives, games, mrXWinRate() * 100, interval[0] * 100, interval[1] * 100,
+				averageRounds(), mrXMillisPerMove(), detectiveMillisPerMove(), forfeits);
+	}
+
+}
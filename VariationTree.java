@@ -0,0 +1,241 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A tree of lines of play from a position, for exploring alternatives to the
+ * moves of a game.
+ *
+ * <br>
+ * Every node is the state reached by playing its move from its parent. Nodes
+ * are persistent: a node never changes once created, so any node can be
+ * revisited, played from or restored into a {@link ScotlandYardModel} at any
+ * time and branching from it costs the same as playing one move. The state of
+ * a node is a {@link GameSnapshot} that shares the locations and ticket counts
+ * that its move did not change with its parent's, so a node takes a couple of
+ * hundred bytes whatever its depth and the tree grows with the number of
+ * distinct moves explored, not with the length of the lines. Playing a move that was
+ * played from the node before returns the existing child.
+ *
+ * <br>
+ * Moves are checked and applied by the model's own rules. Mr.X's moves must be
+ * given unmasked, as in a {@link GameRecord}. Nodes can be read and played
+ * from on any thread.
+ */
+public final class VariationTree {
+
+	// restored games never get past asking the next player for a move
+	private static final Player IDLE = (view, location, moves, callback) -> {};
+
+	private final GameDefinition definition;
+	private final Node root;
+	private final AtomicInteger size = new AtomicInteger(1);
+
+	/**
+	 * Creates a tree from the current state of a game
+	 *
+	 * @param model the game; not null
+	 * @return the tree; never null
+	 */
+	public static VariationTree of(ScotlandYardModel model) {
+		return new VariationTree(model.definition(), model.checkpoint(), model.getWinningPlayers());
+	}
+
+	/**
+	 * @param definition the definition of the game; not null
+	 * @param snapshot the state at the root; not null
+	 * @throws IllegalArgumentException if the snapshot does not describe a valid
+	 *         game of the definition
+	 */
+	public VariationTree(GameDefinition definition, GameSnapshot snapshot) {
+		this(definition, snapshot,
+				snapshot.restore(definition, colour -> IDLE).getWinningPlayers());
+	}
+
+	private VariationTree(GameDefinition definition, GameSnapshot snapshot,
+			Set<Colour> winningPlayers) {
+		this.definition = Objects.requireNonNull(definition);
+		this.root = new Node(null, null, snapshot, winningPlayers);
+	}
+
+	/**
+	 * @return the definition of the game; never null
+	 */
+	public GameDefinition definition() {
+		return definition;
+	}
+
+	/**
+	 * @return the node of the starting position; never null
+	 */
+	public Node root() {
+		return root;
+	}
+
+	/**
+	 * @return the number of nodes, the root included
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * A position of the tree
+	 */
+	public final class Node {
+
+		private final Node parent;
+		private final Move move;
+		private final int depth;
+		private final GameSnapshot snapshot;
+		private final Set<Colour> winningPlayers;
+		// guarded by this, null until the first variation
+		private List<Node> children;
+
+		private Node(Node parent, Move move, GameSnapshot snapshot, Set<Colour> winningPlayers) {
+			this.parent = parent;
+			this.move = move;
+			this.depth = parent == null ? 0 : parent.depth + 1;
+			this.snapshot = snapshot;
+			this.winningPlayers = winningPlayers;
+		}
+
+		/**
+		 * @return the tree of the node; never null
+		 */
+		public VariationTree tree() {
+			return VariationTree.this;
+		}
+
+		/**
+		 * @return the node the move was played from, null for the root
+		 */
+		public Node parent() {
+			return parent;
+		}
+
+		/**
+		 * @return the move that led to the node, null for the root
+		 */
+		public Move move() {
+			return move;
+		}
+
+		/**
+		 * @return the number of moves from the root, double moves counting as
+		 *         one
+		 */
+		public int depth() {
+			return depth;
+		}
+
+		/**
+		 * @return the state of the game at the node; never null
+		 */
+		public GameSnapshot snapshot() {
+			return snapshot;
+		}
+
+		/**
+		 * @return true if the game is over at the node
+		 */
+		public boolean isGameOver() {
+			return !winningPlayers.isEmpty();
+		}
+
+		/**
+		 * @return an immutable set of the winners; empty while the game is not
+		 *         over, never null
+		 */
+		public Set<Colour> winningPlayers() {
+			return winningPlayers;
+		}
+
+		/**
+		 * @return the moves played from the root to the node; never null
+		 */
+		public List<Move> line() {
+			Move[] moves = new Move[depth];
+			for (Node node = this; node.parent != null; node = node.parent)
+				moves[node.depth - 1] = node.move;
+			return Collections.unmodifiableList(Arrays.asList(moves));
+		}
+
+		/**
+		 * @return the nodes played from this node so far, in the order they
+		 *         were first played; never null
+		 */
+		public synchronized List<Node> children() {
+			return children == null ? Collections.emptyList()
+					: Collections.unmodifiableList(new ArrayList<>(children));
+		}
+
+		/**
+		 * Plays a move of the current player
+		 *
+		 * @param move the move; not null
+		 * @return the node reached, the existing one if the move was played
+		 *         from this node before; never null
+		 * @throws IllegalStateException if the game is over at the node
+		 * @throws IllegalArgumentException if the move is not valid
+		 */
+		public synchronized Node play(Move move) {
+			Objects.requireNonNull(move);
+			if (children != null) {
+				for (Node child : children) {
+					if (child.move.equals(move)) return child;
+				}
+			}
+			if (isGameOver()) throw new IllegalStateException("The game is over");
+			ScotlandYardModel model = restore(colour -> IDLE);
+			model.accept(move);
+			Node child = new Node(this, move, model.checkpoint().sharing(snapshot),
+					model.getWinningPlayers());
+			if (children == null) children = new ArrayList<>(2);
+			children.add(child);
+			size.incrementAndGet();
+			return child;
+		}
+
+		/**
+		 * Plays moves one after another, e.g. the moves of a recorded game
+		 *
+		 * @param moves the moves; not null
+		 * @return the node reached after the last move; never null
+		 * @throws IllegalStateException if the game ends before the last move
+		 * @throws IllegalArgumentException if a move is not valid
+		 */
+		public Node play(Iterable<Move> moves) {
+			Node node = this;
+			for (Move move : moves)
+				node = node.play(move);
+			return node;
+		}
+
+		/**
+		 * Restores the game at the node, to continue it with real players
+		 *
+		 * @param players the player of each colour; not null
+		 * @return the game; never null
+		 * @throws IllegalArgumentException if the game is over with Mr.X
+		 *         captured, which a game cannot be restored to
+		 */
+		public ScotlandYardModel restore(Function<Colour, Player> players) {
+			return snapshot.restore(definition, players);
+		}
+
+		@Override
+		public String toString() {
+			return "Node{" + depth + ", " + move + "}";
+		}
+
+	}
+
+}